@@ -18,12 +18,15 @@
 package org.vaulttec.gitlab.community;
 
 import java.net.URI;
+import java.time.Duration;
 import java.util.List;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
 import org.vaulttec.gitlab.community.gitlab.model.GLPermission;
 
 @Configuration
@@ -38,6 +41,22 @@ public class CommunityConfig {
   private URI onlineHelpUri;
   private URI newIssueUri;
   private int maxPageButtons;
+  private boolean incrementalUserSync;
+  private Duration fullUserSyncInterval = Duration.ofHours(1);
+  private boolean groupUsersOnly;
+  @Min(1)
+  private int topicsConcurrency = 4;
+  @Min(1)
+  private int topicMembersConcurrency = 4;
+  private String webhookToken;
+  private String avatarCacheDir;
+  private DataSize avatarCacheSize = DataSize.ofMegabytes(50);
+  @Min(1)
+  private int avatarSize = 160;
+  private Duration avatarMaxAge = Duration.ofDays(1);
+  private DataSize avatarMaxImageSize = DataSize.ofMegabytes(1);
+  @Min(1)
+  private int avatarMaxCount = 10000;
 
   public String getGroupPath() {
     return groupPath;
@@ -103,11 +122,142 @@ public class CommunityConfig {
     this.maxPageButtons = maxPageButtons;
   }
 
+  /**
+   * Returns <code>true</code> if only the GitLab users updated since the last
+   * refresh are retrieved (instead of all users)
+   */
+  public boolean isIncrementalUserSync() {
+    return incrementalUserSync;
+  }
+
+  public void setIncrementalUserSync(boolean incrementalUserSync) {
+    this.incrementalUserSync = incrementalUserSync;
+  }
+
+  /** Returns the interval of the full GitLab user retrieval when syncing incrementally */
+  public Duration getFullUserSyncInterval() {
+    return fullUserSyncInterval;
+  }
+
+  public void setFullUserSyncInterval(Duration fullUserSyncInterval) {
+    this.fullUserSyncInterval = fullUserSyncInterval;
+  }
+
+  /**
+   * Returns <code>true</code> if only the GitLab users which are members of the
+   * community group or its topic subgroups are retrieved (instead of all users)
+   */
+  public boolean isGroupUsersOnly() {
+    return groupUsersOnly;
+  }
+
+  public void setGroupUsersOnly(boolean groupUsersOnly) {
+    this.groupUsersOnly = groupUsersOnly;
+  }
+
+  /** Returns the number of Mattermost channels retrieved concurrently when retrieving the topics */
+  public int getTopicsConcurrency() {
+    return topicsConcurrency;
+  }
+
+  public void setTopicsConcurrency(int topicsConcurrency) {
+    this.topicsConcurrency = topicsConcurrency;
+  }
+
+  /** Returns the number of GitLab subgroups whose members are retrieved concurrently via REST */
+  public int getTopicMembersConcurrency() {
+    return topicMembersConcurrency;
+  }
+
+  public void setTopicMembersConcurrency(int topicMembersConcurrency) {
+    this.topicMembersConcurrency = topicMembersConcurrency;
+  }
+
+  /**
+   * Returns the secret token expected in the "X-Gitlab-Token" header of GitLab
+   * webhook requests. Without a token the webhook endpoint is disabled.
+   */
+  public String getWebhookToken() {
+    return webhookToken;
+  }
+
+  public void setWebhookToken(String webhookToken) {
+    this.webhookToken = webhookToken;
+  }
+
+  /**
+   * Returns the directory of the avatar thumbnail cache. Defaults to a
+   * directory in the system's temp directory.
+   */
+  public String getAvatarCacheDir() {
+    return avatarCacheDir;
+  }
+
+  public void setAvatarCacheDir(String avatarCacheDir) {
+    this.avatarCacheDir = avatarCacheDir;
+  }
+
+  public DataSize getAvatarCacheSize() {
+    return avatarCacheSize;
+  }
+
+  public void setAvatarCacheSize(DataSize avatarCacheSize) {
+    this.avatarCacheSize = avatarCacheSize;
+  }
+
+  /**
+   * Returns the width and height in pixels the avatar thumbnails are resized
+   * to.
+   */
+  public int getAvatarSize() {
+    return avatarSize;
+  }
+
+  public void setAvatarSize(int avatarSize) {
+    this.avatarSize = avatarSize;
+  }
+
+  public Duration getAvatarMaxAge() {
+    return avatarMaxAge;
+  }
+
+  public void setAvatarMaxAge(Duration avatarMaxAge) {
+    this.avatarMaxAge = avatarMaxAge;
+  }
+
+  /**
+   * Returns the maximum size of an avatar image fetched from GitLab. Larger
+   * images aren't decoded.
+   */
+  public DataSize getAvatarMaxImageSize() {
+    return avatarMaxImageSize;
+  }
+
+  public void setAvatarMaxImageSize(DataSize avatarMaxImageSize) {
+    this.avatarMaxImageSize = avatarMaxImageSize;
+  }
+
+  /**
+   * Returns the maximum number of avatars known to the avatar cache. The least
+   * recently used avatars (and their thumbnails) are dropped beyond this number.
+   */
+  public int getAvatarMaxCount() {
+    return avatarMaxCount;
+  }
+
+  public void setAvatarMaxCount(int avatarMaxCount) {
+    this.avatarMaxCount = avatarMaxCount;
+  }
+
   @Override
   public String toString() {
     return "CommunityConfig [groupPath=" + groupPath + ", topicPermission=" + topicPermission + ", adminUsernames="
         + adminUsernames + ", excludedUsernames=" + excludedUsernames + ", spectatorModeMessage=" + spectatorModeMessage
         + ", onlineHelpUri=" + onlineHelpUri + ", newIssueUri=" + newIssueUri + ", maxPageButtons=" + maxPageButtons
-        + "]";
+        + ", incrementalUserSync=" + incrementalUserSync + ", fullUserSyncInterval=" + fullUserSyncInterval
+        + ", groupUsersOnly=" + groupUsersOnly + ", topicsConcurrency=" + topicsConcurrency
+        + ", topicMembersConcurrency=" + topicMembersConcurrency + ", avatarCacheDir=" + avatarCacheDir
+        + ", avatarCacheSize=" + avatarCacheSize + ", avatarSize=" + avatarSize + ", avatarMaxAge=" + avatarMaxAge
+        + ", avatarMaxImageSize=" + avatarMaxImageSize + ", avatarMaxCount=" + avatarMaxCount + "]";
   }
 }
@@ -35,6 +35,7 @@ import org.vaulttec.gitlab.community.mattermost.model.MMChannel;
 import org.vaulttec.gitlab.community.mattermost.model.MMMember;
 import org.vaulttec.gitlab.community.mattermost.model.MMTeam;
 import org.vaulttec.gitlab.community.mattermost.model.MMUser;
+import org.vaulttec.gitlab.community.model.Topic;
 
 @Configuration
 @EnableScheduling
@@ -49,6 +50,7 @@ public class CommunityRefresher {
   private MattermostRepository mattermostRepository;
   @Autowired
   private MattermostClient mattermostClient;
+  private final Object cachesLock = new Object();
 
   @Scheduled(fixedRateString = "${community.refresh-rate}")
   public void refresh() {
@@ -58,12 +60,25 @@ public class CommunityRefresher {
   }
 
   private void refreshCaches() {
-    LOG.debug("Refreshing caches");
-    gitLabRepository.refreshUsers();
-    mattermostRepository.refreshUsers();
-    communityRepository.refreshMembers();
-    communityRepository.refreshTopics();
-    communityRepository.refreshTopicMembers();
+    synchronized (cachesLock) {
+      LOG.debug("Refreshing caches");
+      gitLabRepository.refreshUsers();
+      mattermostRepository.refreshUsers();
+      communityRepository.refreshMembers();
+      communityRepository.refreshTopics();
+      communityRepository.refreshTopicMembers();
+    }
+  }
+
+  /**
+   * Applies the given update to the cached maps. If the caches are being
+   * refreshed the update waits until the refreshed maps are in place, so it isn't
+   * lost by applying it to the replaced maps.
+   */
+  public void updateCaches(Runnable update) {
+    synchronized (cachesLock) {
+      update.run();
+    }
   }
 
   private void refreshMattermostTeamMembers() {
@@ -104,47 +119,52 @@ public class CommunityRefresher {
 
   private void refreshMattermostChannels() {
     LOG.debug("Refreshing topic channels");
-    communityRepository.getTopics().values().forEach(topic -> {
-      MMChannel channel = mattermostClient.getChannelByName(communityRepository.getCommunity().getTeam(),
-          topic.getPath());
-      if (channel != null) {
-        String purpose = CommunityRepository.CHANNEL_PURPOSE_PREFIX + topic.getPath() + "'";
-
-        // Restore deleted channel
-        if (channel.isDeleted()) {
-          LOG.info("Refreshing deleted MM channel '{}'", channel.getName());
-          mattermostClient.restoreChannel(channel);
-        }
+    communityRepository.getTopics().values().forEach(this::refreshMattermostChannel);
+  }
 
-        // Restore channel name, description and header
-        if (!topic.getPath().equals(channel.getName()) || !topic.getName().equals(channel.getDisplayName())
-            || !purpose.equals(channel.getPurpose()) || !topic.getDescription().equals(channel.getHeader())) {
-          LOG.info("Refreshing modified MM channel '{}'", channel.getName());
-          mattermostClient.updateChannel(channel, topic.getPath(), topic.getName(), purpose, topic.getDescription());
-        }
-        // Restore left channel members
-        List<String> usernames = communityRepository.getTopicMembers().get(topic.getPath()).stream()
-            .map(member -> member.getUsername()).collect(Collectors.toList());
-        List<MMUser> requiredUsers = mattermostClient.getUsersByUsernames(usernames);
-        List<MMMember> currentMembers = mattermostClient.getChannelMembers(channel);
-        requiredUsers.forEach(requiredUser -> {
-          Optional<MMMember> currentMember = currentMembers.stream()
-              .filter(member -> requiredUser.getId().equals(member.getUserId())).findFirst();
-          if (currentMember.isPresent()) {
-            currentMembers.remove(currentMember.get());
-          } else {
-            LOG.info("Refreshing missing member '{}' in MM channel '{}'", requiredUser.getUsername(),
-                channel.getName());
-            mattermostClient.addMemberToChannel(channel, requiredUser);
-          }
-        });
+  /**
+   * Restores the Mattermost channel of the given topic (name, description,
+   * header and members).
+   */
+  public void refreshMattermostChannel(Topic topic) {
+    MMTeam team = communityRepository.getCommunity().getTeam();
+    MMChannel channel = mattermostClient.getChannelByName(team, topic.getPath());
+    if (channel != null) {
+      String purpose = CommunityRepository.CHANNEL_PURPOSE_PREFIX + topic.getPath() + "'";
+
+      // Restore deleted channel
+      if (channel.isDeleted()) {
+        LOG.info("Refreshing deleted MM channel '{}'", channel.getName());
+        mattermostClient.restoreChannel(channel);
+      }
 
-        // Remove illegal channel members
-        currentMembers.forEach(member -> {
-          LOG.info("Refreshing invalid member {} in MM channel '{}'", member.getUserId(), channel.getName());
-          mattermostClient.removeMemberFromChannel(channel, member.getUserId());
-        });
+      // Restore channel name, description and header
+      if (!topic.getPath().equals(channel.getName()) || !topic.getName().equals(channel.getDisplayName())
+          || !purpose.equals(channel.getPurpose()) || !topic.getDescription().equals(channel.getHeader())) {
+        LOG.info("Refreshing modified MM channel '{}'", channel.getName());
+        mattermostClient.updateChannel(channel, topic.getPath(), topic.getName(), purpose, topic.getDescription());
       }
-    });
+      // Restore left channel members
+      List<String> usernames = communityRepository.getTopicMembers().get(topic.getPath()).stream()
+          .map(member -> member.getUsername()).collect(Collectors.toList());
+      List<MMUser> requiredUsers = mattermostClient.getUsersByUsernames(usernames);
+      List<MMMember> currentMembers = mattermostClient.getChannelMembers(channel);
+      requiredUsers.forEach(requiredUser -> {
+        Optional<MMMember> currentMember = currentMembers.stream()
+            .filter(member -> requiredUser.getId().equals(member.getUserId())).findFirst();
+        if (currentMember.isPresent()) {
+          currentMembers.remove(currentMember.get());
+        } else {
+          LOG.info("Refreshing missing member '{}' in MM channel '{}'", requiredUser.getUsername(), channel.getName());
+          mattermostClient.addMemberToChannel(channel, requiredUser);
+        }
+      });
+
+      // Remove illegal channel members
+      currentMembers.forEach(member -> {
+        LOG.info("Refreshing invalid member {} in MM channel '{}'", member.getUserId(), channel.getName());
+        mattermostClient.removeMemberFromChannel(channel, member.getUserId());
+      });
+    }
   }
 }
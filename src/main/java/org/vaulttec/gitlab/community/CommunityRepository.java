@@ -18,20 +18,35 @@
 package org.vaulttec.gitlab.community;
 
 import java.time.LocalDate;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import org.vaulttec.gitlab.community.gitlab.GitLabClient;
 import org.vaulttec.gitlab.community.gitlab.GitLabRepository;
+import org.vaulttec.gitlab.community.gitlab.GitLabWriteBehindQueue;
 import org.vaulttec.gitlab.community.gitlab.model.GLGroup;
 import org.vaulttec.gitlab.community.gitlab.model.GLGroupMember;
 import org.vaulttec.gitlab.community.gitlab.model.GLUser;
@@ -43,6 +58,12 @@ import org.vaulttec.gitlab.community.model.Community;
 import org.vaulttec.gitlab.community.model.Member;
 import org.vaulttec.gitlab.community.model.Topic;
 
+/**
+ * Caches the community members, topics and topic members. The cached maps are
+ * updated concurrently (by web requests and GitLab webhook events), so they are
+ * concurrent maps. The topic member sets are unmodifiable and replaced with
+ * updated copies instead.
+ */
 @Repository
 public class CommunityRepository {
   public static final String CHANNEL_PURPOSE_PREFIX = "Community topic '";
@@ -52,15 +73,18 @@ public class CommunityRepository {
   private final CommunityConfig communityConfig;
   private final GitLabRepository gitLabRepository;
   private final GitLabClient gitLabClient;
+  private final GitLabWriteBehindQueue gitLabWriteBehindQueue;
   private final MattermostClient mattermostClient;
   private final Community community;
+  private final ExecutorService topicExecutor;
 
   public CommunityRepository(CommunityConfig communityConfig, GitLabRepository gitLabRepository,
-      GitLabClient gitLabClient, MattermostClient mattermostClient) {
+      GitLabClient gitLabClient, GitLabWriteBehindQueue gitLabWriteBehindQueue, MattermostClient mattermostClient) {
     LOG.debug("Initializing CommunityRepository");
     this.communityConfig = communityConfig;
     this.gitLabRepository = gitLabRepository;
     this.gitLabClient = gitLabClient;
+    this.gitLabWriteBehindQueue = gitLabWriteBehindQueue;
     this.mattermostClient = mattermostClient;
     GLGroup group = gitLabClient.getGroup(communityConfig.getGroupPath());
     if (group == null) {
@@ -71,6 +95,15 @@ public class CommunityRepository {
       throw new IllegalStateException("No Mattermost team with name '" + communityConfig.getGroupPath() + "' found");
     }
     this.community = new Community(communityConfig, group, team);
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("community-topic-");
+    threadFactory.setDaemon(true);
+    this.topicExecutor = Executors.newFixedThreadPool(
+        Math.max(communityConfig.getTopicsConcurrency(), communityConfig.getTopicMembersConcurrency()), threadFactory);
+  }
+
+  @PreDestroy
+  public void close() {
+    topicExecutor.shutdownNow();
   }
 
   public Community getCommunity() {
@@ -90,28 +123,41 @@ public class CommunityRepository {
 
   private Map<String, Member> retrieveMembers() {
     LOG.debug("Retrieving all members");
-    Map<String, Member> members = new HashMap<String, Member>();
-    List<GLGroupMember> groupMembers = gitLabClient.getGroupMembers(community.getId());
-    if (groupMembers != null) {
-      groupMembers.forEach(groupMember -> {
-        if (!communityConfig.getExcludedUsernames().contains(groupMember.getUsername())) {
-          GLUser user = gitLabRepository.getUsers().get(groupMember.getUsername());
-          if (user != null) {
-            if (!user.hasCustomAttribute(GLUser.CUSTOM_ATTRIBUTE_JOINED)) {
-              LOG.info("New member '{}' joined", user.getUsername());
-              String today = LocalDate.now().format(GLUser.JOINED_FORMATTER);
-              gitLabClient.setUserCustomAttribute(user.getId(), GLUser.CUSTOM_ATTRIBUTE_JOINED, today);
-              user.addCustomAttribute(GLUser.CUSTOM_ATTRIBUTE_JOINED, today);
-            }
-            members.put(user.getUsername(),
-                new Member(user, communityConfig.getAdminUsernames().contains(user.getUsername())));
-          }
+    Map<String, Member> members = new ConcurrentHashMap<String, Member>();
+    Map<String, GLUser> users = gitLabRepository.getUsers();
+    // The joined attribute is written after the group members are read, so no request is nested into the
+    // streamed response (which holds a pooled connection)
+    List<GLUser> memberUsers = new ArrayList<GLUser>();
+    if (gitLabClient.getGroupMembers(community.getId(), groupMember -> {
+      if (!communityConfig.getExcludedUsernames().contains(groupMember.getUsername())) {
+        GLUser user = users.get(groupMember.getUsername());
+        if (user != null) {
+          memberUsers.add(user);
         }
-      });
+      }
+    })) {
+      memberUsers.forEach(user -> members.put(user.getUsername(), createMember(user)));
     }
     return members;
   }
 
+  /**
+   * Creates the community member for the given GitLab user. New members get the
+   * current date as join date.
+   */
+  public Member createMember(GLUser user) {
+    if (!user.hasCustomAttribute(GLUser.CUSTOM_ATTRIBUTE_JOINED)) {
+      String joined = gitLabWriteBehindQueue.getUserCustomAttribute(user.getId(), GLUser.CUSTOM_ATTRIBUTE_JOINED);
+      if (joined == null) {
+        LOG.info("New member '{}' joined", user.getUsername());
+        joined = LocalDate.now().format(GLUser.JOINED_FORMATTER);
+        gitLabWriteBehindQueue.setUserCustomAttribute(user.getId(), GLUser.CUSTOM_ATTRIBUTE_JOINED, joined);
+      }
+      user.addCustomAttribute(GLUser.CUSTOM_ATTRIBUTE_JOINED, joined);
+    }
+    return new Member(user, communityConfig.getAdminUsernames().contains(user.getUsername()));
+  }
+
   @Cacheable("topics")
   public Map<String, Topic> getTopics() {
     return retrieveTopics();
@@ -125,18 +171,31 @@ public class CommunityRepository {
 
   private Map<String, Topic> retrieveTopics() {
     LOG.debug("Retrieving all topics");
-    Map<String, Topic> topics = new HashMap<String, Topic>();
+    Map<String, Topic> topics = new ConcurrentHashMap<String, Topic>();
     List<GLGroup> groups = gitLabClient.getSubGroups(community.getId());
     if (groups != null) {
-      groups.forEach(group -> {
-        MMChannel channel = mattermostClient.getChannelByName(community.getTeam(), group.getPath());
-        Topic topic = new Topic(group, channel);
+      List<MMChannel> channels = forEachGroup(topicExecutor, groups, communityConfig.getTopicsConcurrency(),
+          group -> mattermostClient.getChannelByName(community.getTeam(), group.getPath()));
+      for (int i = 0; i < groups.size(); i++) {
+        Topic topic = new Topic(groups.get(i), channels.get(i));
         topics.put(topic.getPath(), topic);
-      });
+      }
     }
     return topics;
   }
 
+  /**
+   * Retrieves the topic for the given GitLab subgroup or <code>null</code> if the
+   * retrieval failed.
+   */
+  public Topic retrieveTopic(String groupId) {
+    GLGroup group = gitLabClient.getGroup(groupId);
+    if (group != null) {
+      return new Topic(group, mattermostClient.getChannelByName(community.getTeam(), group.getPath()));
+    }
+    return null;
+  }
+
   public Topic createTopic(String path, String name, String description) {
     LOG.info("Creating new topic: path={}, name={}", path, name);
 
@@ -216,28 +275,122 @@ public class CommunityRepository {
 
   private Map<String, Set<Member>> retrieveTopicMembers() {
     LOG.debug("Retrieving members for all topics");
-    Map<String, Set<Member>> topicMembers = new HashMap<String, Set<Member>>();
+    Map<String, Set<Member>> topicMembers = new ConcurrentHashMap<String, Set<Member>>();
     List<GLGroup> groups = gitLabClient.getSubGroups(community.getId());
     if (groups != null) {
-      groups.forEach(group -> {
-        Set<Member> members = new HashSet<Member>();
-        List<GLGroupMember> groupMembers = gitLabClient.getGroupMembers(group.getId());
-        if (groupMembers != null) {
-          groupMembers.forEach(groupMember -> {
-            if (!communityConfig.getExcludedUsernames().contains(groupMember.getUsername())) {
-              GLUser user = gitLabRepository.getUsers().get(groupMember.getUsername());
-              if (user != null && communityConfig.getTopicPermission().equals(groupMember.getPermission())) {
-                members.add(new Member(user, communityConfig.getAdminUsernames().contains(user.getUsername())));
-              }
-            }
-          });
+      Map<String, GLUser> users = gitLabRepository.getUsers();
+
+      // Reuse the members retrieved with the group users or retrieve the members of all topics at once and fall back
+      // to one REST call per topic
+      Map<String, List<GLGroupMember>> takenMembers = gitLabRepository.takeSubGroupMembers();
+      Map<String, List<GLGroupMember>> groupMembers = takenMembers != null ? takenMembers
+          : gitLabClient.getSubGroupMembers(communityConfig.getGroupPath());
+      List<GLGroup> missingGroups = new ArrayList<GLGroup>();
+      for (GLGroup group : groups) {
+        List<GLGroupMember> queriedMembers = groupMembers != null ? groupMembers.get(group.getPath()) : null;
+        if (queriedMembers != null) {
+          Set<Member> members = new HashSet<Member>();
+          queriedMembers.forEach(groupMember -> addTopicMember(members, groupMember, users));
+          topicMembers.put(group.getPath(), Collections.unmodifiableSet(members));
+        } else {
+          missingGroups.add(group);
         }
-        topicMembers.put(group.getPath(), members);
-      });
+      }
+      if (groupMembers != null && !missingGroups.isEmpty()) {
+        LOG.warn("{} topics missing in retrieved members - retrieving their members via REST", missingGroups.size());
+      }
+      List<Set<Member>> missingMembers = forEachGroup(topicExecutor, missingGroups,
+          communityConfig.getTopicMembersConcurrency(), group -> retrieveTopicMembers(group.getId(), users));
+      for (int i = 0; i < missingGroups.size(); i++) {
+        topicMembers.put(missingGroups.get(i).getPath(), missingMembers.get(i));
+      }
     }
     return topicMembers;
   }
 
+  /**
+   * Retrieves the members of the given topic via REST. If the retrieval fails an
+   * empty set is returned. The returned set is unmodifiable.
+   */
+  public Set<Member> retrieveTopicMembers(Topic topic) {
+    return retrieveTopicMembers(topic.getGroupId(), gitLabRepository.getUsers());
+  }
+
+  private Set<Member> retrieveTopicMembers(String groupId, Map<String, GLUser> users) {
+    Set<Member> members = new HashSet<Member>();
+    if (!gitLabClient.getGroupMembers(groupId, groupMember -> addTopicMember(members, groupMember, users))) {
+      members.clear();
+    }
+    return Collections.unmodifiableSet(members);
+  }
+
+  /**
+   * Retrieves the topics the given user is a member of (with the topic
+   * permission) via one REST call per topic (limited to
+   * "topic-members-concurrency").
+   */
+  public List<Topic> retrieveMemberTopics(GLUser user) {
+    List<Topic> topics = new ArrayList<Topic>(getTopics().values());
+    List<Boolean> memberships = forEachGroup(topicExecutor, topics, communityConfig.getTopicMembersConcurrency(),
+        topic -> {
+          GLGroupMember groupMember = gitLabClient.getGroupMember(topic.getGroupId(), user.getId());
+          return groupMember != null && communityConfig.getTopicPermission().equals(groupMember.getPermission());
+        });
+    List<Topic> memberTopics = new ArrayList<Topic>();
+    for (int i = 0; i < topics.size(); i++) {
+      if (memberships.get(i)) {
+        memberTopics.add(topics.get(i));
+      }
+    }
+    return memberTopics;
+  }
+
+  private void addTopicMember(Set<Member> members, GLGroupMember groupMember, Map<String, GLUser> users) {
+    if (!communityConfig.getExcludedUsernames().contains(groupMember.getUsername())) {
+      GLUser user = users.get(groupMember.getUsername());
+      if (user != null && communityConfig.getTopicPermission().equals(groupMember.getPermission())) {
+        members.add(new Member(user, communityConfig.getAdminUsernames().contains(user.getUsername())));
+      }
+    }
+  }
+
+  /**
+   * Applies the given function to the given groups with at most the given number
+   * of concurrent calls on the given executor. The results are returned in the
+   * order of the groups. If a call fails the pending calls are cancelled and the
+   * failure is rethrown.
+   */
+  static <G, T> List<T> forEachGroup(ExecutorService executor, List<G> groups, int concurrency,
+      Function<G, T> function) {
+    List<T> results = new ArrayList<T>(groups.size());
+    if (concurrency <= 1 || groups.size() <= 1) {
+      groups.forEach(group -> results.add(function.apply(group)));
+      return results;
+    }
+    Deque<Future<T>> futures = new ArrayDeque<Future<T>>(concurrency);
+    Iterator<G> iterator = groups.iterator();
+    try {
+      while (iterator.hasNext() || !futures.isEmpty()) {
+        while (iterator.hasNext() && futures.size() < concurrency) {
+          G group = iterator.next();
+          futures.add(executor.submit(() -> function.apply(group)));
+        }
+        results.add(futures.poll().get());
+      }
+    } catch (ExecutionException e) {
+      futures.forEach(future -> future.cancel(true));
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new CompletionException(e.getCause());
+    } catch (InterruptedException e) {
+      futures.forEach(future -> future.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new CompletionException(e);
+    }
+    return results;
+  }
+
   public boolean addTopicMember(Topic topic, Member member) {
     LOG.info("Adding member '{}' to topic '{}'", member.getUsername(), topic.getPath());
     if (gitLabClient.addMemberToGroup(topic.getGroupId(), member.getUserId(), communityConfig.getTopicPermission())) {
@@ -167,8 +167,8 @@ public class CommunityService {
   public Topic createTopic(String path, String name, String description) {
     Topic topic = communityRepository.createTopic(path, name, description);
     if (topic != null) {
+      communityRepository.getTopicMembers().put(topic.getPath(), Collections.emptySet());
       communityRepository.getTopics().put(topic.getPath(), topic);
-      communityRepository.getTopicMembers().put(topic.getPath(), new HashSet<Member>());
     }
     return topic;
   }
@@ -212,9 +212,9 @@ public class CommunityService {
     if (topicMembers.containsKey(topic.getPath())) {
       added = communityRepository.addTopicMember(topic, member);
       if (added) {
-        HashSet<Member> members = new HashSet<Member>(topicMembers.get(topic.getPath()));
+        Set<Member> members = new HashSet<Member>(topicMembers.get(topic.getPath()));
         members.add(member);
-        topicMembers.put(topic.getPath(), members);
+        topicMembers.put(topic.getPath(), Collections.unmodifiableSet(members));
       }
     }
     return added;
@@ -226,9 +226,9 @@ public class CommunityService {
     if (topicMembers.containsKey(topic.getPath())) {
       removed = communityRepository.removeTopicMember(topic, member);
       if (removed) {
-        HashSet<Member> members = new HashSet<Member>(topicMembers.get(topic.getPath()));
+        Set<Member> members = new HashSet<Member>(topicMembers.get(topic.getPath()));
         members.remove(member);
-        topicMembers.put(topic.getPath(), members);
+        topicMembers.put(topic.getPath(), Collections.unmodifiableSet(members));
       }
     }
     return removed;
@@ -0,0 +1,320 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.vaulttec.gitlab.community.gitlab.GitLabClient;
+import org.vaulttec.gitlab.community.gitlab.GitLabRepository;
+import org.vaulttec.gitlab.community.gitlab.model.GLPermission;
+import org.vaulttec.gitlab.community.gitlab.model.GLUser;
+import org.vaulttec.gitlab.community.model.Member;
+import org.vaulttec.gitlab.community.model.Topic;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Applies GitLab group and system hook events to the cached GitLab users,
+ * members, topics and topic members. Only the Mattermost channels of the
+ * affected topics are refreshed. Events are applied one after the other in the
+ * order they were received. Events received while the caches are refreshed are
+ * queued and applied to the refreshed caches afterwards.
+ * <p>
+ * System hooks don't report the parent of a created group, so subgroups of the
+ * community group are recognized by their full path.
+ */
+@Service
+public class CommunityWebhookHandler {
+  private static final Logger LOG = LoggerFactory.getLogger(CommunityWebhookHandler.class);
+
+  private final CommunityConfig communityConfig;
+  private final CommunityRepository communityRepository;
+  private final CommunityRefresher communityRefresher;
+  private final GitLabRepository gitLabRepository;
+  private final GitLabClient gitLabClient;
+  private final ExecutorService eventExecutor;
+
+  public CommunityWebhookHandler(CommunityConfig communityConfig, CommunityRepository communityRepository,
+      CommunityRefresher communityRefresher, GitLabRepository gitLabRepository, GitLabClient gitLabClient) {
+    LOG.debug("Initializing CommunityWebhookHandler");
+    this.communityConfig = communityConfig;
+    this.communityRepository = communityRepository;
+    this.communityRefresher = communityRefresher;
+    this.gitLabRepository = gitLabRepository;
+    this.gitLabClient = gitLabClient;
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("gitlab-event-");
+    threadFactory.setDaemon(true);
+    this.eventExecutor = Executors.newSingleThreadExecutor(threadFactory);
+  }
+
+  @PreDestroy
+  public void close() {
+    eventExecutor.shutdownNow();
+  }
+
+  /**
+   * Applies the given event in the background.
+   */
+  public void submit(JsonNode event) {
+    eventExecutor.execute(() -> {
+      try {
+        communityRefresher.updateCaches(() -> handle(event));
+      } catch (RuntimeException e) {
+        LOG.error("Handling GitLab event {} failed", event, e);
+      }
+    });
+  }
+
+  /**
+   * Applies the given event and returns <code>false</code> if the event was
+   * ignored.
+   */
+  public boolean handle(JsonNode event) {
+    String eventName = event.path("event_name").asText();
+    LOG.debug("Handling GitLab event '{}'", eventName);
+    switch (eventName) {
+    case "user_add_to_group":
+    case "user_update_for_group":
+      return memberChanged(event.path("group_id").asText(), event.path("user_id").asText(),
+          event.path("group_access").asText());
+    case "user_remove_from_group":
+      return memberRemoved(event.path("group_id").asText(), event.path("user_username").asText());
+    case "subgroup_create":
+      return isCommunity(event.path("parent_group_id").asText()) && topicCreated(event.path("group_id").asText());
+    case "group_create":
+      return isTopicPath(event.path("full_path").asText()) && topicCreated(event.path("group_id").asText());
+    case "group_rename":
+      return topicChanged(event.path("group_id").asText());
+    case "subgroup_destroy":
+    case "group_destroy":
+      return topicDestroyed(event.path("group_id").asText());
+    case "user_create":
+    case "user_rename":
+    case "user_unblock":
+      return userChanged(event.path("user_id").asText());
+    case "user_block":
+    case "user_destroy":
+      return userRemoved(event.path("username").asText());
+    default:
+      LOG.debug("Ignoring GitLab event '{}'", eventName);
+      return false;
+    }
+  }
+
+  private boolean memberChanged(String groupId, String userId, String groupAccess) {
+    GLUser user = gitLabClient.getUser(userId);
+    if (user == null || !user.isActive() || communityConfig.getExcludedUsernames().contains(user.getUsername())) {
+      return false;
+    }
+    gitLabRepository.getUsers().put(user.getUsername(), user);
+    if (isCommunity(groupId)) {
+      LOG.info("Updating member '{}'", user.getUsername());
+      communityRepository.getMembers().put(user.getUsername(), communityRepository.createMember(user));
+      return true;
+    }
+    Topic topic = getTopic(groupId);
+    if (topic == null) {
+      return false;
+    }
+    LOG.info("Updating member '{}' of topic '{}'", user.getUsername(), topic.getPath());
+    GLPermission permission = getPermission(groupAccess);
+    updateTopicMembers(topic, members -> {
+      members.removeIf(member -> member.getUsername().equals(user.getUsername()));
+      if (communityConfig.getTopicPermission().equals(permission)) {
+        members.add(new Member(user, communityConfig.getAdminUsernames().contains(user.getUsername())));
+      }
+    });
+    return true;
+  }
+
+  private boolean memberRemoved(String groupId, String username) {
+    if (isCommunity(groupId)) {
+      LOG.info("Removing member '{}'", username);
+      return communityRepository.getMembers().remove(username) != null;
+    }
+    Topic topic = getTopic(groupId);
+    if (topic == null) {
+      return false;
+    }
+    LOG.info("Removing member '{}' from topic '{}'", username, topic.getPath());
+    updateTopicMembers(topic, members -> members.removeIf(member -> member.getUsername().equals(username)));
+    return true;
+  }
+
+  private boolean topicCreated(String groupId) {
+    if (getTopic(groupId) != null) {
+      return false;
+    }
+    Topic topic = communityRepository.retrieveTopic(groupId);
+    if (topic == null) {
+      return false;
+    }
+    LOG.info("Adding topic '{}'", topic.getPath());
+    // The members are added first, so readers never see a topic without members
+    communityRepository.getTopicMembers().put(topic.getPath(), communityRepository.retrieveTopicMembers(topic));
+    communityRepository.getTopics().put(topic.getPath(), topic);
+    communityRefresher.refreshMattermostChannel(topic);
+    return true;
+  }
+
+  private boolean topicChanged(String groupId) {
+    Topic oldTopic = getTopic(groupId);
+    if (oldTopic == null) {
+      return false;
+    }
+    Topic topic = communityRepository.retrieveTopic(groupId);
+    if (topic == null) {
+      return false;
+    }
+    LOG.info("Updating topic '{}' (previously '{}')", topic.getPath(), oldTopic.getPath());
+    Map<String, Topic> topics = communityRepository.getTopics();
+    Map<String, Set<Member>> topicMembers = communityRepository.getTopicMembers();
+    Set<Member> members = topicMembers.get(oldTopic.getPath());
+    topicMembers.put(topic.getPath(), members != null ? members : Collections.emptySet());
+    topics.put(topic.getPath(), topic);
+    if (!topic.getPath().equals(oldTopic.getPath())) {
+      topics.remove(oldTopic.getPath());
+      topicMembers.remove(oldTopic.getPath());
+    }
+    communityRefresher.refreshMattermostChannel(topic);
+    return true;
+  }
+
+  private boolean topicDestroyed(String groupId) {
+    Topic topic = getTopic(groupId);
+    if (topic == null) {
+      return false;
+    }
+    LOG.info("Removing topic '{}'", topic.getPath());
+    communityRepository.getTopics().remove(topic.getPath());
+    communityRepository.getTopicMembers().remove(topic.getPath());
+    return true;
+  }
+
+  private boolean userChanged(String userId) {
+    GLUser user = gitLabClient.getUser(userId);
+    if (user == null) {
+      return false;
+    }
+    if (!user.isActive()) {
+      return userRemoved(user.getUsername());
+    }
+    Map<String, GLUser> users = gitLabRepository.getUsers();
+    Map<String, Member> members = communityRepository.getMembers();
+    Member oldMember = members.values().stream().filter(member -> member.getUserId().equals(userId)).findFirst()
+        .orElse(null);
+
+    // Users removed from the members (e.g. when blocked) are restored if still in the community group
+    boolean restoredMember = oldMember == null && !communityConfig.getExcludedUsernames().contains(user.getUsername())
+        && gitLabClient.getGroupMember(communityRepository.getCommunity().getId(), userId) != null;
+    if (oldMember == null && !restoredMember && communityConfig.isGroupUsersOnly()) {
+      return false;
+    }
+
+    // Renamed users are stored with their new username
+    users.values().removeIf(oldUser -> oldUser.getId().equals(userId));
+    users.put(user.getUsername(), user);
+    if (oldMember != null) {
+      LOG.info("Updating member '{}' (previously '{}')", user.getUsername(), oldMember.getUsername());
+      members.remove(oldMember.getUsername());
+      members.put(user.getUsername(), communityRepository.createMember(user));
+      Member member = new Member(user, communityConfig.getAdminUsernames().contains(user.getUsername()));
+      communityRepository.getTopicMembers().forEach((path, topicMembers) -> {
+        if (topicMembers.contains(oldMember)) {
+          updateTopicMembers(communityRepository.getTopics().get(path), updatedMembers -> {
+            updatedMembers.remove(oldMember);
+            updatedMembers.add(member);
+          });
+        }
+      });
+    } else if (restoredMember) {
+      LOG.info("Restoring member '{}'", user.getUsername());
+      members.put(user.getUsername(), communityRepository.createMember(user));
+      Member member = new Member(user, communityConfig.getAdminUsernames().contains(user.getUsername()));
+      communityRepository.retrieveMemberTopics(user)
+          .forEach(topic -> updateTopicMembers(topic, updatedMembers -> updatedMembers.add(member)));
+    }
+    return true;
+  }
+
+  private boolean userRemoved(String username) {
+    boolean removed = gitLabRepository.getUsers().remove(username) != null;
+    if (communityRepository.getMembers().remove(username) != null) {
+      LOG.info("Removing member '{}'", username);
+      removed = true;
+    }
+    Map<String, Topic> topics = communityRepository.getTopics();
+    for (Map.Entry<String, Set<Member>> entry : communityRepository.getTopicMembers().entrySet()) {
+      if (entry.getValue().stream().anyMatch(member -> member.getUsername().equals(username))) {
+        updateTopicMembers(topics.get(entry.getKey()),
+            members -> members.removeIf(member -> member.getUsername().equals(username)));
+        removed = true;
+      }
+    }
+    return removed;
+  }
+
+  private boolean isCommunity(String groupId) {
+    return groupId.equals(communityRepository.getCommunity().getId());
+  }
+
+  private boolean isTopicPath(String fullPath) {
+    int index = fullPath.lastIndexOf('/');
+    return index > 0 && fullPath.substring(0, index).equals(communityConfig.getGroupPath());
+  }
+
+  private Topic getTopic(String groupId) {
+    return communityRepository.getTopics().values().stream().filter(topic -> groupId.equals(topic.getGroupId()))
+        .findFirst().orElse(null);
+  }
+
+  /**
+   * Replaces the members of the given topic with an updated copy (the cached
+   * sets are unmodifiable) and refreshes the topic's Mattermost channel.
+   */
+  private void updateTopicMembers(Topic topic, Consumer<Set<Member>> update) {
+    if (topic != null) {
+      Map<String, Set<Member>> topicMembers = communityRepository.getTopicMembers();
+      Set<Member> members = topicMembers.get(topic.getPath());
+      Set<Member> updatedMembers = members != null ? new HashSet<Member>(members) : new HashSet<Member>();
+      update.accept(updatedMembers);
+      topicMembers.put(topic.getPath(), Collections.unmodifiableSet(updatedMembers));
+      communityRefresher.refreshMattermostChannel(topic);
+    }
+  }
+
+  private static GLPermission getPermission(String groupAccess) {
+    try {
+      return GLPermission.fromName(groupAccess.replace(' ', '_'));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.vaulttec.gitlab.community.gitlab.GitLabClient;
+import org.vaulttec.gitlab.community.mattermost.MattermostClient;
+import org.vaulttec.http.client.CircuitBreakerHealthIndicator;
+
+/**
+ * Exposes the circuit breaker states of the upstream servers as "gitLab" and
+ * "mattermost" components of the actuator health endpoint. Their status is
+ * always up with the circuit breaker state as detail.
+ */
+@Configuration
+public class HealthConfig {
+
+  @Bean
+  public CircuitBreakerHealthIndicator gitLabHealthIndicator(GitLabClient gitLabClient) {
+    return new CircuitBreakerHealthIndicator(gitLabClient);
+  }
+
+  @Bean
+  public CircuitBreakerHealthIndicator mattermostHealthIndicator(MattermostClient mattermostClient) {
+    return new CircuitBreakerHealthIndicator(mattermostClient);
+  }
+}
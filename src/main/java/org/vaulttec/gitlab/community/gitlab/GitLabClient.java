@@ -18,28 +18,64 @@
 package org.vaulttec.gitlab.community.gitlab;
 
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientException;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.vaulttec.gitlab.community.gitlab.model.GLGroup;
 import org.vaulttec.gitlab.community.gitlab.model.GLGroupMember;
 import org.vaulttec.gitlab.community.gitlab.model.GLPermission;
 import org.vaulttec.gitlab.community.gitlab.model.GLUser;
 import org.vaulttec.http.client.AbstractRestClient;
+import org.vaulttec.http.client.ApiCallMetrics;
+import org.vaulttec.http.client.DeadlineExceededException;
 import org.vaulttec.http.client.LinkHeader;
 
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
 @Service
 public class GitLabClient extends AbstractRestClient {
 
@@ -53,12 +89,41 @@ public class GitLabClient extends AbstractRestClient {
   };
   protected static final ParameterizedTypeReference<List<GLGroup>> RESPONSE_TYPE_GROUPS = new ParameterizedTypeReference<List<GLGroup>>() {
   };
+  protected static final ParameterizedTypeReference<GLGroupMember> RESPONSE_TYPE_GROUP_MEMBER = new ParameterizedTypeReference<GLGroupMember>() {
+  };
   protected static final ParameterizedTypeReference<List<GLGroupMember>> RESPONSE_TYPE_GROUP_MEMBERS = new ParameterizedTypeReference<List<GLGroupMember>>() {
   };
 
-  GitLabClient(GitLabClientConfig config, RestTemplateBuilder restTemplateBuilder) {
-    super(config, restTemplateBuilder);
+  private static final String TOTAL_PAGES_HEADER = "X-Total-Pages";
+  private static final String KEYSET_PAGINATION = "pagination=keyset&order_by=id&sort=asc";
+  private static final String GRAPHQL_PATH = "/api/graphql";
+  private static final String GRAPHQL_USER_ID_PREFIX = "gid://gitlab/User/";
+  private static final String GRAPHQL_MEMBERS = "pageInfo { hasNextPage endCursor } "
+      + "nodes { accessLevel { integerValue } user { id username } }";
+  private static final String GRAPHQL_SUBGROUP_MEMBERS = "query SubGroupMembers($fullPath: ID!, $first: Int, "
+      + "$after: String) { group(fullPath: $fullPath) { descendantGroups(first: $first, after: $after) { "
+      + "pageInfo { hasNextPage endCursor } nodes { fullPath path groupMembers(first: $first, relations: [DIRECT]) { "
+      + GRAPHQL_MEMBERS + " } } } } }";
+  private static final String GRAPHQL_GROUP_MEMBERS = "query GroupMembers($fullPath: ID!, $first: Int, "
+      + "$after: String) { group(fullPath: $fullPath) { groupMembers(first: $first, after: $after, "
+      + "relations: [DIRECT]) { " + GRAPHQL_MEMBERS + " } } }";
+
+  private final ExecutorService pageExecutor;
+  private final Set<String> keysetRejectingApiCalls = ConcurrentHashMap.newKeySet();
+
+  GitLabClient(GitLabClientConfig config, RestTemplateBuilder restTemplateBuilder,
+      WebClient.Builder webClientBuilder, MeterRegistry meterRegistry) {
+    super(config, restTemplateBuilder, webClientBuilder, meterRegistry);
     prepareAuthenticationEntity("PRIVATE-TOKEN", config.getPersonalAccessToken());
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("gitlab-page-");
+    threadFactory.setDaemon(true);
+    this.pageExecutor = Executors.newFixedThreadPool(config.getParallelPageRequests(), threadFactory);
+  }
+
+  @Override
+  public void close() {
+    pageExecutor.shutdownNow();
+    super.close();
   }
 
   public List<GLUser> getActiveUsers() {
@@ -68,7 +133,163 @@ public class GitLabClient extends AbstractRestClient {
     return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_USERS, uriVariables);
   }
 
+  public boolean getActiveUsers(Consumer<GLUser> consumer) {
+    LOG.debug("Streaming all active users");
+    String apiCall = "/users?active=true&with_custom_attributes=true";
+    Map<String, String> uriVariables = createUriVariables();
+    return makeReadListApiCall(apiCall, HttpMethod.GET, GLUser.class, uriVariables, consumer);
+  }
+
+  public CompletableFuture<List<GLUser>> getActiveUsersAsync() {
+    LOG.debug("Retrieving all active users asynchronously");
+    String apiCall = "/users?active=true&with_custom_attributes=true";
+    Map<String, String> uriVariables = createUriVariables();
+    return makeReadListApiCallAsync(apiCall, HttpMethod.GET, GLUser.class, uriVariables);
+  }
+
+  /**
+   * Streams all users (blocked ones included) which were updated at or after
+   * the given time. The users are requested with the most recently updated
+   * first, so paging stops with the first page containing an older user.
+   */
+  public boolean getUsersUpdatedSince(Date since, Consumer<GLUser> consumer) {
+    LOG.debug("Streaming users updated since {}", since);
+    String apiCall = "/users?with_custom_attributes=true&order_by=updated_at&sort=desc";
+    String url = getApiUrl(apiCall + "&per_page={perPage}");
+    Map<String, String> uriVariables = createUriVariables();
+    uriVariables.put("perPage", perPageAsString());
+    ApiCallMetrics.Sample sample = apiCallMetrics.startList(apiCall, HttpMethod.GET);
+    Consumer<GLUser> countingConsumer = sample.counting(consumer);
+    AtomicBoolean olderUserFound = new AtomicBoolean();
+    Consumer<GLUser> updatedConsumer = user -> {
+      if (user.getUpdatedAt() == null || user.getUpdatedAt().before(since)) {
+        olderUserFound.set(true);
+      } else {
+        countingConsumer.accept(user);
+      }
+    };
+    long deadline = getListDeadline();
+    try {
+      URI uri = expandUri(url, uriVariables);
+      while (true) {
+        HttpHeaders headers = readPage(uri, HttpMethod.GET, authenticationEntity,
+            objectMapper.constructType(GLUser.class), updatedConsumer);
+        sample.page();
+        LinkHeader linkHeader = LinkHeader.parse(headers);
+        if (olderUserFound.get() || linkHeader == null || !linkHeader.hasLink(LinkHeader.Rel.NEXT)) {
+          break;
+        }
+        checkListDeadline(deadline, apiCall, sample);
+        uri = linkHeader.getLink(LinkHeader.Rel.NEXT).getResourceUri();
+      }
+      sample.stop(null);
+      return true;
+    } catch (RestClientException e) {
+      sample.stop(e);
+      logException(HttpMethod.GET, uriVariables, url, e, new HttpStatus[0]);
+    }
+    return false;
+  }
+
+  public GLUser getUser(String userId) {
+    if (!StringUtils.hasText(userId)) {
+      throw new IllegalStateException("GitLab user ID required");
+    }
+    LOG.debug("Retrieving user {}", userId);
+    String apiCall = "/users/{userId}?with_custom_attributes=true";
+    Map<String, String> uriVariables = createUriVariables("userId", userId);
+    return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_USER, uriVariables, HttpStatus.NOT_FOUND);
+  }
+
+  /**
+   * Retrieves the users (blocked ones included) with the given IDs. GitLab has
+   * no API call returning multiple users by ID, so the users are requested
+   * concurrently (limited to "parallel-page-requests"). Each request is recorded
+   * as a single API call and coalesced with identical in-flight requests.
+   * Unknown users are skipped. Returns <code>null</code> if any of the API calls
+   * failed or the list deadline has passed.
+   */
+  public List<GLUser> getUsers(Collection<String> userIds) {
+    LOG.debug("Retrieving {} users", userIds.size());
+    String apiCall = "/users/{userId}?with_custom_attributes=true";
+    String url = getApiUrl(apiCall);
+    JavaType type = objectMapper.constructType(RESPONSE_TYPE_USER.getType());
+    int maxRequests = ((GitLabClientConfig) config).getParallelPageRequests();
+    Deque<CompletableFuture<GLUser>> requests = new ArrayDeque<>(maxRequests);
+    Iterator<String> iterator = userIds.iterator();
+    List<GLUser> users = new ArrayList<>(userIds.size());
+    long deadline = getListDeadline();
+    try {
+      while (iterator.hasNext() || !requests.isEmpty()) {
+        while (iterator.hasNext() && requests.size() < maxRequests) {
+          URI uri = expandUri(url, createUriVariables("userId", iterator.next()));
+          requests.add(CompletableFuture.supplyAsync(() -> readUser(apiCall, uri, type), pageExecutor));
+        }
+        GLUser user = requests.poll().get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        if (user != null) {
+          users.add(user);
+        }
+      }
+      return users;
+    } catch (TimeoutException e) {
+      requests.forEach(request -> request.cancel(false));
+      logException(HttpMethod.GET, null, url,
+          new DeadlineExceededException(apiCall, config.getListDeadline(), users.size()), new HttpStatus[0]);
+    } catch (ExecutionException e) {
+      // The failed request is logged by readUser()
+      requests.forEach(request -> request.cancel(false));
+    } catch (InterruptedException e) {
+      requests.forEach(request -> request.cancel(false));
+      Thread.currentThread().interrupt();
+    }
+    return null;
+  }
+
+  /**
+   * Reads the user from the given URI or returns <code>null</code> if the user
+   * is unknown. Other failures are logged and rethrown.
+   */
+  private GLUser readUser(String apiCall, URI uri, JavaType type) {
+    ApiCallMetrics.Sample sample = apiCallMetrics.start(apiCall, HttpMethod.GET);
+    try {
+      GLUser user = readEntityCoalesced(uri, type);
+      sample.stop(null);
+      return user;
+    } catch (HttpClientErrorException.NotFound e) {
+      sample.stop(e);
+      return null;
+    } catch (RuntimeException e) {
+      sample.stop(e);
+      logException(HttpMethod.GET, null, uri.toString(), e, new HttpStatus[0]);
+      throw e;
+    }
+  }
+
+  /**
+   * Retrieves the avatar image from the given URL (which may be hosted outside
+   * of GitLab, e.g. by Gravatar). Returns <code>null</code> if the retrieval
+   * failed or the image exceeds the given size.
+   */
+  public byte[] getAvatar(URL url, int maxSize) {
+    LOG.debug("Retrieving avatar {}", url);
+    try {
+      return readResource("/avatar", url.toURI(), maxSize);
+    } catch (URISyntaxException e) {
+      LOG.warn("Invalid avatar URL {}: {}", url, e.getMessage());
+    }
+    return null;
+  }
+
   public boolean setUserCustomAttribute(String userId, String key, String value) {
+    int status = writeUserCustomAttribute(userId, key, value);
+    return status >= 200 && status < 300;
+  }
+
+  /**
+   * Sets the given custom attribute for the given user and returns the HTTP
+   * status code of the response or <code>0</code> if no response was received.
+   */
+  public int writeUserCustomAttribute(String userId, String key, String value) {
     if (!StringUtils.hasText(userId)) {
       throw new IllegalStateException("GitLab user ID required");
     }
@@ -80,7 +301,7 @@ public class GitLabClient extends AbstractRestClient {
     Map<String, String> uriVariables = createUriVariables("userId", userId, "key", key);
     HttpEntity<String> entity = new HttpEntity<String>("{\"value\" : \"" + value + "\"}",
         authenticationEntity.getHeaders());
-    return makeWriteApiCall(apiCall, HttpMethod.PUT, entity, uriVariables);
+    return makeWriteApiCallForStatus(apiCall, HttpMethod.PUT, entity, uriVariables);
   }
 
   public GLGroup getGroup(String groupPath) {
@@ -90,6 +311,13 @@ public class GitLabClient extends AbstractRestClient {
     return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUP, uriVariables);
   }
 
+  public CompletableFuture<GLGroup> getGroupAsync(String groupPath) {
+    LOG.debug("Retrieving group {} asynchronously", groupPath);
+    String apiCall = "/groups/{groupPath}?with_custom_attributes=true";
+    Map<String, String> uriVariables = createUriVariables("groupPath", groupPath);
+    return makeReadApiCallAsync(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUP, uriVariables);
+  }
+
   public List<GLGroup> getSubGroups(String groupId) {
     LOG.debug("Retrieving subgroups for group {}", groupId);
     String apiCall = "/groups/{groupId}/subgroups?with_custom_attributes=true";
@@ -97,6 +325,13 @@ public class GitLabClient extends AbstractRestClient {
     return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUPS, uriVariables);
   }
 
+  public CompletableFuture<List<GLGroup>> getSubGroupsAsync(String groupId) {
+    LOG.debug("Retrieving subgroups for group {} asynchronously", groupId);
+    String apiCall = "/groups/{groupId}/subgroups?with_custom_attributes=true";
+    Map<String, String> uriVariables = createUriVariables("groupId", groupId);
+    return makeReadListApiCallAsync(apiCall, HttpMethod.GET, GLGroup.class, uriVariables);
+  }
+
   public GLGroup createSubGroup(String parentGroupId, String groupPath, String groupName, String groupDescription) {
     LOG.debug("Creating subgroup '{}' ({}) for parent group {}", groupPath, groupName, parentGroupId);
     String apiCall = "/groups?path={groupPath}&name={groupName}&description={groupDescription}&parent_id={parentGroupId}";
@@ -113,6 +348,23 @@ public class GitLabClient extends AbstractRestClient {
     return makeWriteApiCall(apiCall, HttpMethod.PUT, RESPONSE_TYPE_GROUP, uriVariables);
   }
 
+  /**
+   * Retrieves the given user's direct membership of the given group or
+   * <code>null</code> if the user isn't a member (or the retrieval failed).
+   */
+  public GLGroupMember getGroupMember(String groupId, String userId) {
+    if (!StringUtils.hasText(groupId)) {
+      throw new IllegalStateException("GitLab group ID required");
+    }
+    if (!StringUtils.hasText(userId)) {
+      throw new IllegalStateException("GitLab user ID required");
+    }
+    LOG.debug("Retrieving member {} of group {}", userId, groupId);
+    String apiCall = "/groups/{groupId}/members/{userId}";
+    Map<String, String> uriVariables = createUriVariables("groupId", groupId, "userId", userId);
+    return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUP_MEMBER, uriVariables, HttpStatus.NOT_FOUND);
+  }
+
   public List<GLGroupMember> getGroupMembers(String groupId) {
     if (!StringUtils.hasText(groupId)) {
       throw new IllegalStateException("GitLab group ID required");
@@ -123,6 +375,79 @@ public class GitLabClient extends AbstractRestClient {
     return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUP_MEMBERS, uriVariables);
   }
 
+  public boolean getGroupMembers(String groupId, Consumer<GLGroupMember> consumer) {
+    if (!StringUtils.hasText(groupId)) {
+      throw new IllegalStateException("GitLab group ID required");
+    }
+    LOG.debug("Streaming members for group {}", groupId);
+    String apiCall = "/groups/{groupId}/members";
+    Map<String, String> uriVariables = createUriVariables("groupId", groupId);
+    return makeReadListApiCall(apiCall, HttpMethod.GET, GLGroupMember.class, uriVariables, consumer);
+  }
+
+  public CompletableFuture<List<GLGroupMember>> getGroupMembersAsync(String groupId) {
+    if (!StringUtils.hasText(groupId)) {
+      throw new IllegalStateException("GitLab group ID required");
+    }
+    LOG.debug("Retrieving members for group {} asynchronously", groupId);
+    String apiCall = "/groups/{groupId}/members";
+    Map<String, String> uriVariables = createUriVariables("groupId", groupId);
+    return makeReadListApiCallAsync(apiCall, HttpMethod.GET, GLGroupMember.class, uriVariables);
+  }
+
+  /**
+   * Retrieves the direct members of all subgroups of the given group via GraphQL.
+   * The subgroups are requested together with their first page of members, so
+   * only subgroups with more members need additional queries. Returns the
+   * members by subgroup path or <code>null</code> if GraphQL is disabled or a
+   * query failed.
+   */
+  public Map<String, List<GLGroupMember>> getSubGroupMembers(String groupPath) {
+    if (!((GitLabClientConfig) config).isGraphqlEnabled()) {
+      return null;
+    }
+    LOG.debug("Retrieving members for subgroups of group {} via GraphQL", groupPath);
+    String url = getServerUrl() + GRAPHQL_PATH;
+    ApiCallMetrics.Sample sample = apiCallMetrics.startList(GRAPHQL_PATH, HttpMethod.POST);
+    long deadline = getListDeadline();
+    Map<String, List<GLGroupMember>> subGroupMembers = new LinkedHashMap<>();
+    try {
+      String groupsCursor = null;
+      do {
+        JsonNode groups = queryGraphQL(url, GRAPHQL_SUBGROUP_MEMBERS, groupPath, groupsCursor).path("descendantGroups");
+        sample.page();
+        for (JsonNode group : groups.path("nodes")) {
+          String fullPath = group.path("fullPath").asText();
+          String path = group.path("path").asText();
+
+          // Skip nested subgroups
+          if (fullPath.equals(groupPath + "/" + path)) {
+            List<GLGroupMember> members = new ArrayList<>();
+            JsonNode groupMembers = group.path("groupMembers");
+            String membersCursor = addGroupMembers(groupMembers, members);
+            while (membersCursor != null) {
+              checkListDeadline(deadline, GRAPHQL_PATH, sample);
+              groupMembers = queryGraphQL(url, GRAPHQL_GROUP_MEMBERS, fullPath, membersCursor).path("groupMembers");
+              sample.page();
+              membersCursor = addGroupMembers(groupMembers, members);
+            }
+            subGroupMembers.put(path, members);
+          }
+        }
+        groupsCursor = getEndCursor(groups);
+        if (groupsCursor != null) {
+          checkListDeadline(deadline, GRAPHQL_PATH, sample);
+        }
+      } while (groupsCursor != null);
+      sample.stop(null);
+      return subGroupMembers;
+    } catch (RestClientException e) {
+      sample.stop(e);
+      logException(HttpMethod.POST, createUriVariables("fullPath", groupPath), url, e, new HttpStatus[0]);
+    }
+    return null;
+  }
+
   public boolean addMemberToGroup(String groupId, String userId, GLPermission permission) {
     if (!StringUtils.hasText(groupId)) {
       throw new IllegalStateException("GitLab group ID required");
@@ -176,30 +501,246 @@ public class GitLabClient extends AbstractRestClient {
   }
 
   @Override
-  protected <T> List<T> makeReadListApiCall(String apiCall, HttpMethod method,
-      ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
+  protected <T> boolean makeReadListApiCall(String apiCall, HttpMethod method, HttpEntity<String> entity,
+      JavaType type, Map<String, String> uriVariables, Consumer<T> consumer, HttpStatus... ignoreStatus) {
     String url = getApiUrl(apiCall + (apiCall.contains("?") ? "&" : "?") + "per_page={perPage}");
     uriVariables.put("perPage", perPageAsString());
+    ApiCallMetrics.Sample sample = apiCallMetrics.startList(apiCall, method);
+    Consumer<T> countingConsumer = sample.counting(consumer);
+    long deadline = getListDeadline();
     try {
-      List<T> entities;
-      ResponseEntity<List<T>> response = restTemplate.exchange(url, method, authenticationEntity, typeReference,
-          uriVariables);
-      LinkHeader linkHeader = LinkHeader.parse(response.getHeaders());
-      if (linkHeader == null || !linkHeader.hasLink(LinkHeader.Rel.NEXT)) {
-        entities = response.getBody();
-      } else {
-        entities = new ArrayList<>(response.getBody());
-        do {
-          URI nextResourceUri = linkHeader.getLink(LinkHeader.Rel.NEXT).getResourceUri();
-          response = restTemplate.exchange(nextResourceUri, method, authenticationEntity, typeReference);
-          entities.addAll(response.getBody());
-          linkHeader = LinkHeader.parse(response.getHeaders());
-        } while (linkHeader != null && linkHeader.hasLink(LinkHeader.Rel.NEXT));
+      HttpHeaders headers = isKeysetPagination(apiCall)
+          ? readFirstKeysetPage(apiCall, method, entity, type, uriVariables, countingConsumer)
+          : null;
+      if (headers == null) {
+        headers = readPage(expandUri(url, uriVariables), method, entity, type, countingConsumer);
+      }
+      sample.page();
+      LinkHeader linkHeader = LinkHeader.parse(headers);
+      if (linkHeader != null && linkHeader.hasLink(LinkHeader.Rel.NEXT)) {
+        int totalPages = getTotalPages(headers, linkHeader);
+        if (totalPages > 1 && ((GitLabClientConfig) config).getParallelPageRequests() > 1) {
+          readRemainingPages(apiCall, url, method, entity, type, uriVariables, totalPages, countingConsumer, sample,
+              deadline);
+        } else {
+          do {
+            checkListDeadline(deadline, apiCall, sample);
+            URI nextResourceUri = linkHeader.getLink(LinkHeader.Rel.NEXT).getResourceUri();
+            headers = readPage(nextResourceUri, method, entity, type, countingConsumer);
+            sample.page();
+            linkHeader = LinkHeader.parse(headers);
+          } while (linkHeader != null && linkHeader.hasLink(LinkHeader.Rel.NEXT));
+        }
       }
-      return entities;
+      sample.stop(null);
+      return true;
     } catch (RestClientException e) {
+      sample.stop(e);
       logException(method, uriVariables, url, e, ignoreStatus);
     }
-    return null;
+    return false;
+  }
+
+  private boolean isKeysetPagination(String apiCall) {
+    return ((GitLabClientConfig) config).isKeysetPagination() && !keysetRejectingApiCalls.contains(apiCall);
+  }
+
+  private static boolean isKeysetRejected(int rawStatusCode) {
+    return rawStatusCode == HttpStatus.BAD_REQUEST.value() || rawStatusCode == HttpStatus.METHOD_NOT_ALLOWED.value();
+  }
+
+  private void rejectKeysetPagination(String apiCall) {
+    if (keysetRejectingApiCalls.add(apiCall)) {
+      LOG.info("Keyset pagination not supported for '{}' - falling back to offset pagination", apiCall);
+    }
+  }
+
+  /**
+   * Reads the first page in keyset pagination mode. The following pages are
+   * available via the "next" links only.
+   *
+   * @return <code>null</code> if GitLab rejected keyset pagination for this API
+   *         call (which is then retrieved in offset pagination mode from now on)
+   */
+  private <T> HttpHeaders readFirstKeysetPage(String apiCall, HttpMethod method, HttpEntity<String> entity,
+      JavaType type, Map<String, String> uriVariables, Consumer<T> consumer) {
+    String url = getApiUrl(apiCall + (apiCall.contains("?") ? "&" : "?") + KEYSET_PAGINATION + "&per_page={perPage}");
+    try {
+      return readPage(expandUri(url, uriVariables), method, entity, type, consumer);
+    } catch (HttpClientErrorException e) {
+      if (isKeysetRejected(e.getRawStatusCode())) {
+        rejectKeysetPagination(apiCall);
+        return null;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Non-blocking variant of the paged list retrieval. If the total number of
+   * pages is known then the remaining pages are requested concurrently (limited
+   * to "parallel-page-requests"), otherwise the "next" links are followed.
+   */
+  @Override
+  protected <T> CompletableFuture<List<T>> makeReadListApiCallAsync(String apiCall, HttpMethod method,
+      HttpEntity<String> entity, Class<T> type, Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
+    String url = getApiUrl(apiCall + (apiCall.contains("?") ? "&" : "?") + "per_page={perPage}");
+    uriVariables.put("perPage", perPageAsString());
+    ApiCallMetrics.Sample sample = apiCallMetrics.startList(apiCall, method);
+    return toFuture(sample, () -> withListDeadline(readFirstPageAsync(apiCall, url, method, entity, type, uriVariables)
+        .flatMapMany(firstPage -> readRemainingPagesAsync(url, method, entity, type, uriVariables, firstPage))
+        .doOnNext(page -> sample.page(page.getBody().size())).flatMapIterable(ResponseEntity::getBody)
+        .collectList(), apiCall, sample), method, uriVariables, url, ignoreStatus);
+  }
+
+  private <T> Mono<ResponseEntity<List<T>>> readFirstPageAsync(String apiCall, String url, HttpMethod method,
+      HttpEntity<String> entity, Class<T> type, Map<String, String> uriVariables) {
+    Mono<ResponseEntity<List<T>>> offsetPage = Mono
+        .defer(() -> readPageAsync(expandUri(url, uriVariables), method, entity, type));
+    if (!isKeysetPagination(apiCall)) {
+      return offsetPage;
+    }
+    String keysetUrl = getApiUrl(
+        apiCall + (apiCall.contains("?") ? "&" : "?") + KEYSET_PAGINATION + "&per_page={perPage}");
+    return this.<T>readPageAsync(expandUri(keysetUrl, uriVariables), method, entity, type)
+        .onErrorResume(WebClientResponseException.class, e -> {
+          if (isKeysetRejected(e.getRawStatusCode())) {
+            rejectKeysetPagination(apiCall);
+            return offsetPage;
+          }
+          return Mono.error(e);
+        });
+  }
+
+  private <T> Flux<ResponseEntity<List<T>>> readRemainingPagesAsync(String url, HttpMethod method,
+      HttpEntity<String> entity, Class<T> type, Map<String, String> uriVariables, ResponseEntity<List<T>> firstPage) {
+    LinkHeader linkHeader = LinkHeader.parse(firstPage.getHeaders());
+    int totalPages = linkHeader != null ? getTotalPages(firstPage.getHeaders(), linkHeader) : -1;
+    if (totalPages > 1) {
+      String pageUrl = url + "&page={page}";
+      return Flux.concat(Mono.just(firstPage), Flux.range(2, totalPages - 1).flatMapSequential(page -> {
+        Map<String, String> pageUriVariables = new HashMap<>(uriVariables);
+        pageUriVariables.put("page", Integer.toString(page));
+        return this.<T>readPageAsync(expandUri(pageUrl, pageUriVariables), method, entity, type);
+      }, ((GitLabClientConfig) config).getParallelPageRequests()));
+    }
+    return Mono.just(firstPage).expand(page -> {
+      LinkHeader pageLinkHeader = LinkHeader.parse(page.getHeaders());
+      if (pageLinkHeader != null && pageLinkHeader.hasLink(LinkHeader.Rel.NEXT)) {
+        URI nextResourceUri = pageLinkHeader.getLink(LinkHeader.Rel.NEXT).getResourceUri();
+        return this.<T>readPageAsync(nextResourceUri, method, entity, type);
+      }
+      return Mono.empty();
+    });
+  }
+
+  /**
+   * Sends the given GraphQL query and returns its "group" object. GraphQL errors
+   * are reported with status 200, so they are converted into an exception.
+   */
+  private JsonNode queryGraphQL(String url, String query, String fullPath, String cursor) {
+    ObjectNode request = objectMapper.createObjectNode().put("query", query);
+    request.putObject("variables").put("fullPath", fullPath).put("first", config.getPerPage()).put("after", cursor);
+    HttpHeaders headers = new HttpHeaders();
+    headers.putAll(authenticationEntity.getHeaders());
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    JsonNode response = restTemplate.postForObject(url, new HttpEntity<String>(request.toString(), headers),
+        JsonNode.class);
+    if (response == null || response.hasNonNull("errors")) {
+      throw new RestClientException("GraphQL query failed: " + (response != null ? response.get("errors") : null));
+    }
+    JsonNode group = response.path("data").path("group");
+    if (!group.isObject()) {
+      throw new RestClientException("GraphQL query failed: group '" + fullPath + "' not found");
+    }
+    return group;
+  }
+
+  /**
+   * Adds the members of the given GraphQL connection to the given list and
+   * returns the cursor of the next page or <code>null</code> for the last page.
+   */
+  private String addGroupMembers(JsonNode groupMembers, List<GLGroupMember> members) {
+    for (JsonNode node : groupMembers.path("nodes")) {
+      JsonNode user = node.path("user");
+      if (user.isObject()) {
+        GLGroupMember member = new GLGroupMember();
+        member.setId(StringUtils.delete(user.path("id").asText(), GRAPHQL_USER_ID_PREFIX));
+        member.setUsername(user.path("username").asText());
+        member.setPermission(GLPermission.fromAccessLevel(node.path("accessLevel").path("integerValue").asText()));
+        members.add(member);
+      }
+    }
+    return getEndCursor(groupMembers);
+  }
+
+  private static String getEndCursor(JsonNode connection) {
+    JsonNode pageInfo = connection.path("pageInfo");
+    return pageInfo.path("hasNextPage").asBoolean() ? pageInfo.path("endCursor").asText(null) : null;
+  }
+
+  /**
+   * Returns the total number of pages from the "X-Total-Pages" header or the
+   * "last" link. GitLab omits both for collections with more than 10,000
+   * entries - in this case -1 is returned.
+   */
+  private int getTotalPages(HttpHeaders headers, LinkHeader linkHeader) {
+    String totalPages = headers.getFirst(TOTAL_PAGES_HEADER);
+    if (StringUtils.hasText(totalPages)) {
+      try {
+        return Integer.parseInt(totalPages.trim());
+      } catch (NumberFormatException e) {
+        LOG.debug("Invalid header {}: {}", TOTAL_PAGES_HEADER, totalPages);
+      }
+    }
+    if (linkHeader.hasLink(LinkHeader.Rel.LAST)) {
+      return linkHeader.getLink(LinkHeader.Rel.LAST).getPage();
+    }
+    return -1;
+  }
+
+  /**
+   * Retrieves the pages 2 to <code>totalPages</code> concurrently and hands over
+   * their entities in the original order to the given consumer. At most
+   * "parallel-page-requests" pages are requested or buffered at the same time.
+   * Waiting for a page is aborted when the given deadline has passed.
+   */
+  private <T> void readRemainingPages(String apiCall, String url, HttpMethod method, HttpEntity<String> entity,
+      JavaType type, Map<String, String> uriVariables, int totalPages, Consumer<T> consumer,
+      ApiCallMetrics.Sample sample, long deadline) {
+    LOG.debug("Retrieving {} remaining pages concurrently", totalPages - 1);
+    String pageUrl = url + "&page={page}";
+    int maxPages = ((GitLabClientConfig) config).getParallelPageRequests();
+    Deque<CompletableFuture<List<T>>> pages = new ArrayDeque<>(maxPages);
+    int nextPage = 2;
+    try {
+      while (nextPage <= totalPages || !pages.isEmpty()) {
+        while (nextPage <= totalPages && pages.size() < maxPages) {
+          Map<String, String> pageUriVariables = new HashMap<>(uriVariables);
+          pageUriVariables.put("page", Integer.toString(nextPage++));
+          URI pageUri = expandUri(pageUrl, pageUriVariables);
+          pages.add(CompletableFuture.supplyAsync(() -> {
+            List<T> entities = new ArrayList<>(config.getPerPage());
+            this.<T>readPage(pageUri, method, entity, type, entities::add);
+            return entities;
+          }, pageExecutor));
+        }
+        pages.poll().get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS).forEach(consumer);
+        sample.page();
+      }
+    } catch (TimeoutException e) {
+      pages.forEach(page -> page.cancel(false));
+      throw new DeadlineExceededException(apiCall, config.getListDeadline(), sample.getPages());
+    } catch (ExecutionException e) {
+      pages.forEach(page -> page.cancel(false));
+      if (e.getCause() instanceof RestClientException) {
+        throw (RestClientException) e.getCause();
+      }
+      throw new CompletionException(e.getCause());
+    } catch (InterruptedException e) {
+      pages.forEach(page -> page.cancel(false));
+      Thread.currentThread().interrupt();
+      throw new CompletionException(e);
+    }
   }
 }
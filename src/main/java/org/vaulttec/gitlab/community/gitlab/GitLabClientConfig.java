@@ -19,6 +19,7 @@ package org.vaulttec.gitlab.community.gitlab;
 
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.time.Duration;
 
 import javax.annotation.PostConstruct;
 import javax.validation.constraints.Max;
@@ -29,11 +30,11 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 import org.springframework.util.StringUtils;
-import org.vaulttec.http.client.RestClientConfig;
+import org.vaulttec.http.client.AbstractRestClientConfig;
 
 @Configuration
 @ConfigurationProperties(prefix = "gitlab")
-public class GitLabClientConfig implements RestClientConfig {
+public class GitLabClientConfig extends AbstractRestClientConfig {
   private final Environment env;
   @NotEmpty
   private String serverUrl;
@@ -42,11 +43,26 @@ public class GitLabClientConfig implements RestClientConfig {
   private int perPage = 100;
   @NotEmpty
   private String personalAccessToken;
+  @Min(1)
+  private int parallelPageRequests = 4;
+  private boolean keysetPagination;
+  private boolean graphqlEnabled;
+  @Min(1)
+  private int writeBehindConcurrency = 2;
+  private Duration writeBehindRetryDelay = Duration.ofSeconds(10);
+  @Min(1)
+  private int writeBehindMaxAttempts = 10;
+  private String writeBehindFile;
 
   GitLabClientConfig(Environment env) {
     this.env = env;
   }
 
+  @Override
+  public String getName() {
+    return "gitlab";
+  }
+
   @Override
   public String getServerUrl() {
     return serverUrl;
@@ -78,6 +94,62 @@ public class GitLabClientConfig implements RestClientConfig {
     this.personalAccessToken = personalAccessToken;
   }
 
+  public int getParallelPageRequests() {
+    return parallelPageRequests;
+  }
+
+  public void setParallelPageRequests(int parallelPageRequests) {
+    this.parallelPageRequests = parallelPageRequests;
+  }
+
+  public boolean isKeysetPagination() {
+    return keysetPagination;
+  }
+
+  public void setKeysetPagination(boolean keysetPagination) {
+    this.keysetPagination = keysetPagination;
+  }
+
+  public boolean isGraphqlEnabled() {
+    return graphqlEnabled;
+  }
+
+  public void setGraphqlEnabled(boolean graphqlEnabled) {
+    this.graphqlEnabled = graphqlEnabled;
+  }
+
+  public int getWriteBehindConcurrency() {
+    return writeBehindConcurrency;
+  }
+
+  public void setWriteBehindConcurrency(int writeBehindConcurrency) {
+    this.writeBehindConcurrency = writeBehindConcurrency;
+  }
+
+  public Duration getWriteBehindRetryDelay() {
+    return writeBehindRetryDelay;
+  }
+
+  public void setWriteBehindRetryDelay(Duration writeBehindRetryDelay) {
+    this.writeBehindRetryDelay = writeBehindRetryDelay;
+  }
+
+  public int getWriteBehindMaxAttempts() {
+    return writeBehindMaxAttempts;
+  }
+
+  public void setWriteBehindMaxAttempts(int writeBehindMaxAttempts) {
+    this.writeBehindMaxAttempts = writeBehindMaxAttempts;
+  }
+
+  public String getWriteBehindFile() {
+    return writeBehindFile;
+  }
+
+  public void setWriteBehindFile(String writeBehindFile) {
+    this.writeBehindFile = writeBehindFile;
+  }
+
   @Override
   public Proxy getProxy() {
     if (StringUtils.hasText(env.getProperty("proxy.host"))) {
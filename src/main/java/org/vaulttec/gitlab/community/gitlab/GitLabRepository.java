@@ -17,46 +17,193 @@
  */
 package org.vaulttec.gitlab.community.gitlab;
 
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Repository;
+import org.vaulttec.gitlab.community.CommunityConfig;
+import org.vaulttec.gitlab.community.gitlab.model.GLGroup;
+import org.vaulttec.gitlab.community.gitlab.model.GLGroupMember;
 import org.vaulttec.gitlab.community.gitlab.model.GLUser;
 
+/**
+ * Caches the active GitLab users by username. With "incremental-user-sync"
+ * enabled a refresh retrieves only the users updated since the most recent
+ * update seen so far (the watermark) and merges them into the cached map;
+ * blocked users are removed. All users are retrieved again after
+ * "full-user-sync-interval" to reconcile changes which don't touch a user's
+ * update time (e.g. deleted users or custom attributes).
+ * <p>
+ * With "group-users-only" enabled only the members of the community group and
+ * its topic subgroups are retrieved (always in full). The retrieved subgroup
+ * members are handed over to the topic members of the same refresh.
+ */
 @Repository
 public class GitLabRepository {
   private static final Logger LOG = LoggerFactory.getLogger(GitLabRepository.class);
 
   private final GitLabClient gitLabClient;
+  private final CommunityConfig communityConfig;
+  private Map<String, GLUser> users;
+  private Date usersWatermark;
+  private long lastFullUserSync;
+  private Map<String, List<GLGroupMember>> subGroupMembers;
 
-  public GitLabRepository(GitLabClient gitLabClient) {
+  public GitLabRepository(GitLabClient gitLabClient, CommunityConfig communityConfig) {
     LOG.debug("Initializing GitLabRepository");
     this.gitLabClient = gitLabClient;
+    this.communityConfig = communityConfig;
   }
 
   @Cacheable("gl_users")
-  public Map<String, GLUser> getUsers() {
+  public synchronized Map<String, GLUser> getUsers() {
     return retrieveUsers();
   }
 
   @CachePut("gl_users")
-  public Map<String, GLUser> refreshUsers() {
+  public synchronized Map<String, GLUser> refreshUsers() {
     LOG.debug("Refreshing users");
+    if (communityConfig.isIncrementalUserSync() && !communityConfig.isGroupUsersOnly() && users != null
+        && usersWatermark != null
+        && System.nanoTime() - lastFullUserSync < communityConfig.getFullUserSyncInterval().toNanos()) {
+      return mergeUpdatedUsers();
+    }
     return retrieveUsers();
   }
 
   private Map<String, GLUser> retrieveUsers() {
+    if (communityConfig.isGroupUsersOnly()) {
+      return retrieveGroupUsers();
+    }
     LOG.debug("Retrieving all users");
-    Map<String, GLUser> allUsers = new HashMap<String, GLUser>();
-    List<GLUser> users = gitLabClient.getActiveUsers();
-    if (users != null) {
-      users.forEach(user -> allUsers.put(user.getUsername(), user));
+    Map<String, GLUser> allUsers = new ConcurrentHashMap<String, GLUser>();
+    if (gitLabClient.getActiveUsers(user -> allUsers.put(user.getUsername(), user))) {
+      users = allUsers;
+      usersWatermark = allUsers.values().stream().map(GLUser::getUpdatedAt).filter(updatedAt -> updatedAt != null)
+          .max(Date::compareTo).orElse(null);
+      lastFullUserSync = System.nanoTime();
+    } else {
+      allUsers.clear();
     }
     return allUsers;
   }
+
+  /**
+   * Merges the users updated since the watermark into the current map in
+   * place. If the retrieval fails the current users are kept.
+   */
+  private Map<String, GLUser> mergeUpdatedUsers() {
+    LOG.debug("Retrieving users updated since {}", usersWatermark);
+    Map<String, GLUser> updatedUsers = new HashMap<String, GLUser>();
+    if (gitLabClient.getUsersUpdatedSince(usersWatermark, user -> updatedUsers.put(user.getId(), user))) {
+      // Renamed users are stored with their new username
+      users.values().removeIf(user -> updatedUsers.containsKey(user.getId())
+          && !updatedUsers.get(user.getId()).getUsername().equals(user.getUsername()));
+      updatedUsers.values().forEach(user -> {
+        if (user.isActive()) {
+          users.put(user.getUsername(), user);
+        } else {
+          users.remove(user.getUsername());
+        }
+        if (user.getUpdatedAt().after(usersWatermark)) {
+          usersWatermark = user.getUpdatedAt();
+        }
+      });
+      LOG.debug("Merged {} updated users", updatedUsers.size());
+    }
+    return users;
+  }
+
+  private Map<String, GLUser> retrieveGroupUsers() {
+    LOG.debug("Retrieving users of group {}", communityConfig.getGroupPath());
+    Map<String, GLUser> groupUsers = new ConcurrentHashMap<String, GLUser>();
+    Map<String, List<GLGroupMember>> groupMembers = new LinkedHashMap<String, List<GLGroupMember>>();
+    Set<String> userIds = retrieveGroupMemberIds(groupMembers);
+    List<GLUser> members = userIds != null ? gitLabClient.getUsers(userIds) : null;
+    if (members != null) {
+      members.stream().filter(GLUser::isActive).forEach(user -> groupUsers.put(user.getUsername(), user));
+      users = groupUsers;
+      usersWatermark = null;
+      lastFullUserSync = System.nanoTime();
+      subGroupMembers = groupMembers;
+    }
+    return groupUsers;
+  }
+
+  /**
+   * Hands over the subgroup members (by subgroup path) retrieved together with
+   * the group users, so the topic members of the same refresh are built without
+   * retrieving them again. Returns <code>null</code> if "group-users-only" is
+   * disabled or the members were already handed over.
+   */
+  public synchronized Map<String, List<GLGroupMember>> takeSubGroupMembers() {
+    Map<String, List<GLGroupMember>> groupMembers = subGroupMembers;
+    subGroupMembers = null;
+    return groupMembers;
+  }
+
+  /**
+   * Returns the IDs of the members of the community group and its subgroups or
+   * <code>null</code> if the retrieval failed. The members of the subgroups are
+   * added to the given map.
+   */
+  private Set<String> retrieveGroupMemberIds(Map<String, List<GLGroupMember>> groupMembers) {
+    GLGroup group = gitLabClient.getGroup(communityConfig.getGroupPath());
+    if (group == null) {
+      return null;
+    }
+    Set<String> userIds = new LinkedHashSet<String>();
+    if (!gitLabClient.getGroupMembers(group.getId(), member -> userIds.add(member.getId()))
+        || !retrieveSubGroupMembers(group, groupMembers)) {
+      return null;
+    }
+    groupMembers.values().forEach(members -> members.forEach(member -> userIds.add(member.getId())));
+    return userIds;
+  }
+
+  /**
+   * Retrieves the members of all subgroups of the given group with a single
+   * GraphQL query. Subgroups missing in the GraphQL result (all of them if
+   * GraphQL is disabled) are retrieved via non-blocking REST calls (limited to
+   * "topic-members-concurrency"). Returns <code>false</code> if any retrieval
+   * failed.
+   */
+  private boolean retrieveSubGroupMembers(GLGroup group, Map<String, List<GLGroupMember>> groupMembers) {
+    List<GLGroup> subGroups = gitLabClient.getSubGroups(group.getId());
+    if (subGroups == null) {
+      return false;
+    }
+    Map<String, List<GLGroupMember>> queriedMembers = gitLabClient.getSubGroupMembers(communityConfig.getGroupPath());
+    int concurrency = Math.max(1, communityConfig.getTopicMembersConcurrency());
+    Map<String, CompletableFuture<List<GLGroupMember>>> requests = new LinkedHashMap<>();
+    Iterator<GLGroup> iterator = subGroups.iterator();
+    while (iterator.hasNext() || !requests.isEmpty()) {
+      while (iterator.hasNext() && requests.size() < concurrency) {
+        GLGroup subGroup = iterator.next();
+        List<GLGroupMember> members = queriedMembers != null ? queriedMembers.get(subGroup.getPath()) : null;
+        requests.put(subGroup.getPath(), members != null ? CompletableFuture.completedFuture(members)
+            : gitLabClient.getGroupMembersAsync(subGroup.getId()));
+      }
+      String path = requests.keySet().iterator().next();
+      List<GLGroupMember> members = requests.remove(path).join();
+      if (members == null) {
+        requests.values().forEach(request -> request.cancel(false));
+        return false;
+      }
+      groupMembers.put(path, members);
+    }
+    return true;
+  }
 }
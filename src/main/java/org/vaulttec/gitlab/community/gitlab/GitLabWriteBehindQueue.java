@@ -0,0 +1,277 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.gitlab;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes GitLab user custom attributes in the background. A queued value is
+ * available via {@link #getUserCustomAttribute(String, String)} immediately
+ * and written to GitLab by up to "write-behind-concurrency" threads. Failed
+ * writes are retried with an exponential backoff starting with
+ * "write-behind-retry-delay" and dropped after "write-behind-max-attempts". A
+ * write which is rejected by GitLab (a client error like 404 for a deleted
+ * user) is dropped right away. If "write-behind-file" is set then the pending
+ * writes are stored in this file and resumed after a restart.
+ */
+@Service
+public class GitLabWriteBehindQueue {
+  private static final Logger LOG = LoggerFactory.getLogger(GitLabWriteBehindQueue.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final TypeReference<List<PendingWrite>> PENDING_WRITES_TYPE = new TypeReference<List<PendingWrite>>() {
+  };
+  private static final int MAX_BACKOFF_SHIFT = 6;
+  private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+  private final GitLabClient gitLabClient;
+  private final Duration retryDelay;
+  private final int maxAttempts;
+  private final Path file;
+  private final ScheduledThreadPoolExecutor executor;
+  private final Map<String, PendingWrite> pendingWrites = new LinkedHashMap<>();
+  private final AtomicBoolean storeScheduled = new AtomicBoolean();
+
+  GitLabWriteBehindQueue(GitLabClient gitLabClient, GitLabClientConfig config) {
+    LOG.debug("Initializing GitLabWriteBehindQueue");
+    this.gitLabClient = gitLabClient;
+    this.retryDelay = config.getWriteBehindRetryDelay();
+    this.maxAttempts = config.getWriteBehindMaxAttempts();
+    this.file = StringUtils.hasText(config.getWriteBehindFile()) ? Paths.get(config.getWriteBehindFile()) : null;
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("gitlab-write-");
+    threadFactory.setDaemon(true);
+    this.executor = new ScheduledThreadPoolExecutor(config.getWriteBehindConcurrency(), threadFactory);
+    load();
+  }
+
+  /**
+   * Queues the given custom attribute for the given user. A pending write of the
+   * same attribute is superseded.
+   */
+  public void setUserCustomAttribute(String userId, String key, String value) {
+    if (!StringUtils.hasText(userId)) {
+      throw new IllegalStateException("GitLab user ID required");
+    }
+    if (!StringUtils.hasText(key) || !StringUtils.hasText(value)) {
+      throw new IllegalStateException("Attribute key/value pair required");
+    }
+    LOG.debug("Queuing custom attribute '{}' ({}) for user {}", key, value, userId);
+    PendingWrite write = new PendingWrite(userId, key, value);
+    synchronized (pendingWrites) {
+      pendingWrites.put(write.getId(), write);
+    }
+    scheduleStore();
+    schedule(write, 0, 0);
+  }
+
+  /**
+   * Returns the value of the given custom attribute which is not yet written to
+   * GitLab or <code>null</code> if there's no pending write.
+   */
+  public String getUserCustomAttribute(String userId, String key) {
+    synchronized (pendingWrites) {
+      PendingWrite write = pendingWrites.get(PendingWrite.getId(userId, key));
+      return write != null ? write.getValue() : null;
+    }
+  }
+
+  public int getPendingWrites() {
+    synchronized (pendingWrites) {
+      return pendingWrites.size();
+    }
+  }
+
+  /**
+   * Stops the writes and stores the pending ones. Running writes and stores are
+   * awaited first, so the final store isn't overwritten by a background store.
+   */
+  @PreDestroy
+  public void close() {
+    executor.shutdownNow();
+    try {
+      if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.warn("Running GitLab writes not finished within {} s", CLOSE_TIMEOUT_SECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    int pending = getPendingWrites();
+    if (file != null) {
+      store();
+      if (pending > 0) {
+        LOG.info("Stored {} pending GitLab writes in '{}'", pending, file);
+      }
+    } else if (pending > 0) {
+      LOG.warn("Discarding {} pending GitLab writes", pending);
+    }
+  }
+
+  private void schedule(PendingWrite write, int attempt, long delayMillis) {
+    if (!executor.isShutdown()) {
+      executor.schedule(() -> write(write, attempt), delayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void write(PendingWrite write, int attempt) {
+    synchronized (pendingWrites) {
+      if (pendingWrites.get(write.getId()) != write) {
+        return;
+      }
+    }
+    int status = gitLabClient.writeUserCustomAttribute(write.getUserId(), write.getKey(), write.getValue());
+    if (status >= 200 && status < 300) {
+      remove(write);
+    } else if (isPermanentFailure(status)) {
+      LOG.error("Writing custom attribute '{}' for user {} rejected with {} - dropping write", write.getKey(),
+          write.getUserId(), status);
+      remove(write);
+    } else if (attempt + 1 >= maxAttempts) {
+      LOG.error("Writing custom attribute '{}' for user {} failed {} times - dropping write", write.getKey(),
+          write.getUserId(), attempt + 1);
+      remove(write);
+    } else {
+      long delayMillis = retryDelay.toMillis() << Math.min(attempt, MAX_BACKOFF_SHIFT);
+      LOG.warn("Writing custom attribute '{}' for user {} failed - retrying in {} ms", write.getKey(),
+          write.getUserId(), delayMillis);
+      schedule(write, attempt + 1, delayMillis);
+    }
+  }
+
+  private void remove(PendingWrite write) {
+    synchronized (pendingWrites) {
+      pendingWrites.remove(write.getId(), write);
+    }
+    scheduleStore();
+  }
+
+  /**
+   * Client errors won't go away by retrying, except for request timeouts and
+   * exceeded rate limits.
+   */
+  private static boolean isPermanentFailure(int status) {
+    return status >= 400 && status < 500 && status != 408 && status != 429;
+  }
+
+  /**
+   * Stores the pending writes in the background. Consecutive changes are
+   * coalesced into a single store.
+   */
+  private void scheduleStore() {
+    if (file != null && !executor.isShutdown() && storeScheduled.compareAndSet(false, true)) {
+      executor.execute(() -> {
+        storeScheduled.set(false);
+        store();
+      });
+    }
+  }
+
+  /**
+   * Writes the pending writes to a temporary file which replaces the file. Stores
+   * are serialized as they share the temporary file.
+   */
+  private synchronized void store() {
+    List<PendingWrite> writes;
+    synchronized (pendingWrites) {
+      writes = new ArrayList<>(pendingWrites.values());
+    }
+    try {
+      Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+      MAPPER.writeValue(tempFile.toFile(), writes);
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.error("Storing pending GitLab writes in '{}' failed: {}", file, e.getMessage());
+    }
+  }
+
+  private void load() {
+    if (file == null || !Files.exists(file)) {
+      return;
+    }
+    try {
+      List<PendingWrite> writes = MAPPER.readValue(file.toFile(), PENDING_WRITES_TYPE);
+      LOG.info("Resuming {} pending GitLab writes from '{}'", writes.size(), file);
+      synchronized (pendingWrites) {
+        writes.forEach(write -> pendingWrites.put(write.getId(), write));
+      }
+      writes.forEach(write -> schedule(write, 0, 0));
+    } catch (IOException e) {
+      LOG.error("Loading pending GitLab writes from '{}' failed: {}", file, e.getMessage());
+    }
+  }
+
+  static class PendingWrite {
+    private final String userId;
+    private final String key;
+    private final String value;
+
+    @JsonCreator
+    PendingWrite(@JsonProperty("userId") String userId, @JsonProperty("key") String key,
+        @JsonProperty("value") String value) {
+      this.userId = userId;
+      this.key = key;
+      this.value = value;
+    }
+
+    static String getId(String userId, String key) {
+      return userId + "/" + key;
+    }
+
+    String getId() {
+      return getId(userId, key);
+    }
+
+    @JsonProperty
+    String getUserId() {
+      return userId;
+    }
+
+    @JsonProperty
+    String getKey() {
+      return key;
+    }
+
+    @JsonProperty
+    String getValue() {
+      return value;
+    }
+  }
+}
@@ -17,7 +17,14 @@
  */
 package org.vaulttec.gitlab.community.gitlab.model;
 
+import java.io.IOException;
+import java.util.Map;
+
+import org.vaulttec.http.client.StreamingDeserializer;
+
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class GLCustomAttribute {
@@ -74,4 +81,34 @@ public class GLCustomAttribute {
   public String toString() {
     return "GLCustomAttribute [key=" + key + ", value=" + value + "]";
   }
+
+  /**
+   * Reads a JSON array of custom attributes into the given map.
+   */
+  static void readInto(JsonParser parser, Map<String, String> attributes) throws IOException {
+    attributes.clear();
+    if (!parser.isExpectedStartArrayToken()) {
+      parser.skipChildren();
+      return;
+    }
+    for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+      if (token != JsonToken.START_OBJECT) {
+        parser.skipChildren();
+        continue;
+      }
+      String key = null;
+      String value = null;
+      for (String field = parser.nextFieldName(); field != null; field = parser.nextFieldName()) {
+        parser.nextToken();
+        if ("key".equals(field)) {
+          key = StreamingDeserializer.readText(parser);
+        } else if ("value".equals(field)) {
+          value = StreamingDeserializer.readText(parser);
+        } else {
+          parser.skipChildren();
+        }
+      }
+      attributes.put(key, value);
+    }
+  }
 }
@@ -17,24 +17,27 @@
  */
 package org.vaulttec.gitlab.community.gitlab.model;
 
+import java.io.IOException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import com.fasterxml.jackson.annotation.JsonAlias;
+import org.vaulttec.http.client.StreamingDeserializer;
+
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
+@JsonDeserialize(using = GLGroup.Deserializer.class)
 public class GLGroup {
   private String id;
   private String path;
   private String name;
   private String description;
-  @JsonAlias("avatar_url")
   private URL avatar;
-  @JsonAlias("web_url")
   private URL profile;
   private Map<String, String> customAttributes = new HashMap<String, String>();
 
@@ -99,7 +102,6 @@ public class GLGroup {
     return customAttributes.get(key);
   }
 
-  @JsonSetter("custom_attributes")
   public void setCustomAttributes(List<GLCustomAttribute> customAttributes) {
     this.customAttributes.clear();
     customAttributes.forEach(attribute -> this.customAttributes.put(attribute.getKey(), attribute.getValue()));
@@ -136,4 +138,49 @@ public class GLGroup {
     return "GLGroup [id=" + id + ", path=" + path + ", name=" + name + ", avatar=" + avatar + ", profile=" + profile
         + ", customAttributes=" + customAttributes + "]";
   }
+
+  static class Deserializer extends StreamingDeserializer<GLGroup> {
+    private static final long serialVersionUID = 1L;
+
+    Deserializer() {
+      super(GLGroup.class);
+    }
+
+    @Override
+    protected GLGroup createEntity() {
+      return new GLGroup();
+    }
+
+    @Override
+    protected boolean readField(JsonParser parser, DeserializationContext context, GLGroup group, String field)
+        throws IOException {
+      switch (field) {
+      case "id":
+        group.id = readText(parser);
+        return true;
+      case "path":
+        group.path = readText(parser);
+        return true;
+      case "name":
+        group.name = readText(parser);
+        return true;
+      case "description":
+        group.description = readText(parser);
+        return true;
+      case "avatar":
+      case "avatar_url":
+        group.avatar = readUrl(parser, context);
+        return true;
+      case "profile":
+      case "web_url":
+        group.profile = readUrl(parser, context);
+        return true;
+      case "custom_attributes":
+        GLCustomAttribute.readInto(parser, group.customAttributes);
+        return true;
+      default:
+        return false;
+      }
+    }
+  }
 }
@@ -17,15 +17,30 @@
  */
 package org.vaulttec.gitlab.community.gitlab.model;
 
-import com.fasterxml.jackson.annotation.JsonAlias;
+import java.io.IOException;
+
+import org.vaulttec.http.client.StreamingDeserializer;
+
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
+@JsonDeserialize(using = GLGroupMember.Deserializer.class)
 public class GLGroupMember {
+  private String id;
   private String username;
-  @JsonAlias("access_level")
   private GLPermission permission;
 
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
   public String getUsername() {
     return username;
   }
@@ -74,6 +89,39 @@ public class GLGroupMember {
 
   @Override
   public String toString() {
-    return "GLGroupMember [username=" + username + ", permission=" + permission + "]";
+    return "GLGroupMember [id=" + id + ", username=" + username + ", permission=" + permission + "]";
+  }
+
+  static class Deserializer extends StreamingDeserializer<GLGroupMember> {
+    private static final long serialVersionUID = 1L;
+
+    Deserializer() {
+      super(GLGroupMember.class);
+    }
+
+    @Override
+    protected GLGroupMember createEntity() {
+      return new GLGroupMember();
+    }
+
+    @Override
+    protected boolean readField(JsonParser parser, DeserializationContext context, GLGroupMember member,
+        String field) throws IOException {
+      switch (field) {
+      case "id":
+        member.id = readText(parser);
+        return true;
+      case "username":
+        member.username = readText(parser);
+        return true;
+      case "permission":
+      case "access_level":
+        String accessLevel = readText(parser);
+        member.permission = accessLevel != null ? GLPermission.fromAccessLevel(accessLevel) : null;
+        return true;
+      default:
+        return false;
+      }
+    }
   }
 }
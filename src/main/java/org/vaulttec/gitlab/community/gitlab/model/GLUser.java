@@ -17,33 +17,39 @@
  */
 package org.vaulttec.gitlab.community.gitlab.model;
 
+import java.io.IOException;
 import java.net.URL;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.springframework.util.StringUtils;
+import org.vaulttec.http.client.StreamingDeserializer;
 
-import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
+@JsonDeserialize(using = GLUser.Deserializer.class)
 public class GLUser {
   public static final String CUSTOM_ATTRIBUTE_JOINED = "community_joined";
   public static final DateTimeFormatter JOINED_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE;
+  public static final String STATE_ACTIVE = "active";
 
   private String id;
   private String username;
   private String name;
   private String email;
-  @JsonAlias("avatar_url")
   private URL avatar;
-  @JsonAlias("web_url")
   private URL profile;
   private String bio;
+  private String state;
+  private Date updatedAt;
   private Map<String, String> customAttributes = new HashMap<String, String>();
 
   public String getId() {
@@ -102,6 +108,26 @@ public class GLUser {
     this.bio = bio;
   }
 
+  public String getState() {
+    return state;
+  }
+
+  public void setState(String state) {
+    this.state = state;
+  }
+
+  public boolean isActive() {
+    return state == null || STATE_ACTIVE.equals(state);
+  }
+
+  public Date getUpdatedAt() {
+    return updatedAt;
+  }
+
+  public void setUpdatedAt(Date updatedAt) {
+    this.updatedAt = updatedAt;
+  }
+
   public void addCustomAttribute(String key, String value) {
     this.customAttributes.put(key, value);
   }
@@ -114,7 +140,6 @@ public class GLUser {
     return customAttributes.get(key);
   }
 
-  @JsonSetter("custom_attributes")
   public void setCustomAttributes(List<GLCustomAttribute> customAttributes) {
     this.customAttributes.clear();
     customAttributes.forEach(attribute -> this.customAttributes.put(attribute.getKey(), attribute.getValue()));
@@ -158,6 +183,66 @@ public class GLUser {
   @Override
   public String toString() {
     return "GLUser [id=" + id + ", username=" + username + ", name=" + name + ", email=" + email + ", avatar=" + avatar
-        + ", profile=" + profile + ", bio=" + bio + ", customAttributes=" + customAttributes + "]";
+        + ", profile=" + profile + ", bio=" + bio + ", state=" + state + ", updatedAt=" + updatedAt
+        + ", customAttributes=" + customAttributes + "]";
+  }
+
+  /**
+   * Reads the custom attributes directly into the map (without intermediate
+   * {@link GLCustomAttribute} instances).
+   */
+  static class Deserializer extends StreamingDeserializer<GLUser> {
+    private static final long serialVersionUID = 1L;
+
+    Deserializer() {
+      super(GLUser.class);
+    }
+
+    @Override
+    protected GLUser createEntity() {
+      return new GLUser();
+    }
+
+    @Override
+    protected boolean readField(JsonParser parser, DeserializationContext context, GLUser user, String field)
+        throws IOException {
+      switch (field) {
+      case "id":
+        user.id = readText(parser);
+        return true;
+      case "username":
+        user.username = readText(parser);
+        return true;
+      case "name":
+        user.name = readText(parser);
+        return true;
+      case "email":
+        user.email = readText(parser);
+        return true;
+      case "avatar":
+      case "avatar_url":
+        user.avatar = readUrl(parser, context);
+        return true;
+      case "profile":
+      case "web_url":
+        user.profile = readUrl(parser, context);
+        return true;
+      case "bio":
+        user.bio = readText(parser);
+        return true;
+      case "state":
+        user.state = readText(parser);
+        return true;
+      case "updatedAt":
+      case "updated_at":
+        user.updatedAt = readDate(parser, context);
+        return true;
+      case "custom_attributes":
+        GLCustomAttribute.readInto(parser, user.customAttributes);
+        return true;
+      default:
+        return false;
+      }
+    }
   }
 }
@@ -17,11 +17,13 @@
  */
 package org.vaulttec.gitlab.community.mattermost;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,11 +37,18 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestClientException;
+import org.springframework.web.reactive.function.client.WebClient;
 import org.vaulttec.gitlab.community.mattermost.model.MMChannel;
 import org.vaulttec.gitlab.community.mattermost.model.MMMember;
 import org.vaulttec.gitlab.community.mattermost.model.MMTeam;
 import org.vaulttec.gitlab.community.mattermost.model.MMUser;
 import org.vaulttec.http.client.AbstractRestClient;
+import org.vaulttec.http.client.ApiCallMetrics;
+
+import com.fasterxml.jackson.databind.JavaType;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
 
 @Service
 public class MattermostClient extends AbstractRestClient {
@@ -59,8 +68,9 @@ public class MattermostClient extends AbstractRestClient {
   protected static final ParameterizedTypeReference<List<MMChannel>> RESPONSE_TYPE_TEAM_CHANNELS = new ParameterizedTypeReference<List<MMChannel>>() {
   };
 
-  MattermostClient(MattermostClientConfig config, RestTemplateBuilder restTemplateBuilder) {
-    super(config, restTemplateBuilder);
+  MattermostClient(MattermostClientConfig config, RestTemplateBuilder restTemplateBuilder,
+      WebClient.Builder webClientBuilder, MeterRegistry meterRegistry) {
+    super(config, restTemplateBuilder, webClientBuilder, meterRegistry);
     prepareAuthenticationEntity("Authorization", "Bearer " + config.getPersonalAccessToken());
   }
 
@@ -71,6 +81,20 @@ public class MattermostClient extends AbstractRestClient {
     return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_USERS, uriVariables);
   }
 
+  public boolean getUsers(Consumer<MMUser> consumer) {
+    LOG.debug("Streaming users");
+    String apiCall = "/users";
+    Map<String, String> uriVariables = createUriVariables();
+    return makeReadListApiCall(apiCall, HttpMethod.GET, MMUser.class, uriVariables, consumer);
+  }
+
+  public CompletableFuture<List<MMUser>> getUsersAsync() {
+    LOG.debug("Retrieving users asynchronously");
+    String apiCall = "/users";
+    Map<String, String> uriVariables = createUriVariables();
+    return makeReadListApiCallAsync(apiCall, HttpMethod.GET, MMUser.class, uriVariables);
+  }
+
   public MMUser getUserById(String userId) {
     if (!StringUtils.hasText(userId)) {
       throw new IllegalStateException("Mattermost user id required");
@@ -81,6 +105,16 @@ public class MattermostClient extends AbstractRestClient {
     return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_USER, uriVariables, HttpStatus.NOT_FOUND);
   }
 
+  public CompletableFuture<MMUser> getUserByIdAsync(String userId) {
+    if (!StringUtils.hasText(userId)) {
+      throw new IllegalStateException("Mattermost user id required");
+    }
+    LOG.debug("Retrieving user with id '{}' asynchronously", userId);
+    String apiCall = "/users/{userId}";
+    Map<String, String> uriVariables = createUriVariables("userId", userId);
+    return makeReadApiCallAsync(apiCall, HttpMethod.GET, RESPONSE_TYPE_USER, uriVariables, HttpStatus.NOT_FOUND);
+  }
+
   public MMUser getUserByUsername(String username) {
     if (!StringUtils.hasText(username)) {
       throw new IllegalStateException("Mattermost user name required");
@@ -91,6 +125,16 @@ public class MattermostClient extends AbstractRestClient {
     return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_USER, uriVariables, HttpStatus.NOT_FOUND);
   }
 
+  public CompletableFuture<MMUser> getUserByUsernameAsync(String username) {
+    if (!StringUtils.hasText(username)) {
+      throw new IllegalStateException("Mattermost user name required");
+    }
+    LOG.debug("Retrieving user with username '{}' asynchronously", username);
+    String apiCall = "/users/username/{username}";
+    Map<String, String> uriVariables = createUriVariables("username", username);
+    return makeReadApiCallAsync(apiCall, HttpMethod.GET, RESPONSE_TYPE_USER, uriVariables, HttpStatus.NOT_FOUND);
+  }
+
   public List<MMUser> getUsersByUsernames(Collection<String> usernames) {
     if (usernames == null) {
       throw new IllegalStateException("List of Mattermost usernames required");
@@ -106,6 +150,21 @@ public class MattermostClient extends AbstractRestClient {
     return makeReadListApiCall(apiCall, HttpMethod.POST, entity, RESPONSE_TYPE_USERS, uriVariables);
   }
 
+  public CompletableFuture<List<MMUser>> getUsersByUsernamesAsync(Collection<String> usernames) {
+    if (usernames == null) {
+      throw new IllegalStateException("List of Mattermost usernames required");
+    }
+    if (usernames.isEmpty()) {
+      return CompletableFuture.completedFuture(Collections.emptyList());
+    }
+    LOG.debug("Retrieving users with usernames {} asynchronously", usernames);
+    String apiCall = "/users/usernames";
+    HttpEntity<String> entity = new HttpEntity<String>(new JSONArray(usernames).toString(),
+        authenticationEntity.getHeaders());
+    Map<String, String> uriVariables = createUriVariables();
+    return makeReadListApiCallAsync(apiCall, HttpMethod.POST, entity, MMUser.class, uriVariables);
+  }
+
   public MMTeam getTeamByName(String teamName) {
     if (!StringUtils.hasText(teamName)) {
       throw new IllegalStateException("Mattermost team name required");
@@ -120,6 +179,21 @@ public class MattermostClient extends AbstractRestClient {
     return team;
   }
 
+  public CompletableFuture<MMTeam> getTeamByNameAsync(String teamName) {
+    if (!StringUtils.hasText(teamName)) {
+      throw new IllegalStateException("Mattermost team name required");
+    }
+    LOG.debug("Retrieving team '{}' asynchronously", teamName);
+    String apiCall = "/teams/name/{teamName}";
+    Map<String, String> uriVariables = createUriVariables("teamName", teamName);
+    return makeReadApiCallAsync(apiCall, HttpMethod.GET, RESPONSE_TYPE_TEAM, uriVariables).thenApply(team -> {
+      if (team != null) {
+        team.setUrl(getServerUrl() + "/" + teamName);
+      }
+      return team;
+    });
+  }
+
   public boolean addMemberToTeam(MMTeam team, MMUser user) {
     if (team == null || !StringUtils.hasText(team.getId())) {
       throw new IllegalStateException("Mattermost team with valid ID required");
@@ -159,6 +233,16 @@ public class MattermostClient extends AbstractRestClient {
     return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_MEMBERS, uriVariables);
   }
 
+  public CompletableFuture<List<MMMember>> getTeamMembersAsync(MMTeam team) {
+    if (team == null || !StringUtils.hasText(team.getId())) {
+      throw new IllegalStateException("Mattermost team with valid ID required");
+    }
+    LOG.debug("Retrieving members for team '{}' asynchronously", team.getName());
+    String apiCall = "/teams/{teamId}/members";
+    Map<String, String> uriVariables = createUriVariables("teamId", team.getId());
+    return makeReadListApiCallAsync(apiCall, HttpMethod.GET, MMMember.class, uriVariables);
+  }
+
   public MMChannel createChannel(MMTeam team, String name, String displayName, String purpose, String header,
       boolean isPrivate) {
     if (team == null || !StringUtils.hasText(team.getId())) {
@@ -191,6 +275,20 @@ public class MattermostClient extends AbstractRestClient {
     return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_TEAM_CHANNEL, uriVariables, HttpStatus.NOT_FOUND);
   }
 
+  public CompletableFuture<MMChannel> getChannelByNameAsync(MMTeam team, String name) {
+    if (team == null || !StringUtils.hasText(team.getId())) {
+      throw new IllegalStateException("Mattermost team with valid ID required");
+    }
+    if (!StringUtils.hasText(name)) {
+      throw new IllegalStateException("Mattermost team name required");
+    }
+    LOG.debug("Retrieving channel '{}' for team '{}' asynchronously", name, team.getName());
+    String apiCall = "/teams/{teamId}/channels/name/{name}?include_deleted=true";
+    Map<String, String> uriVariables = createUriVariables("teamId", team.getId(), "name", name);
+    return makeReadApiCallAsync(apiCall, HttpMethod.GET, RESPONSE_TYPE_TEAM_CHANNEL, uriVariables,
+        HttpStatus.NOT_FOUND);
+  }
+
   public List<MMChannel> getChannelsByIds(MMTeam team, List<String> channelIds) {
     if (team == null || !StringUtils.hasText(team.getId())) {
       throw new IllegalStateException("Mattermost team with valid ID required");
@@ -297,61 +395,66 @@ public class MattermostClient extends AbstractRestClient {
     return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_MEMBERS, uriVariables);
   }
 
+  public CompletableFuture<List<MMMember>> getChannelMembersAsync(MMChannel channel) {
+    if (channel == null || !StringUtils.hasText(channel.getId())) {
+      throw new IllegalStateException("Mattermost team channel valid ID required");
+    }
+    LOG.debug("Retrieving members for channel '{}' asynchronously", channel.getName());
+    String apiCall = "/channels/{channelId}/members";
+    Map<String, String> uriVariables = createUriVariables("channelId", channel.getId());
+    return makeReadListApiCallAsync(apiCall, HttpMethod.GET, MMMember.class, uriVariables);
+  }
+
   @Override
-  protected <T> List<T> makeReadListApiCall(String apiCall, HttpMethod method,
-      ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
+  protected <T> boolean makeReadListApiCall(String apiCall, HttpMethod method, HttpEntity<String> entity,
+      JavaType type, Map<String, String> uriVariables, Consumer<T> consumer, HttpStatus... ignoreStatus) {
     int page = 0;
     String url = getApiUrl(apiCall + (apiCall.contains("?") ? "&" : "?") + "page={page}&per_page={perPage}");
     uriVariables.put("page", Integer.toString(page));
     uriVariables.put("perPage", perPageAsString());
+    ApiCallMetrics.Sample sample = apiCallMetrics.startList(apiCall, method);
+    long deadline = getListDeadline();
     try {
-      List<T> entities;
-      ResponseEntity<List<T>> response = restTemplate.exchange(url, method, authenticationEntity, typeReference,
-          uriVariables);
-      if (response.getBody().size() < config.getPerPage()) {
-        entities = response.getBody();
-      } else {
-        entities = new ArrayList<>(response.getBody());
-        do {
-          page++;
-          uriVariables.put("page", Integer.toString(page));
-          response = restTemplate.exchange(url, method, authenticationEntity, typeReference, uriVariables);
-          entities.addAll(response.getBody());
-        } while (response.getBody().size() == config.getPerPage());
-        return entities;
+      int[] pageSize = new int[1];
+      Consumer<T> countingConsumer = sample.counting(element -> {
+        pageSize[0]++;
+        consumer.accept(element);
+      });
+      readPage(expandUri(url, uriVariables), method, entity, type, countingConsumer);
+      sample.page();
+      while (pageSize[0] == config.getPerPage()) {
+        checkListDeadline(deadline, apiCall, sample);
+        page++;
+        pageSize[0] = 0;
+        uriVariables.put("page", Integer.toString(page));
+        readPage(expandUri(url, uriVariables), method, entity, type, countingConsumer);
+        sample.page();
       }
-      return entities;
+      sample.stop(null);
+      return true;
     } catch (RestClientException e) {
+      sample.stop(e);
       logException(method, uriVariables, url, e, ignoreStatus);
     }
-    return null;
+    return false;
   }
 
-  protected <T> List<T> makeReadListApiCall(String apiCall, HttpMethod method, HttpEntity<String> entity,
-      ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
-    int page = 0;
+  /**
+   * Non-blocking variant of the paged list retrieval. The pages are requested
+   * one after another until a page is not completely filled.
+   */
+  @Override
+  protected <T> CompletableFuture<List<T>> makeReadListApiCallAsync(String apiCall, HttpMethod method,
+      HttpEntity<String> entity, Class<T> type, Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
     String url = getApiUrl(apiCall + (apiCall.contains("?") ? "&" : "?") + "page={page}&per_page={perPage}");
-    uriVariables.put("page", Integer.toString(page));
     uriVariables.put("perPage", perPageAsString());
-    try {
-      List<T> entities;
-      ResponseEntity<List<T>> response = restTemplate.exchange(url, method, entity, typeReference, uriVariables);
-      if (response.getBody().size() < config.getPerPage()) {
-        entities = response.getBody();
-      } else {
-        entities = new ArrayList<>(response.getBody());
-        do {
-          page++;
-          uriVariables.put("page", Integer.toString(page));
-          response = restTemplate.exchange(url, method, authenticationEntity, typeReference, uriVariables);
-          entities.addAll(response.getBody());
-        } while (response.getBody().size() == config.getPerPage());
-        return entities;
-      }
-      return entities;
-    } catch (RestClientException e) {
-      logException(method, uriVariables, url, e, ignoreStatus);
-    }
-    return null;
+    ApiCallMetrics.Sample sample = apiCallMetrics.startList(apiCall, method);
+    return toFuture(sample, () -> withListDeadline(Flux.range(0, Integer.MAX_VALUE).concatMap(page -> {
+      Map<String, String> pageUriVariables = new HashMap<>(uriVariables);
+      pageUriVariables.put("page", Integer.toString(page));
+      return this.<T>readPageAsync(expandUri(url, pageUriVariables), method, entity, type);
+    }).map(ResponseEntity::getBody).doOnNext(entities -> sample.page(entities.size()))
+        .takeUntil(entities -> entities.size() != config.getPerPage()).flatMapIterable(entities -> entities)
+        .collectList(), apiCall, sample), method, uriVariables, url, ignoreStatus);
   }
 }
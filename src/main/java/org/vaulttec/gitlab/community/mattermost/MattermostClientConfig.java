@@ -29,11 +29,11 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 import org.springframework.util.StringUtils;
-import org.vaulttec.http.client.RestClientConfig;
+import org.vaulttec.http.client.AbstractRestClientConfig;
 
 @Configuration
 @ConfigurationProperties(prefix = "mattermost")
-public class MattermostClientConfig implements RestClientConfig {
+public class MattermostClientConfig extends AbstractRestClientConfig {
   private final Environment env;
   @NotEmpty
   private String serverUrl;
@@ -47,6 +47,11 @@ public class MattermostClientConfig implements RestClientConfig {
     this.env = env;
   }
 
+  @Override
+  public String getName() {
+    return "mattermost";
+  }
+
   @Override
   public String getServerUrl() {
     return serverUrl;
@@ -18,7 +18,6 @@
 package org.vaulttec.gitlab.community.mattermost;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -53,9 +52,8 @@ public class MattermostRepository {
   private Map<String, MMUser> retrieveUsers() {
     LOG.debug("Retrieving all users");
     Map<String, MMUser> allUsers = new HashMap<String, MMUser>();
-    List<MMUser> users = mattermostClient.getUsers();
-    if (users != null) {
-      users.forEach(user -> allUsers.put(user.getId(), user));
+    if (!mattermostClient.getUsers(user -> allUsers.put(user.getId(), user))) {
+      allUsers.clear();
     }
     return allUsers;
   }
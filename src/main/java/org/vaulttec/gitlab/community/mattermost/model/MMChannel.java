@@ -17,29 +17,28 @@
  */
 package org.vaulttec.gitlab.community.mattermost.model;
 
+import java.io.IOException;
 import java.util.Date;
 
+import org.vaulttec.http.client.StreamingDeserializer;
+
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
+@JsonDeserialize(using = MMChannel.Deserializer.class)
 public class MMChannel {
   private String id;
   private String name;
-  @JsonProperty("display_name")
   private String displayName;
   private String purpose;
   private String header;
-  @JsonProperty("type")
   boolean isPrivate;
-  @JsonProperty("total_msg_count")
   int messageCount;
-  @JsonProperty("create_at")
   private Date createAt;
-  @JsonProperty("delete_at")
   private Date deleteAt;
-  @JsonProperty("last_post_at")
   private Date lastPostAt;
 
   public String getId() {
@@ -86,7 +85,6 @@ public class MMChannel {
     return isPrivate;
   }
 
-  @JsonSetter("type")
   public void setPrivate(String type) {
     this.isPrivate = "P".equals(type);
   }
@@ -163,4 +161,56 @@ public class MMChannel {
         + ", header=" + header + ", isPrivate=" + isPrivate + ", messageCount=" + messageCount + ", createAt="
         + createAt + ", deleteAt=" + deleteAt + ", lastPostAt=" + lastPostAt + "]";
   }
+
+  static class Deserializer extends StreamingDeserializer<MMChannel> {
+    private static final long serialVersionUID = 1L;
+
+    Deserializer() {
+      super(MMChannel.class);
+    }
+
+    @Override
+    protected MMChannel createEntity() {
+      return new MMChannel();
+    }
+
+    @Override
+    protected boolean readField(JsonParser parser, DeserializationContext context, MMChannel channel, String field)
+        throws IOException {
+      switch (field) {
+      case "id":
+        channel.id = readText(parser);
+        return true;
+      case "name":
+        channel.name = readText(parser);
+        return true;
+      case "display_name":
+        channel.displayName = readText(parser);
+        return true;
+      case "purpose":
+        channel.purpose = readText(parser);
+        return true;
+      case "header":
+        channel.header = readText(parser);
+        return true;
+      case "type":
+        channel.setPrivate(readText(parser));
+        return true;
+      case "total_msg_count":
+        channel.messageCount = parser.getValueAsInt();
+        return true;
+      case "create_at":
+        channel.createAt = readDate(parser, context);
+        return true;
+      case "delete_at":
+        channel.deleteAt = readDate(parser, context);
+        return true;
+      case "last_post_at":
+        channel.lastPostAt = readDate(parser, context);
+        return true;
+      default:
+        return false;
+      }
+    }
+  }
 }
@@ -17,13 +17,19 @@
  */
 package org.vaulttec.gitlab.community.mattermost.model;
 
-import com.fasterxml.jackson.annotation.JsonAlias;
+import java.io.IOException;
+
+import org.vaulttec.http.client.StreamingDeserializer;
+
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
+@JsonDeserialize(using = MMMember.Deserializer.class)
 public class MMMember {
 
-  @JsonAlias("user_id")
   private String userId;
 
   public String getUserId() {
@@ -68,4 +74,30 @@ public class MMMember {
   public String toString() {
     return "MMChannelMember [userId=" + userId + "]";
   }
+
+  static class Deserializer extends StreamingDeserializer<MMMember> {
+    private static final long serialVersionUID = 1L;
+
+    Deserializer() {
+      super(MMMember.class);
+    }
+
+    @Override
+    protected MMMember createEntity() {
+      return new MMMember();
+    }
+
+    @Override
+    protected boolean readField(JsonParser parser, DeserializationContext context, MMMember member, String field)
+        throws IOException {
+      switch (field) {
+      case "userId":
+      case "user_id":
+        member.userId = readText(parser);
+        return true;
+      default:
+        return false;
+      }
+    }
+  }
 }
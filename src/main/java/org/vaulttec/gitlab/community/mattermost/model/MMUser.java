@@ -17,9 +17,17 @@
  */
 package org.vaulttec.gitlab.community.mattermost.model;
 
+import java.io.IOException;
+
+import org.vaulttec.http.client.StreamingDeserializer;
+
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
+@JsonDeserialize(using = MMUser.Deserializer.class)
 public class MMUser {
   private String id;
   private String username;
@@ -74,4 +82,32 @@ public class MMUser {
   public String toString() {
     return "MMUser [id=" + id + ", username=" + username + "]";
   }
+
+  static class Deserializer extends StreamingDeserializer<MMUser> {
+    private static final long serialVersionUID = 1L;
+
+    Deserializer() {
+      super(MMUser.class);
+    }
+
+    @Override
+    protected MMUser createEntity() {
+      return new MMUser();
+    }
+
+    @Override
+    protected boolean readField(JsonParser parser, DeserializationContext context, MMUser user, String field)
+        throws IOException {
+      switch (field) {
+      case "id":
+        user.id = readText(parser);
+        return true;
+      case "username":
+        user.username = readText(parser);
+        return true;
+      default:
+        return false;
+      }
+    }
+  }
 }
@@ -0,0 +1,382 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.web;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.vaulttec.gitlab.community.CommunityConfig;
+import org.vaulttec.gitlab.community.gitlab.GitLabClient;
+
+/**
+ * Caches resized avatar images ("avatar-size" pixels) on disk. The cache is
+ * limited to "avatar-cache-size" bytes, the least recently served thumbnails
+ * are deleted first. Thumbnails are fetched again after "avatar-max-age".
+ * <p>
+ * Only avatars registered via {@link #getUrl(URL)} are proxied, at most
+ * "avatar-max-count" of them (the least recently registered ones are dropped).
+ * The returned URL contains a hash of the thumbnail so a changed avatar gets a
+ * new URL and thumbnails can be cached by the browsers forever.
+ * <p>
+ * The images are fetched in the background with GitLab's HTTP client and
+ * images larger than "avatar-max-image-size" are skipped. Until a thumbnail is
+ * available the original avatar is served.
+ */
+@Service
+public class AvatarCache {
+  public static final String PATH = "/avatars";
+
+  private static final Logger LOG = LoggerFactory.getLogger(AvatarCache.class);
+  private static final String FILE_EXTENSION = ".png";
+  private static final String NO_VERSION = "0";
+  private static final int FETCH_CONCURRENCY = 2;
+
+  private final int size;
+  private final int maxImageSize;
+  private final long maxCacheSize;
+  private final long maxAgeMillis;
+  private final int maxAvatars;
+  private final Path directory;
+  private final BiFunction<URL, Integer, byte[]> fetcher;
+  private final Executor fetchExecutor;
+  // Avatars by key in the order of their last registration (guards the thumbnails as well)
+  private final LinkedHashMap<String, Avatar> avatars = new LinkedHashMap<>();
+  // Thumbnail file sizes by key in the order of their last access
+  private final LinkedHashMap<String, Long> thumbnails = new LinkedHashMap<>(16, 0.75f, true);
+  private long cacheSize;
+
+  @Autowired
+  AvatarCache(CommunityConfig config, GitLabClient gitLabClient) throws IOException {
+    this(config, gitLabClient::getAvatar, createFetchExecutor());
+  }
+
+  AvatarCache(CommunityConfig config, BiFunction<URL, Integer, byte[]> fetcher, Executor fetchExecutor)
+      throws IOException {
+    LOG.debug("Initializing AvatarCache");
+    this.size = config.getAvatarSize();
+    this.maxImageSize = (int) Math.min(config.getAvatarMaxImageSize().toBytes(), Integer.MAX_VALUE - 1);
+    this.maxCacheSize = config.getAvatarCacheSize().toBytes();
+    this.maxAgeMillis = config.getAvatarMaxAge().toMillis();
+    this.maxAvatars = config.getAvatarMaxCount();
+    this.directory = Paths.get(StringUtils.hasText(config.getAvatarCacheDir()) ? config.getAvatarCacheDir()
+        : System.getProperty("java.io.tmpdir") + "/gitlab-community-avatars");
+    this.fetcher = fetcher;
+    this.fetchExecutor = fetchExecutor;
+    Files.createDirectories(directory);
+    loadThumbnails();
+  }
+
+  private static ExecutorService createFetchExecutor() {
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("avatar-fetch-");
+    threadFactory.setDaemon(true);
+    return Executors.newFixedThreadPool(FETCH_CONCURRENCY, threadFactory);
+  }
+
+  @PreDestroy
+  public void close() {
+    if (fetchExecutor instanceof ExecutorService) {
+      ((ExecutorService) fetchExecutor).shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the proxy URL (relative to the context path) for the given avatar. A
+   * missing or outdated thumbnail is fetched in the background.
+   */
+  public String getUrl(URL source) {
+    if (source == null) {
+      return null;
+    }
+    String key = getKey(source.toString());
+    Avatar avatar;
+    synchronized (avatars) {
+      avatar = avatars.remove(key);
+      if (avatar == null) {
+        avatar = new Avatar(source);
+      }
+      avatars.put(key, avatar);
+      dropAvatars();
+    }
+    if (avatar.source == null) {
+      avatar.source = source;
+    }
+    scheduleFetch(key, avatar);
+    String version = avatar.version;
+    return PATH + "/" + key + "/" + (version != null ? version : NO_VERSION);
+  }
+
+  /**
+   * Returns the thumbnail file for the given key or <code>null</code> if the
+   * avatar is unknown or not fetched (yet). An outdated thumbnail is returned
+   * while it's fetched again in the background.
+   */
+  public Path getThumbnail(String key) {
+    Avatar avatar;
+    synchronized (avatars) {
+      avatar = avatars.get(key);
+      if (avatar != null) {
+        thumbnails.get(key);
+      }
+    }
+    if (avatar == null || avatar.source == null) {
+      return null;
+    }
+    scheduleFetch(key, avatar);
+    String version = avatar.version;
+    return version != null ? getFile(key, version) : null;
+  }
+
+  /** Returns the version of the given avatar's thumbnail or <code>null</code> if not cached */
+  public String getVersion(String key) {
+    synchronized (avatars) {
+      Avatar avatar = avatars.get(key);
+      return avatar != null ? avatar.version : null;
+    }
+  }
+
+  /** Returns the original URL of the given avatar or <code>null</code> if unknown */
+  public URL getSource(String key) {
+    synchronized (avatars) {
+      Avatar avatar = avatars.get(key);
+      return avatar != null ? avatar.source : null;
+    }
+  }
+
+  /**
+   * Fetches the thumbnail of the given avatar in the background if it's older
+   * than the max age (failed fetches are retried after the max age as well).
+   * Only one fetch per avatar is scheduled at a time.
+   */
+  private void scheduleFetch(String key, Avatar avatar) {
+    if (avatar.source != null && System.currentTimeMillis() - avatar.fetchedAt > maxAgeMillis
+        && avatar.fetching.compareAndSet(false, true)) {
+      try {
+        fetchExecutor.execute(() -> {
+          try {
+            fetchThumbnail(key, avatar);
+          } finally {
+            avatar.fetching.set(false);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        avatar.fetching.set(false);
+      }
+    }
+  }
+
+  private void fetchThumbnail(String key, Avatar avatar) {
+    LOG.debug("Fetching avatar {}", avatar.source);
+    avatar.fetchedAt = System.currentTimeMillis();
+    byte[] image = fetcher.apply(avatar.source, maxImageSize);
+    if (image == null) {
+      return;
+    }
+    try {
+      byte[] thumbnail = resize(image);
+      if (thumbnail == null) {
+        LOG.warn("Avatar {} is not a supported image", avatar.source);
+        return;
+      }
+      String version = getKey(thumbnail);
+      if (!version.equals(avatar.version)) {
+        Path file = getFile(key, version);
+        Files.write(file, thumbnail);
+        String previousVersion;
+        synchronized (avatars) {
+          if (avatars.get(key) != avatar) {
+            // Dropped while being fetched
+            Files.deleteIfExists(file);
+            return;
+          }
+          previousVersion = avatar.version;
+          avatar.version = version;
+          addThumbnail(key, thumbnail.length);
+        }
+        if (previousVersion != null) {
+          Files.deleteIfExists(getFile(key, previousVersion));
+        }
+      } else {
+        // Keeps the fetch time for a restart
+        Files.setLastModifiedTime(getFile(key, version), FileTime.fromMillis(avatar.fetchedAt));
+      }
+    } catch (IOException e) {
+      LOG.warn("Storing avatar {} failed: {}", avatar.source, e.getMessage());
+    }
+  }
+
+  /** Scales the given image to fit into a square of "avatar-size" pixels */
+  private byte[] resize(byte[] image) throws IOException {
+    BufferedImage source = ImageIO.read(new ByteArrayInputStream(image));
+    if (source == null) {
+      return null;
+    }
+    double scale = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+    int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+    int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+    BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D graphics = target.createGraphics();
+    try {
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+      graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      graphics.drawImage(source, 0, 0, width, height, null);
+    } finally {
+      graphics.dispose();
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(target, "png", out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Adds the given thumbnail to the cache and deletes the least recently used
+   * thumbnails which exceed the cache size. Must be called while holding the
+   * lock of {@link #avatars}.
+   */
+  private void addThumbnail(String key, long fileSize) {
+    Long previousSize = thumbnails.put(key, fileSize);
+    cacheSize += fileSize - (previousSize != null ? previousSize : 0);
+    Iterator<Map.Entry<String, Long>> iterator = thumbnails.entrySet().iterator();
+    while (cacheSize > maxCacheSize && thumbnails.size() > 1) {
+      Map.Entry<String, Long> eldest = iterator.next();
+      if (!eldest.getKey().equals(key)) {
+        deleteThumbnail(eldest.getKey(), avatars.get(eldest.getKey()));
+        cacheSize -= eldest.getValue();
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Drops the least recently registered avatars (and their thumbnails) beyond
+   * "avatar-max-count". Must be called while holding the lock of
+   * {@link #avatars}.
+   */
+  private void dropAvatars() {
+    Iterator<Map.Entry<String, Avatar>> iterator = avatars.entrySet().iterator();
+    while (avatars.size() > maxAvatars) {
+      Map.Entry<String, Avatar> eldest = iterator.next();
+      deleteThumbnail(eldest.getKey(), eldest.getValue());
+      Long fileSize = thumbnails.remove(eldest.getKey());
+      if (fileSize != null) {
+        cacheSize -= fileSize;
+      }
+      iterator.remove();
+    }
+  }
+
+  private void deleteThumbnail(String key, Avatar avatar) {
+    if (avatar != null && avatar.version != null) {
+      LOG.debug("Evicting avatar {}", avatar.source);
+      try {
+        Files.deleteIfExists(getFile(key, avatar.version));
+      } catch (IOException e) {
+        LOG.warn("Deleting avatar thumbnail {} failed: {}", key, e.getMessage());
+      }
+      avatar.version = null;
+      avatar.fetchedAt = 0;
+    }
+  }
+
+  /**
+   * Registers the thumbnails stored in the cache directory by a previous run.
+   * Their source URLs are set when the avatars are requested again.
+   */
+  private void loadThumbnails() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      files.filter(file -> file.getFileName().toString().endsWith(FILE_EXTENSION)).sorted((file1, file2) -> Long
+          .compare(file1.toFile().lastModified(), file2.toFile().lastModified())).forEach(file -> {
+            String name = file.getFileName().toString();
+            int separator = name.indexOf('-');
+            if (separator > 0) {
+              Avatar avatar = new Avatar(null);
+              avatar.version = name.substring(separator + 1, name.length() - FILE_EXTENSION.length());
+              avatar.fetchedAt = file.toFile().lastModified();
+              synchronized (avatars) {
+                avatars.put(name.substring(0, separator), avatar);
+                addThumbnail(name.substring(0, separator), file.toFile().length());
+                dropAvatars();
+              }
+            }
+          });
+    }
+    LOG.info("Found {} cached avatars ({} bytes) in '{}'", thumbnails.size(), cacheSize, directory);
+  }
+
+  private Path getFile(String key, String version) {
+    return directory.resolve(key + "-" + version + FILE_EXTENSION);
+  }
+
+  private static String getKey(String text) {
+    return getKey(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String getKey(byte[] bytes) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+      StringBuilder key = new StringBuilder();
+      for (int i = 0; i < 16; i++) {
+        key.append(String.format("%02x", digest[i]));
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class Avatar {
+    private final AtomicBoolean fetching = new AtomicBoolean();
+    private volatile URL source;
+    private volatile String version;
+    private volatile long fetchedAt;
+
+    private Avatar(URL source) {
+      this.source = source;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.web;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+/**
+ * Serves the avatar thumbnails cached by {@link AvatarCache}. The URLs are
+ * versioned with the thumbnail's hash so the responses are cached by the
+ * browsers forever.
+ */
+@RestController
+public class AvatarController {
+  private static final Logger LOG = LoggerFactory.getLogger(AvatarController.class);
+  // Spring's CacheControl doesn't support the "immutable" directive
+  private static final String IMMUTABLE = CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().getHeaderValue()
+      + ", immutable";
+
+  @Autowired
+  private AvatarCache avatarCache;
+
+  @GetMapping(AvatarCache.PATH + "/{key}/{version}")
+  public ResponseEntity<byte[]> getAvatar(@PathVariable("key") String key, @PathVariable("version") String version)
+      throws URISyntaxException {
+    URL source = avatarCache.getSource(key);
+    if (source == null) {
+      return ResponseEntity.notFound().build();
+    }
+    Path thumbnail = avatarCache.getThumbnail(key);
+    if (thumbnail != null) {
+      String currentVersion = avatarCache.getVersion(key);
+      if (!version.equals(currentVersion)) {
+        // Never bind an outdated URL to the current thumbnail
+        return ResponseEntity.status(HttpStatus.FOUND).cacheControl(CacheControl.noCache())
+            .location(ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path(AvatarCache.PATH + "/" + key + "/" + currentVersion).build().toUri())
+            .build();
+      }
+      try {
+        return ResponseEntity.ok().header(HttpHeaders.CACHE_CONTROL, IMMUTABLE).contentType(MediaType.IMAGE_PNG)
+            .body(Files.readAllBytes(thumbnail));
+      } catch (IOException e) {
+        LOG.warn("Reading avatar thumbnail {} failed: {}", thumbnail, e.getMessage());
+      }
+    }
+    return ResponseEntity.status(HttpStatus.FOUND).cacheControl(CacheControl.noCache()).location(source.toURI())
+        .build();
+  }
+}
@@ -57,6 +57,8 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
   @Override
   public void configure(WebSecurity web) {
     web.ignoring().antMatchers("/actuator/**").antMatchers("/webjars/**").antMatchers("/css/**").antMatchers("/img/**");
+    // GitLab webhooks are authenticated with their secret token by the controller
+    web.ignoring().antMatchers(WebhookController.PATH);
   }
 
   @Override
@@ -0,0 +1,65 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.web;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.vaulttec.gitlab.community.CommunityConfig;
+import org.vaulttec.gitlab.community.CommunityWebhookHandler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Receives the events of GitLab group and system hooks. The requests are
+ * authenticated with the secret token (config property
+ * "community.webhook-token") sent by GitLab in the "X-Gitlab-Token" header.
+ */
+@RestController
+public class WebhookController {
+  public static final String PATH = "/webhooks/gitlab";
+  public static final String TOKEN_HEADER = "X-Gitlab-Token";
+
+  @Autowired
+  private CommunityConfig communityConfig;
+  @Autowired
+  private CommunityWebhookHandler webhookHandler;
+
+  @PostMapping(PATH)
+  public ResponseEntity<Void> receiveEvent(@RequestHeader(name = TOKEN_HEADER, required = false) String token,
+      @RequestBody JsonNode event) {
+    String webhookToken = communityConfig.getWebhookToken();
+    if (!StringUtils.hasText(webhookToken)) {
+      return ResponseEntity.notFound().build();
+    }
+    if (token == null || !MessageDigest.isEqual(webhookToken.getBytes(StandardCharsets.UTF_8),
+        token.getBytes(StandardCharsets.UTF_8))) {
+      return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+    }
+    webhookHandler.submit(event);
+    return ResponseEntity.accepted().build();
+  }
+}
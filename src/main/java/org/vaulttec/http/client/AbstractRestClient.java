@@ -17,14 +17,53 @@
  */
 package org.vaulttec.http.client;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import javax.annotation.PreDestroy;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -32,38 +71,296 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.OkHttp3ClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.ResponseErrorHandler;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.tcp.ProxyProvider;
 
 public abstract class AbstractRestClient {
 
   private static final Logger LOG = LoggerFactory.getLogger(AbstractRestClient.class);
+  private static final int WARM_UP_TIMEOUT = 5000;
+  private static final ResponseErrorHandler RESOURCE_ERROR_HANDLER = new DefaultResponseErrorHandler();
 
   protected final RestClientConfig config;
   protected final RestTemplate restTemplate;
   protected HttpEntity<String> authenticationEntity;
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final ClientHttpRequestFactory requestFactory;
+  protected final ObjectMapper objectMapper;
+  private final ConditionalRequestCache responseCache;
+  protected final WebClient webClient;
+  private final ConnectionProvider webConnectionProvider;
+  private final RateLimitThrottler throttler;
+  private final CircuitBreaker circuitBreaker;
+  private final ConcurrentMap<List<Object>, CompletableFuture<Object>> inFlightReads = new ConcurrentHashMap<>();
+  private final Counter coalescedReads;
+  protected final ApiCallMetrics apiCallMetrics;
 
-  public AbstractRestClient(RestClientConfig config, RestTemplateBuilder restTemplateBuilder) {
+  public AbstractRestClient(RestClientConfig config, RestTemplateBuilder restTemplateBuilder,
+      WebClient.Builder webClientBuilder, MeterRegistry meterRegistry) {
     this.config = config;
-    this.restTemplate = createRestTemplate(restTemplateBuilder, config.getProxy());
+    if (config.getHttpVersion() == HttpVersion.HTTP_2) {
+      this.connectionManager = null;
+      this.requestFactory = new OkHttp3ClientHttpRequestFactory(createOkHttpClient(config.getProxy(), meterRegistry));
+    } else {
+      this.connectionManager = createConnectionManager();
+      this.requestFactory = new HttpComponentsClientHttpRequestFactory(
+          createHttpClient(connectionManager, config.getProxy(), meterRegistry));
+    }
+    this.circuitBreaker = config.isCircuitBreakerEnabled()
+        ? new CircuitBreaker(config.getName(), config.getCircuitBreakerFailureRateThreshold(),
+            config.getCircuitBreakerSlidingWindowSize(), config.getCircuitBreakerWaitDuration(), meterRegistry)
+        : null;
+    this.throttler = config.isRateLimitEnabled() ? new RateLimitThrottler(config.getName(),
+        config.getRateLimitMaxRetries(), config.getRateLimitMaxDelay(), config.getRateLimitMaxInteractiveWait(),
+        meterRegistry) : null;
+    this.restTemplate = createRestTemplate(restTemplateBuilder, requestFactory);
+    this.webConnectionProvider = ConnectionProvider.fixed(config.getName(), config.getMaxConnections());
+    this.webClient = createWebClient(webClientBuilder, webConnectionProvider, config.getProxy());
+    this.objectMapper = getObjectMapper(restTemplate);
+    this.responseCache = config.isCacheEnabled()
+        ? new ConditionalRequestCache(config.getCacheSize(), meterRegistry, config.getName())
+        : null;
+    this.coalescedReads = Counter.builder("http.client.requests.coalesced").tag("client", config.getName())
+        .description("GET requests which shared the response of an identical in-flight request")
+        .register(meterRegistry);
+    this.apiCallMetrics = new ApiCallMetrics(config.getName(), meterRegistry);
+    if (connectionManager != null) {
+      new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, config.getName()).bindTo(meterRegistry);
+    }
+  }
+
+  /** Returns the circuit breaker or <code>null</code> if disabled */
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
   }
 
   protected String getServerUrl() {
     return config.getServerUrl();
   }
 
-  private RestTemplate createRestTemplate(RestTemplateBuilder restTemplateBuilder, Proxy proxy) {
-    RestTemplate restTemplate = restTemplateBuilder.build();
+  private PoolingHttpClientConnectionManager createConnectionManager() {
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+        RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", PlainConnectionSocketFactory.getSocketFactory())
+            .register("https", SSLConnectionSocketFactory.getSystemSocketFactory()).build());
+    connectionManager.setMaxTotal(config.getMaxConnections());
+    connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+    return connectionManager;
+  }
+
+  private CloseableHttpClient createHttpClient(PoolingHttpClientConnectionManager connectionManager, Proxy proxy,
+      MeterRegistry meterRegistry) {
+    long idleTimeout = config.getIdleConnectionTimeout().toMillis();
+    int connectTimeout = (int) config.getConnectTimeout().toMillis();
+    HttpClientBuilder builder = HttpClients.custom().setConnectionManager(connectionManager)
+        .setKeepAliveStrategy((response, context) -> {
+          // Never keep a connection longer than the idle timeout (even if the server
+          // would allow it)
+          long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+          return keepAlive > 0 ? Math.min(keepAlive, idleTimeout) : idleTimeout;
+        }).evictExpiredConnections().evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+        .setDefaultRequestConfig(RequestConfig.custom().setConnectTimeout(connectTimeout)
+            .setConnectionRequestTimeout(connectTimeout)
+            .setSocketTimeout((int) config.getReadTimeout().toMillis()).build())
+        .disableContentCompression()
+        .addInterceptorLast(new MeteredResponseContentEncoding(config.getName(), meterRegistry));
+    if (config.isCompressionEnabled()) {
+      builder.addInterceptorLast(new RequestAcceptEncoding(Arrays.asList("gzip", "deflate")));
+    }
+    HttpHost proxyHost = getProxyHost(proxy);
+    if (proxyHost != null) {
+      builder.setProxy(proxyHost);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Creates an OkHttp client which multiplexes all requests to the server over a
+   * single HTTP/2 connection. Plain HTTP servers are expected to support h2c
+   * with prior knowledge.
+   */
+  private OkHttpClient createOkHttpClient(Proxy proxy, MeterRegistry meterRegistry) {
+    OkHttpClient.Builder builder = new OkHttpClient.Builder()
+        .connectionPool(new ConnectionPool(config.getMaxConnectionsPerRoute(),
+            config.getIdleConnectionTimeout().toMillis(), TimeUnit.MILLISECONDS))
+        .connectTimeout(config.getConnectTimeout()).readTimeout(config.getReadTimeout())
+        .addInterceptor(MeteredResponseBodyInterceptor.application(config.getName(), meterRegistry))
+        .addNetworkInterceptor(MeteredResponseBodyInterceptor.network(config.getName(), meterRegistry));
+    if (getServerUrl() != null && getServerUrl().startsWith("http:")) {
+      builder.protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+    } else {
+      builder.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+    }
+    if (!config.isCompressionEnabled()) {
+      // Prevents OkHttp's transparent gzip compression
+      builder.addInterceptor(chain -> chain.proceed(chain.request().header(HttpHeaders.ACCEPT_ENCODING) != null
+          ? chain.request()
+          : chain.request().newBuilder().header(HttpHeaders.ACCEPT_ENCODING, "identity").build()));
+    }
     if (proxy != null) {
-      SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
-      requestFactory.setProxy(proxy);
-      restTemplate.setRequestFactory(requestFactory);
+      builder.proxy(proxy);
+    }
+    return builder.build();
+  }
+
+  private HttpHost getProxyHost(Proxy proxy) {
+    if (proxy != null && proxy.address() instanceof InetSocketAddress) {
+      InetSocketAddress address = (InetSocketAddress) proxy.address();
+      return new HttpHost(address.getHostString(), address.getPort());
+    }
+    return null;
+  }
+
+  private RestTemplate createRestTemplate(RestTemplateBuilder restTemplateBuilder,
+      ClientHttpRequestFactory requestFactory) {
+    RestTemplate restTemplate = restTemplateBuilder.requestFactory(() -> requestFactory).build();
+    if (circuitBreaker != null) {
+      restTemplate.getInterceptors().add(circuitBreaker);
+    }
+    if (throttler != null) {
+      // Added as last interceptor to throttle (and retry) the actual requests
+      restTemplate.getInterceptors().add(throttler);
     }
     return restTemplate;
   }
 
+  private WebClient createWebClient(WebClient.Builder webClientBuilder, ConnectionProvider connectionProvider,
+      Proxy proxy) {
+    long readTimeout = config.getReadTimeout().toMillis();
+    HttpClient reactorClient = HttpClient.create(connectionProvider).compress(config.isCompressionEnabled())
+        .tcpConfiguration(tcpClient -> tcpClient
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) config.getConnectTimeout().toMillis())
+            .doOnConnected(connection -> connection
+                .addHandlerLast(new ReadTimeoutHandler(readTimeout, TimeUnit.MILLISECONDS))));
+    if (proxy != null && proxy.address() instanceof InetSocketAddress) {
+      InetSocketAddress address = (InetSocketAddress) proxy.address();
+      reactorClient = reactorClient.tcpConfiguration(tcpClient -> tcpClient
+          .proxy(spec -> spec.type(ProxyProvider.Proxy.HTTP).address(address)));
+    }
+    WebClient.Builder builder = webClientBuilder.clone().clientConnector(new ReactorClientHttpConnector(reactorClient));
+    if (circuitBreaker != null) {
+      builder.filter(circuitBreaker);
+    }
+    if (throttler != null) {
+      builder.filter(throttler);
+    }
+    return builder.build();
+  }
+
+  private static ObjectMapper getObjectMapper(RestTemplate restTemplate) {
+    return restTemplate.getMessageConverters().stream()
+        .filter(converter -> converter instanceof MappingJackson2HttpMessageConverter)
+        .map(converter -> ((MappingJackson2HttpMessageConverter) converter).getObjectMapper()).findFirst()
+        .orElseGet(ObjectMapper::new);
+  }
+
+  /**
+   * Opens the configured number of connections in the background once the
+   * application is ready. So neither the startup nor the first requests are
+   * blocked by an unreachable server.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void warmUpConnections() {
+    if (connectionManager != null && config.getWarmUpConnections() > 0) {
+      CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(config.getName() + "-warm-up-");
+      threadFactory.setDaemon(true);
+      threadFactory.newThread(() -> warmUpConnections(config.getWarmUpConnections(), config.getProxy())).start();
+    }
+  }
+
+  /**
+   * Opens the given number of connections to the server and hands them over to
+   * the connection pool. Routes which require tunneling through the proxy are
+   * skipped.
+   */
+  private void warmUpConnections(int connections, Proxy proxy) {
+    if (connections <= 0 || getServerUrl() == null) {
+      return;
+    }
+    HttpRoute route;
+    try {
+      HttpHost target = URIUtils.extractHost(URI.create(getServerUrl()));
+      target = new HttpHost(target.getHostName(), DefaultSchemePortResolver.INSTANCE.resolve(target),
+          target.getSchemeName());
+      boolean secure = "https".equalsIgnoreCase(target.getSchemeName());
+      HttpHost proxyHost = getProxyHost(proxy);
+      route = proxyHost != null ? new HttpRoute(target, null, proxyHost, secure) : new HttpRoute(target, null, secure);
+    } catch (Exception e) {
+      LOG.warn("Invalid server URL '{}' - skipping connection warm-up", getServerUrl());
+      return;
+    }
+    if (route.isTunnelled()) {
+      LOG.debug("Tunneled route {} - skipping connection warm-up", route);
+      return;
+    }
+    LOG.debug("Warming up {} connection(s) for {}", connections, route);
+    List<HttpClientConnection> openedConnections = new ArrayList<>();
+    try {
+      for (int i = 0; i < Math.min(connections, config.getMaxConnectionsPerRoute()); i++) {
+        HttpClientConnection connection = connectionManager.requestConnection(route, null).get(WARM_UP_TIMEOUT,
+            TimeUnit.MILLISECONDS);
+        openedConnections.add(connection);
+        if (!connection.isOpen()) {
+          HttpClientContext context = HttpClientContext.create();
+          connectionManager.connect(connection, route, WARM_UP_TIMEOUT, context);
+          connectionManager.routeComplete(connection, route, context);
+          // Binds the socket streams - otherwise the stale connection check of the pool fails with
+          // "Input stream is null" for a connection which was never used
+          connection.flush();
+        }
+      }
+    } catch (Exception e) {
+      LOG.warn("Warming up connections for {} failed: {}", route, e.getMessage());
+    } finally {
+      openedConnections.forEach(connection -> connectionManager.releaseConnection(connection, null,
+          config.getIdleConnectionTimeout().toMillis(), TimeUnit.MILLISECONDS));
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    try {
+      ((DisposableBean) requestFactory).destroy();
+    } catch (Exception e) {
+      LOG.warn("Closing HTTP client for '{}' failed: {}", getServerUrl(), e.getMessage());
+    }
+    webConnectionProvider.dispose();
+  }
+
   protected String perPageAsString() {
     return Integer.toString(config.getPerPage());
   }
@@ -90,14 +387,24 @@ public abstract class AbstractRestClient {
     authenticationEntity = new HttpEntity<String>(headers);
   }
 
+  /**
+   * Reads a JSON object via the given API call. Concurrent identical GET
+   * requests are coalesced into a single request, so all callers receive the
+   * same (shared) entity.
+   */
   protected <T> T makeReadApiCall(String apiCall, HttpMethod method, ParameterizedTypeReference<T> typeReference,
       Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
     String url = getApiUrl(apiCall);
+    ApiCallMetrics.Sample sample = apiCallMetrics.start(apiCall, method);
     try {
-      ResponseEntity<T> response = restTemplate.exchange(url, method, authenticationEntity, typeReference,
-          uriVariables);
-      return response.getBody();
+      URI uri = expandUri(url, uriVariables);
+      JavaType type = objectMapper.constructType(typeReference.getType());
+      T result = method == HttpMethod.GET ? readEntityCoalesced(uri, type)
+          : readEntity(uri, method, authenticationEntity, type);
+      sample.stop(null);
+      return result;
     } catch (Exception e) {
+      sample.stop(e);
       logException(method, uriVariables, url, e, ignoreStatus);
     }
     return null;
@@ -105,36 +412,372 @@ public abstract class AbstractRestClient {
 
   protected <T> List<T> makeReadListApiCall(String apiCall, HttpMethod method,
       ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
+    return makeReadListApiCall(apiCall, method, authenticationEntity, typeReference, uriVariables, ignoreStatus);
+  }
+
+  protected <T> List<T> makeReadListApiCall(String apiCall, HttpMethod method, HttpEntity<String> entity,
+      ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
+    List<T> entities = new ArrayList<>();
+    JavaType elementType = objectMapper.constructType(typeReference.getType()).getContentType();
+    if (this.<T>makeReadListApiCall(apiCall, method, entity, elementType, uriVariables, entities::add, ignoreStatus)) {
+      return entities;
+    }
+    return null;
+  }
+
+  protected <T> boolean makeReadListApiCall(String apiCall, HttpMethod method, Class<T> type,
+      Map<String, String> uriVariables, Consumer<T> consumer, HttpStatus... ignoreStatus) {
+    return makeReadListApiCall(apiCall, method, authenticationEntity, objectMapper.constructType(type), uriVariables,
+        consumer, ignoreStatus);
+  }
+
+  protected <T> boolean makeReadListApiCall(String apiCall, HttpMethod method, HttpEntity<String> entity,
+      Class<T> type, Map<String, String> uriVariables, Consumer<T> consumer, HttpStatus... ignoreStatus) {
+    return makeReadListApiCall(apiCall, method, entity, objectMapper.constructType(type), uriVariables, consumer,
+        ignoreStatus);
+  }
+
+  /**
+   * Hands over all entities of the list returned by the given API call to the
+   * given consumer. Subclasses override this method to follow the paging scheme
+   * of their server.
+   *
+   * @return <code>false</code> if the API call failed
+   */
+  protected <T> boolean makeReadListApiCall(String apiCall, HttpMethod method, HttpEntity<String> entity,
+      JavaType type, Map<String, String> uriVariables, Consumer<T> consumer, HttpStatus... ignoreStatus) {
     String url = getApiUrl(apiCall);
+    ApiCallMetrics.Sample sample = apiCallMetrics.startList(apiCall, method);
     try {
-      ResponseEntity<List<T>> response = restTemplate.exchange(url, method, authenticationEntity, typeReference,
-          uriVariables);
-      return response.getBody();
+      readPage(expandUri(url, uriVariables), method, entity, type, sample.counting(consumer));
+      sample.page();
+      sample.stop(null);
+      return true;
     } catch (Exception e) {
+      sample.stop(e);
       logException(method, uriVariables, url, e, ignoreStatus);
     }
+    return false;
+  }
+
+  /**
+   * Returns the deadline (in terms of {@link System#nanoTime()}) of a list API
+   * call started now.
+   */
+  protected long getListDeadline() {
+    return System.nanoTime() + config.getListDeadline().toNanos();
+  }
+
+  /**
+   * Throws a {@link DeadlineExceededException} if the given deadline of a list
+   * API call has passed.
+   */
+  protected void checkListDeadline(long deadline, String apiCall, ApiCallMetrics.Sample sample) {
+    if (System.nanoTime() - deadline >= 0) {
+      throw new DeadlineExceededException(apiCall, config.getListDeadline(), sample.getPages());
+    }
+  }
+
+  /**
+   * Aborts the given non-blocking list API call with a
+   * {@link DeadlineExceededException} if it doesn't complete within the list
+   * deadline.
+   */
+  protected <T> Mono<T> withListDeadline(Mono<T> listCall, String apiCall, ApiCallMetrics.Sample sample) {
+    return listCall.timeout(config.getListDeadline(), Mono.defer(
+        () -> Mono.error(new DeadlineExceededException(apiCall, config.getListDeadline(), sample.getPages()))));
+  }
+
+  protected URI expandUri(String url, Map<String, String> uriVariables) {
+    return restTemplate.getUriTemplateHandler().expand(url, uriVariables);
+  }
+
+  /**
+   * Reads a JSON object via GET from the given URI. If an identical request is
+   * already in-flight then its response (or failure) is awaited instead.
+   */
+  @SuppressWarnings("unchecked")
+  protected <T> T readEntityCoalesced(URI uri, JavaType type) {
+    List<Object> key = Arrays.asList(uri, type);
+    CompletableFuture<Object> future = new CompletableFuture<>();
+    CompletableFuture<Object> inFlightFuture = inFlightReads.putIfAbsent(key, future);
+    if (inFlightFuture != null) {
+      coalescedReads.increment();
+      try {
+        return (T) inFlightFuture.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw e;
+      }
+    }
+    try {
+      T entity = readEntity(uri, HttpMethod.GET, authenticationEntity, type);
+      future.complete(entity);
+      return entity;
+    } catch (RuntimeException | Error e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlightReads.remove(key, future);
+    }
+  }
+
+  /**
+   * Reads the binary resource (e.g. an image) from the given absolute URI with
+   * the pooled HTTP client. No authentication is sent and the circuit breaker and
+   * rate limit throttling are skipped, as the resource may be hosted elsewhere.
+   * Returns <code>null</code> if the request failed or the (decompressed) response
+   * exceeds the given size.
+   */
+  protected byte[] readResource(String apiCall, URI uri, int maxSize) {
+    ApiCallMetrics.Sample sample = apiCallMetrics.start(apiCall, HttpMethod.GET);
+    try {
+      ClientHttpRequest request = requestFactory.createRequest(uri, HttpMethod.GET);
+      try (ClientHttpResponse response = request.execute()) {
+        if (RESOURCE_ERROR_HANDLER.hasError(response)) {
+          RESOURCE_ERROR_HANDLER.handleError(response);
+        }
+        if (response.getHeaders().getContentLength() > maxSize) {
+          throw new RestClientException("Resource exceeds maximum size of " + maxSize + " bytes");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long size = StreamUtils.copyRange(response.getBody(), out, 0, maxSize);
+        if (size > maxSize) {
+          throw new RestClientException("Resource exceeds maximum size of " + maxSize + " bytes");
+        }
+        sample.stop(null);
+        return out.toByteArray();
+      }
+    } catch (IOException | RestClientException e) {
+      sample.stop(e);
+      logException(HttpMethod.GET, null, uri.toString(), e, new HttpStatus[0]);
+    }
     return null;
   }
 
+  /**
+   * Reads a JSON object from the given URI. For GET requests a previously
+   * cached response is reused if the server reports it as not modified. The
+   * cached response content is decoded again, so each caller receives its own
+   * entity.
+   */
+  protected <T> T readEntity(URI uri, HttpMethod method, HttpEntity<String> entity, JavaType type) {
+    ConditionalRequestCache.Entry cached = getCachedResponse(uri, method);
+    return restTemplate.execute(uri, method, request -> prepareRequest(request, entity, cached), response -> {
+      if (cached != null && response.getRawStatusCode() == HttpStatus.NOT_MODIFIED.value()) {
+        responseCache.recordHit();
+        return readValue(new ByteArrayInputStream(cached.getContent()), type);
+      }
+      if (isCacheable(method, response.getHeaders())) {
+        byte[] content = StreamUtils.copyToByteArray(response.getBody());
+        responseCache.put(uri, response.getHeaders(), content);
+        return readValue(new ByteArrayInputStream(content), type);
+      }
+      return readValue(response.getBody(), type);
+    });
+  }
+
+  /**
+   * Reads a JSON array from the given URI and hands over each entity to the
+   * given consumer while the response is parsed. So the list itself is never
+   * materialized. For GET requests a previously cached page is reused if the
+   * server reports it as not modified. The cached page content is decoded again,
+   * so each caller receives its own entities.
+   *
+   * @return headers of the response
+   */
+  protected <T> HttpHeaders readPage(URI uri, HttpMethod method, HttpEntity<String> entity, JavaType type,
+      Consumer<T> consumer) {
+    ConditionalRequestCache.Entry cached = getCachedResponse(uri, method);
+    return restTemplate.execute(uri, method, request -> prepareRequest(request, entity, cached), response -> {
+      if (cached != null && response.getRawStatusCode() == HttpStatus.NOT_MODIFIED.value()) {
+        responseCache.recordHit();
+        readValues(new ByteArrayInputStream(cached.getContent()), type, consumer);
+        return cached.getHeaders();
+      }
+      if (isCacheable(method, response.getHeaders())) {
+        byte[] content = StreamUtils.copyToByteArray(response.getBody());
+        responseCache.put(uri, response.getHeaders(), content);
+        readValues(new ByteArrayInputStream(content), type, consumer);
+      } else {
+        readValues(response.getBody(), type, consumer);
+      }
+      return response.getHeaders();
+    });
+  }
+
+  private <T> T readValue(InputStream in, JavaType type) throws IOException {
+    try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+      if (parser.nextToken() != null) {
+        return objectMapper.readerFor(type).readValue(parser);
+      }
+    }
+    return null;
+  }
+
+  private <T> void readValues(InputStream in, JavaType type, Consumer<T> consumer) throws IOException {
+    try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+      JsonToken token = parser.nextToken();
+      if (token != null) {
+        if (token != JsonToken.START_ARRAY) {
+          throw new RestClientException("Expected JSON array but got " + token);
+        }
+        ObjectReader reader = objectMapper.readerFor(type);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          consumer.accept(reader.readValue(parser));
+        }
+      }
+    }
+  }
+
+  private void prepareRequest(ClientHttpRequest request, HttpEntity<String> entity,
+      ConditionalRequestCache.Entry cached) throws IOException {
+    request.getHeaders().putAll(entity.getHeaders());
+    request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+    if (cached != null) {
+      cached.addValidators(request.getHeaders());
+    }
+    if (entity.hasBody()) {
+      StreamUtils.copy(entity.getBody(), StandardCharsets.UTF_8, request.getBody());
+    }
+  }
+
+  private ConditionalRequestCache.Entry getCachedResponse(URI uri, HttpMethod method) {
+    return responseCache != null && method == HttpMethod.GET ? responseCache.get(uri) : null;
+  }
+
+  private boolean isCacheable(HttpMethod method, HttpHeaders headers) {
+    if (responseCache != null && method == HttpMethod.GET) {
+      responseCache.recordMiss();
+      return ConditionalRequestCache.isCacheable(headers);
+    }
+    return false;
+  }
+
+  /**
+   * Non-blocking variant of
+   * {@link #makeReadApiCall(String, HttpMethod, ParameterizedTypeReference, Map, HttpStatus...)}.
+   * The returned future completes with <code>null</code> if the API call failed.
+   * Unlike the blocking variant, identical requests aren't coalesced and the
+   * conditional request cache isn't used.
+   */
+  protected <T> CompletableFuture<T> makeReadApiCallAsync(String apiCall, HttpMethod method,
+      ParameterizedTypeReference<T> typeReference, Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
+    String url = getApiUrl(apiCall);
+    return toFuture(apiCallMetrics.start(apiCall, method),
+        () -> exchangeAsync(expandUri(url, uriVariables), method, authenticationEntity)
+            .flatMap(response -> response.bodyToMono(typeReference)),
+        method, uriVariables, url, ignoreStatus);
+  }
+
+  protected <T> CompletableFuture<List<T>> makeReadListApiCallAsync(String apiCall, HttpMethod method, Class<T> type,
+      Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
+    return makeReadListApiCallAsync(apiCall, method, authenticationEntity, type, uriVariables, ignoreStatus);
+  }
+
+  /**
+   * Non-blocking variant of
+   * {@link #makeReadListApiCall(String, HttpMethod, HttpEntity, ParameterizedTypeReference, Map, HttpStatus...)}.
+   * Subclasses override this method to follow the paging scheme of their server.
+   * The returned future completes with <code>null</code> if the API call failed.
+   * Unlike the blocking variant, the conditional request cache isn't used.
+   */
+  protected <T> CompletableFuture<List<T>> makeReadListApiCallAsync(String apiCall, HttpMethod method,
+      HttpEntity<String> entity, Class<T> type, Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
+    String url = getApiUrl(apiCall);
+    ApiCallMetrics.Sample sample = apiCallMetrics.startList(apiCall, method);
+    return toFuture(sample, () -> readPageAsync(expandUri(url, uriVariables), method, entity, type)
+        .map(ResponseEntity::getBody).doOnNext(page -> sample.page(page.size())), method, uriVariables, url,
+        ignoreStatus);
+  }
+
+  /**
+   * Sends the given request without blocking. Responses with an error status are
+   * signaled as {@link WebClientResponseException}.
+   */
+  protected Mono<ClientResponse> exchangeAsync(URI uri, HttpMethod method, HttpEntity<String> entity) {
+    WebClient.RequestBodySpec request = webClient.method(method).uri(uri)
+        .headers(headers -> headers.putAll(entity.getHeaders())).accept(MediaType.APPLICATION_JSON);
+    return (entity.hasBody() ? request.bodyValue(entity.getBody()) : request).exchange()
+        .flatMap(response -> response.rawStatusCode() >= 400 ? response.createException().flatMap(Mono::error)
+            : Mono.just(response));
+  }
+
+  /**
+   * Reads a JSON array from the given URI without blocking.
+   */
+  protected <T> Mono<ResponseEntity<List<T>>> readPageAsync(URI uri, HttpMethod method, HttpEntity<String> entity,
+      Class<T> type) {
+    return exchangeAsync(uri, method, entity).flatMap(response -> response.toEntityList(type));
+  }
+
+  /**
+   * Subscribes to the given request and returns its result as future. The API
+   * call is recorded with the given metrics sample. Failures are logged via
+   * {@link #logException(HttpMethod, Map, String, Exception, HttpStatus[])} and
+   * complete the future with <code>null</code>.
+   */
+  protected <T> CompletableFuture<T> toFuture(ApiCallMetrics.Sample sample, Supplier<Mono<T>> request,
+      HttpMethod method, Map<String, String> uriVariables, String url, HttpStatus[] ignoreStatus) {
+    return Mono.defer(request).doOnSuccess(result -> sample.stop(null)).toFuture().exceptionally(e -> {
+      Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+      sample.stop(cause);
+      logException(method, uriVariables, url,
+          cause instanceof Exception ? (Exception) cause : new CompletionException(cause), ignoreStatus);
+      return null;
+    });
+  }
+
   protected boolean makeWriteApiCall(String apiCall, HttpMethod method, HttpEntity<String> entity,
       Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
     String url = getApiUrl(apiCall);
+    ApiCallMetrics.Sample sample = apiCallMetrics.start(apiCall, method);
     try {
       restTemplate.exchange(url, method, entity, Void.class, uriVariables);
+      sample.stop(null);
       return true;
     } catch (Exception e) {
+      sample.stop(e);
       logException(method, uriVariables, url, e, ignoreStatus);
     }
     return false;
   }
 
+  /**
+   * Makes the given write API call and returns the HTTP status code of the
+   * response or <code>0</code> if no response was received (e.g. connection
+   * failure or open circuit breaker).
+   */
+  protected int makeWriteApiCallForStatus(String apiCall, HttpMethod method, HttpEntity<String> entity,
+      Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
+    String url = getApiUrl(apiCall);
+    ApiCallMetrics.Sample sample = apiCallMetrics.start(apiCall, method);
+    try {
+      ResponseEntity<Void> response = restTemplate.exchange(url, method, entity, Void.class, uriVariables);
+      sample.stop(null);
+      return response.getStatusCodeValue();
+    } catch (Exception e) {
+      sample.stop(e);
+      logException(method, uriVariables, url, e, ignoreStatus);
+      if (e instanceof RestClientResponseException) {
+        return ((RestClientResponseException) e).getRawStatusCode();
+      }
+    }
+    return 0;
+  }
+
   protected boolean makeWriteApiCall(String apiCall, HttpMethod method, Map<String, String> uriVariables,
       HttpStatus... ignoreStatus) {
     String url = getApiUrl(apiCall);
+    ApiCallMetrics.Sample sample = apiCallMetrics.start(apiCall, method);
     try {
       restTemplate.exchange(url, method, authenticationEntity, Void.class, uriVariables);
+      sample.stop(null);
       return true;
     } catch (Exception e) {
+      sample.stop(e);
       logException(method, uriVariables, url, e, ignoreStatus);
     }
     return false;
@@ -143,11 +786,14 @@ public abstract class AbstractRestClient {
   protected <T> T makeWriteApiCall(String apiCall, HttpMethod method, ParameterizedTypeReference<T> typeReference,
       Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
     String url = getApiUrl(apiCall);
+    ApiCallMetrics.Sample sample = apiCallMetrics.start(apiCall, method);
     try {
       ResponseEntity<T> response = restTemplate.exchange(url, method, authenticationEntity, typeReference,
           uriVariables);
+      sample.stop(null);
       return response.getBody();
     } catch (Exception e) {
+      sample.stop(e);
       logException(method, null, url, e, ignoreStatus);
     }
     return null;
@@ -156,9 +802,13 @@ public abstract class AbstractRestClient {
   protected <T> T makeWriteApiCall(String apiCall, HttpEntity<String> entity, Class<T> type,
       HttpStatus... ignoreStatus) {
     String url = getApiUrl(apiCall);
+    ApiCallMetrics.Sample sample = apiCallMetrics.start(apiCall, HttpMethod.POST);
     try {
-      return restTemplate.postForObject(url, entity, type);
+      T result = restTemplate.postForObject(url, entity, type);
+      sample.stop(null);
+      return result;
     } catch (Exception e) {
+      sample.stop(e);
       logException(HttpMethod.POST, null, url, e, ignoreStatus);
     }
     return null;
@@ -167,20 +817,35 @@ public abstract class AbstractRestClient {
   protected void logException(HttpMethod method, Map<String, String> uriVariables, String url, Exception e,
       HttpStatus[] ignoreStatus) {
     if (e instanceof RestClientResponseException) {
-      // Check HTTP status of response for skip logging
-      if (ignoreStatus != null) {
-        for (HttpStatus status : ignoreStatus) {
-          if (((RestClientResponseException) e).getRawStatusCode() == status.value()) {
-            return;
-          }
-        }
+      if (isIgnoredStatus(((RestClientResponseException) e).getRawStatusCode(), ignoreStatus)) {
+        return;
       }
       LOG.error("API call {} '{}' {} failed with {}: {}", method.name(), url, uriVariables, e.getMessage(),
           ((RestClientResponseException) e).getResponseBodyAsString());
+    } else if (e instanceof WebClientResponseException) {
+      if (isIgnoredStatus(((WebClientResponseException) e).getRawStatusCode(), ignoreStatus)) {
+        return;
+      }
+      LOG.error("API call {} '{}' {} failed with {}: {}", method.name(), url, uriVariables, e.getMessage(),
+          ((WebClientResponseException) e).getResponseBodyAsString());
+    } else if (e instanceof CircuitBreakerOpenException) {
+      LOG.debug("API call {} '{}' {} rejected: {}", method.name(), url, uriVariables, e.getMessage());
     } else if (e instanceof RestClientException) {
       LOG.error("API call {} '{}' {} failed with {}", method.name(), url, uriVariables, e.getMessage());
     } else {
       LOG.error("API call {} '{}' {} failed", method.name(), url, uriVariables, e);
     }
   }
-}
\ No newline at end of file
+
+  private boolean isIgnoredStatus(int rawStatusCode, HttpStatus[] ignoreStatus) {
+    // Check HTTP status of response for skip logging
+    if (ignoreStatus != null) {
+      for (HttpStatus status : ignoreStatus) {
+        if (rawStatusCode == status.value()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.time.Duration;
+
+/**
+ * Holds the HTTP transport settings shared by all {@link RestClientConfig}
+ * implementations.
+ */
+public abstract class AbstractRestClientConfig implements RestClientConfig {
+  private HttpVersion httpVersion = HttpVersion.HTTP_1_1;
+  private int maxConnections = 20;
+  private int maxConnectionsPerRoute = 10;
+  private Duration idleConnectionTimeout = Duration.ofSeconds(30);
+  private Duration connectTimeout = Duration.ofSeconds(5);
+  private Duration readTimeout = Duration.ofSeconds(30);
+  private Duration listDeadline = Duration.ofMinutes(5);
+  private int warmUpConnections = 0;
+  private boolean cacheEnabled = false;
+  private int cacheSize = 1000;
+  private boolean compressionEnabled = true;
+  private boolean rateLimitEnabled = true;
+  private int rateLimitMaxRetries = 3;
+  private Duration rateLimitMaxDelay = Duration.ofSeconds(60);
+  private Duration rateLimitMaxInteractiveWait = Duration.ofSeconds(5);
+  private boolean circuitBreakerEnabled = true;
+  private int circuitBreakerFailureRateThreshold = 50;
+  private int circuitBreakerSlidingWindowSize = 20;
+  private Duration circuitBreakerWaitDuration = Duration.ofSeconds(30);
+
+  @Override
+  public HttpVersion getHttpVersion() {
+    return httpVersion;
+  }
+
+  public void setHttpVersion(HttpVersion httpVersion) {
+    this.httpVersion = httpVersion;
+  }
+
+  @Override
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  @Override
+  public int getMaxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+  }
+
+  @Override
+  public Duration getIdleConnectionTimeout() {
+    return idleConnectionTimeout;
+  }
+
+  public void setIdleConnectionTimeout(Duration idleConnectionTimeout) {
+    this.idleConnectionTimeout = idleConnectionTimeout;
+  }
+
+  @Override
+  public Duration getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(Duration connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  @Override
+  public Duration getReadTimeout() {
+    return readTimeout;
+  }
+
+  public void setReadTimeout(Duration readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
+  @Override
+  public Duration getListDeadline() {
+    return listDeadline;
+  }
+
+  public void setListDeadline(Duration listDeadline) {
+    this.listDeadline = listDeadline;
+  }
+
+  @Override
+  public int getWarmUpConnections() {
+    return warmUpConnections;
+  }
+
+  public void setWarmUpConnections(int warmUpConnections) {
+    this.warmUpConnections = warmUpConnections;
+  }
+
+  @Override
+  public boolean isCacheEnabled() {
+    return cacheEnabled;
+  }
+
+  public void setCacheEnabled(boolean cacheEnabled) {
+    this.cacheEnabled = cacheEnabled;
+  }
+
+  @Override
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  public void setCacheSize(int cacheSize) {
+    this.cacheSize = cacheSize;
+  }
+
+  @Override
+  public boolean isCompressionEnabled() {
+    return compressionEnabled;
+  }
+
+  public void setCompressionEnabled(boolean compressionEnabled) {
+    this.compressionEnabled = compressionEnabled;
+  }
+
+  @Override
+  public boolean isRateLimitEnabled() {
+    return rateLimitEnabled;
+  }
+
+  public void setRateLimitEnabled(boolean rateLimitEnabled) {
+    this.rateLimitEnabled = rateLimitEnabled;
+  }
+
+  @Override
+  public int getRateLimitMaxRetries() {
+    return rateLimitMaxRetries;
+  }
+
+  public void setRateLimitMaxRetries(int rateLimitMaxRetries) {
+    this.rateLimitMaxRetries = rateLimitMaxRetries;
+  }
+
+  @Override
+  public Duration getRateLimitMaxDelay() {
+    return rateLimitMaxDelay;
+  }
+
+  public void setRateLimitMaxDelay(Duration rateLimitMaxDelay) {
+    this.rateLimitMaxDelay = rateLimitMaxDelay;
+  }
+
+  @Override
+  public Duration getRateLimitMaxInteractiveWait() {
+    return rateLimitMaxInteractiveWait;
+  }
+
+  public void setRateLimitMaxInteractiveWait(Duration rateLimitMaxInteractiveWait) {
+    this.rateLimitMaxInteractiveWait = rateLimitMaxInteractiveWait;
+  }
+
+  @Override
+  public boolean isCircuitBreakerEnabled() {
+    return circuitBreakerEnabled;
+  }
+
+  public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+    this.circuitBreakerEnabled = circuitBreakerEnabled;
+  }
+
+  @Override
+  public int getCircuitBreakerFailureRateThreshold() {
+    return circuitBreakerFailureRateThreshold;
+  }
+
+  public void setCircuitBreakerFailureRateThreshold(int circuitBreakerFailureRateThreshold) {
+    this.circuitBreakerFailureRateThreshold = circuitBreakerFailureRateThreshold;
+  }
+
+  @Override
+  public int getCircuitBreakerSlidingWindowSize() {
+    return circuitBreakerSlidingWindowSize;
+  }
+
+  public void setCircuitBreakerSlidingWindowSize(int circuitBreakerSlidingWindowSize) {
+    this.circuitBreakerSlidingWindowSize = circuitBreakerSlidingWindowSize;
+  }
+
+  @Override
+  public Duration getCircuitBreakerWaitDuration() {
+    return circuitBreakerWaitDuration;
+  }
+
+  public void setCircuitBreakerWaitDuration(Duration circuitBreakerWaitDuration) {
+    this.circuitBreakerWaitDuration = circuitBreakerWaitDuration;
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records the duration of API calls (including all pages of list calls) as
+ * timer "http.client.api.calls". For list calls which succeeded or exceeded
+ * their deadline (partial progress) the number of pages and entities are
+ * recorded as distribution summaries "http.client.api.pages" and
+ * "http.client.api.entities".
+ * <p>
+ * The meters are tagged with the name of the upstream server ("client"), the
+ * URI template of the API call without query ("api"), the HTTP method
+ * ("method") and the outcome ("outcome").
+ */
+public class ApiCallMetrics {
+
+  private final String name;
+  private final MeterRegistry meterRegistry;
+
+  public ApiCallMetrics(String name, MeterRegistry meterRegistry) {
+    this.name = name;
+    this.meterRegistry = meterRegistry;
+  }
+
+  public Sample start(String apiCall, HttpMethod method) {
+    return new Sample(apiCall, method, false);
+  }
+
+  public Sample startList(String apiCall, HttpMethod method) {
+    return new Sample(apiCall, method, true);
+  }
+
+  static String getOutcome(Throwable error) {
+    if (error == null) {
+      return "SUCCESS";
+    }
+    if (error instanceof CircuitBreakerOpenException) {
+      return "REJECTED";
+    }
+    if (error instanceof DeadlineExceededException) {
+      return "DEADLINE_EXCEEDED";
+    }
+    int status = error instanceof RestClientResponseException
+        ? ((RestClientResponseException) error).getRawStatusCode()
+        : error instanceof WebClientResponseException ? ((WebClientResponseException) error).getRawStatusCode() : -1;
+    return status >= 500 ? "SERVER_ERROR" : status >= 400 ? "CLIENT_ERROR" : "ERROR";
+  }
+
+  public final class Sample {
+    private final Tags tags;
+    private final boolean list;
+    private final long startTime;
+    private final AtomicInteger pages = new AtomicInteger();
+    private final AtomicInteger entities = new AtomicInteger();
+
+    private Sample(String apiCall, HttpMethod method, boolean list) {
+      int queryIndex = apiCall.indexOf('?');
+      this.tags = Tags.of("client", name, "api", queryIndex < 0 ? apiCall : apiCall.substring(0, queryIndex),
+          "method", method.name());
+      this.list = list;
+      this.startTime = meterRegistry.config().clock().monotonicTime();
+    }
+
+    /** Counts a retrieved page with the given number of entities */
+    public void page(int pageEntities) {
+      pages.incrementAndGet();
+      entities.addAndGet(pageEntities);
+    }
+
+    /** Counts a retrieved page (the entities are counted separately) */
+    public void page() {
+      pages.incrementAndGet();
+    }
+
+    /** Returns number of pages retrieved so far */
+    public int getPages() {
+      return pages.get();
+    }
+
+    /** Returns a consumer which counts the entities handed over to the given consumer */
+    public <T> Consumer<T> counting(Consumer<T> consumer) {
+      return entity -> {
+        entities.incrementAndGet();
+        consumer.accept(entity);
+      };
+    }
+
+    /** Records the API call with the outcome derived from the given error (<code>null</code> if successful) */
+    public void stop(Throwable error) {
+      Tags outcomeTags = tags.and("outcome", getOutcome(error));
+      Timer.builder("http.client.api.calls").tags(outcomeTags)
+          .description("Duration of API calls to the upstream server").publishPercentileHistogram()
+          .register(meterRegistry)
+          .record(meterRegistry.config().clock().monotonicTime() - startTime, TimeUnit.NANOSECONDS);
+      if (list && (error == null || error instanceof DeadlineExceededException)) {
+        DistributionSummary.builder("http.client.api.pages").tags(outcomeTags)
+            .description("Number of pages retrieved by a list API call").register(meterRegistry).record(pages.get());
+        DistributionSummary.builder("http.client.api.entities").tags(outcomeTags)
+            .description("Number of entities retrieved by a list API call").register(meterRegistry)
+            .record(entities.get());
+      }
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Circuit breaker for the requests to an upstream server. The outcome of the
+ * last requests is recorded in a sliding window. Requests failing with an I/O
+ * error or a 5xx status are counted as failures.
+ * <p>
+ * If the failure rate within the sliding window reaches the threshold then the
+ * circuit is opened and all requests are rejected immediately with a
+ * {@link CircuitBreakerOpenException}. After the wait duration the circuit is
+ * half-open and a single probe request is permitted. Its outcome either closes
+ * the circuit again or keeps it open for another wait duration. Late outcomes
+ * of requests permitted before the circuit was opened are ignored.
+ * <p>
+ * Used as (outermost) interceptor for {@link org.springframework.web.client.RestTemplate}
+ * and as filter for {@link org.springframework.web.reactive.function.client.WebClient}.
+ */
+public class CircuitBreaker implements ClientHttpRequestInterceptor, ExchangeFilterFunction {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final String name;
+  private final int failureRateThreshold;
+  private final int minimumCalls;
+  private final long waitDuration;
+  private final Counter rejectedCalls;
+
+  private State state = State.CLOSED;
+  private final boolean[] outcomes;
+  private int nextOutcome;
+  private int calls;
+  private int failedCalls;
+  private long openedAt;
+  private boolean probing;
+  // Incremented with every state transition to tell apart the permissions of different states
+  private long generation;
+
+  public CircuitBreaker(String name, int failureRateThreshold, int slidingWindowSize, Duration waitDuration,
+      MeterRegistry meterRegistry) {
+    this.name = name;
+    this.failureRateThreshold = failureRateThreshold;
+    this.outcomes = new boolean[slidingWindowSize];
+    this.minimumCalls = Math.max(1, slidingWindowSize / 2);
+    this.waitDuration = waitDuration.toMillis();
+    this.rejectedCalls = Counter.builder("http.client.circuit.breaker.rejected").tag("client", name)
+        .description("Requests rejected by the open circuit breaker").register(meterRegistry);
+    Gauge.builder("http.client.circuit.breaker.state", this, breaker -> breaker.getState().ordinal())
+        .tag("client", name).description("State of the circuit breaker (0 = closed, 1 = open, 2 = half-open)")
+        .register(meterRegistry);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /** Returns the failure rate (in percent) within the sliding window */
+  public synchronized int getFailureRate() {
+    return calls > 0 ? failedCalls * 100 / calls : 0;
+  }
+
+  /** Returns number of requests recorded in the sliding window */
+  public synchronized int getCalls() {
+    return calls;
+  }
+
+  /** Returns number of failed requests recorded in the sliding window */
+  public synchronized int getFailedCalls() {
+    return failedCalls;
+  }
+
+  /** Returns number of requests rejected since startup */
+  public long getRejectedCalls() {
+    return (long) rejectedCalls.count();
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+      throws IOException {
+    long permission = acquirePermission();
+    boolean failure = true;
+    try {
+      ClientHttpResponse response = execution.execute(request, body);
+      failure = isFailure(response.getRawStatusCode());
+      return response;
+    } finally {
+      onResult(permission, failure);
+    }
+  }
+
+  @Override
+  public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+    return Mono.defer(() -> {
+      long permission = acquirePermission();
+      return next.exchange(request).doOnSuccess(response -> {
+        if (response != null) {
+          onResult(permission, isFailure(response.rawStatusCode()));
+        } else {
+          releasePermission(permission);
+        }
+      }).doOnError(e -> onResult(permission, true)).doOnCancel(() -> releasePermission(permission));
+    });
+  }
+
+  /**
+   * Checks if a request is permitted in the current state and returns the
+   * permission which has to be handed back with the request's outcome.
+   *
+   * @throws CircuitBreakerOpenException if the circuit is open
+   */
+  synchronized long acquirePermission() {
+    if (state == State.OPEN) {
+      if (System.currentTimeMillis() - openedAt < waitDuration) {
+        rejectedCalls.increment();
+        throw new CircuitBreakerOpenException(name);
+      }
+      transitionTo(State.HALF_OPEN);
+    }
+    if (state == State.HALF_OPEN) {
+      if (probing) {
+        rejectedCalls.increment();
+        throw new CircuitBreakerOpenException(name);
+      }
+      probing = true;
+    }
+    return generation;
+  }
+
+  /** Releases the given permission without an outcome (e.g. cancelled request) */
+  synchronized void releasePermission(long permission) {
+    if (permission == generation && state == State.HALF_OPEN) {
+      probing = false;
+    }
+  }
+
+  /**
+   * Records the outcome of the request with the given permission. Late outcomes
+   * of requests permitted in a previous state are ignored, so only the probe's
+   * own outcome decides on a half-open circuit.
+   */
+  synchronized void onResult(long permission, boolean failure) {
+    if (permission != generation) {
+      return;
+    }
+    switch (state) {
+    case HALF_OPEN:
+      probing = false;
+      transitionTo(failure ? State.OPEN : State.CLOSED);
+      break;
+    case CLOSED:
+      if (calls == outcomes.length) {
+        calls--;
+        if (outcomes[nextOutcome]) {
+          failedCalls--;
+        }
+      }
+      outcomes[nextOutcome] = failure;
+      nextOutcome = (nextOutcome + 1) % outcomes.length;
+      calls++;
+      if (failure) {
+        failedCalls++;
+      }
+      if (calls >= minimumCalls && failedCalls * 100 >= failureRateThreshold * calls) {
+        transitionTo(State.OPEN);
+      }
+      break;
+    default:
+      // No permissions are granted for an open circuit
+    }
+  }
+
+  private void transitionTo(State newState) {
+    if (newState == State.OPEN) {
+      LOG.warn("Opening circuit breaker for '{}' (failure rate {}%)", name, getFailureRate());
+      openedAt = System.currentTimeMillis();
+    } else if (newState == State.CLOSED) {
+      LOG.info("Closing circuit breaker for '{}'", name);
+      calls = 0;
+      failedCalls = 0;
+      nextOutcome = 0;
+    } else {
+      LOG.debug("Circuit breaker for '{}' is half-open", name);
+    }
+    state = newState;
+    generation++;
+  }
+
+  private static boolean isFailure(int rawStatusCode) {
+    return rawStatusCode >= 500;
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+
+/**
+ * Reports the state of a REST client's {@link CircuitBreaker} as details. The
+ * status is always up - an unavailable upstream server must not fail liveness
+ * checks as the cached pages are still served.
+ */
+public class CircuitBreakerHealthIndicator implements HealthIndicator {
+
+  private final AbstractRestClient client;
+
+  public CircuitBreakerHealthIndicator(AbstractRestClient client) {
+    this.client = client;
+  }
+
+  @Override
+  public Health health() {
+    CircuitBreaker circuitBreaker = client.getCircuitBreaker();
+    if (circuitBreaker == null) {
+      return Health.up().withDetail("state", "DISABLED").build();
+    }
+    return Health.up().withDetail("state", circuitBreaker.getState()).withDetail("failureRate", circuitBreaker.getFailureRate() + "%")
+        .withDetail("calls", circuitBreaker.getCalls()).withDetail("failedCalls", circuitBreaker.getFailedCalls())
+        .withDetail("rejectedCalls", circuitBreaker.getRejectedCalls()).build();
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Thrown if a request is rejected because the {@link CircuitBreaker} of the
+ * upstream server is open.
+ */
+public class CircuitBreakerOpenException extends RestClientException {
+  private static final long serialVersionUID = 1L;
+
+  public CircuitBreakerOpenException(String name) {
+    super("Circuit breaker for '" + name + "' is open");
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    // Rejecting a request has to be cheap - the stack trace is meaningless anyway
+    return this;
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.StringUtils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * LRU cache for the content of GET responses which are validated via "ETag" or
+ * "Last-Modified" response header. A cached response is reused if the server
+ * answers the conditional request with "304 Not Modified".
+ * <p>
+ * The raw content is cached instead of the decoded entities, so each reuse
+ * decodes new entities which can be modified by the caller.
+ */
+public class ConditionalRequestCache {
+  private final Map<URI, Entry> entries;
+  private final Counter hits;
+  private final Counter misses;
+
+  public ConditionalRequestCache(int maxSize, MeterRegistry meterRegistry, String name) {
+    this.entries = new LinkedHashMap<URI, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<URI, Entry> eldest) {
+        return size() > maxSize;
+      }
+    };
+    this.hits = Counter.builder("http.client.cache.requests").tag("client", name).tag("result", "hit")
+        .description("Conditional requests answered with 304 Not Modified").register(meterRegistry);
+    this.misses = Counter.builder("http.client.cache.requests").tag("client", name).tag("result", "miss")
+        .description("Requests answered with a new response").register(meterRegistry);
+    Gauge.builder("http.client.cache.size", this, ConditionalRequestCache::size).tag("client", name)
+        .register(meterRegistry);
+  }
+
+  public synchronized Entry get(URI uri) {
+    return entries.get(uri);
+  }
+
+  public synchronized void put(URI uri, HttpHeaders headers, byte[] content) {
+    HttpHeaders headersCopy = new HttpHeaders();
+    headersCopy.putAll(headers);
+    entries.put(uri, new Entry(HttpHeaders.readOnlyHttpHeaders(headersCopy), content));
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public void recordHit() {
+    hits.increment();
+  }
+
+  public void recordMiss() {
+    misses.increment();
+  }
+
+  public static boolean isCacheable(HttpHeaders headers) {
+    return StringUtils.hasText(headers.getETag())
+        || StringUtils.hasText(headers.getFirst(HttpHeaders.LAST_MODIFIED));
+  }
+
+  public static final class Entry {
+    private final HttpHeaders headers;
+    private final byte[] content;
+
+    private Entry(HttpHeaders headers, byte[] content) {
+      this.headers = headers;
+      this.content = content;
+    }
+
+    public HttpHeaders getHeaders() {
+      return headers;
+    }
+
+    public byte[] getContent() {
+      return content;
+    }
+
+    public void addValidators(HttpHeaders requestHeaders) {
+      if (StringUtils.hasText(headers.getETag())) {
+        requestHeaders.setIfNoneMatch(headers.getETag());
+      }
+      if (StringUtils.hasText(headers.getFirst(HttpHeaders.LAST_MODIFIED))) {
+        requestHeaders.set(HttpHeaders.IF_MODIFIED_SINCE, headers.getFirst(HttpHeaders.LAST_MODIFIED));
+      }
+    }
+  }
+}
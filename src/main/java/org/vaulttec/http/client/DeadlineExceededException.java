@@ -0,0 +1,43 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.time.Duration;
+
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Thrown if a list API call didn't retrieve all of its pages within the
+ * configured deadline.
+ */
+public class DeadlineExceededException extends RestClientException {
+  private static final long serialVersionUID = 1L;
+
+  private final int pages;
+
+  public DeadlineExceededException(String apiCall, Duration deadline, int pages) {
+    super("API call '" + apiCall + "' exceeded deadline of " + deadline.toMillis() + "ms after " + pages
+        + " page(s)");
+    this.pages = pages;
+  }
+
+  /** Returns number of pages retrieved before the deadline was exceeded */
+  public int getPages() {
+    return pages;
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+/**
+ * HTTP protocol version used by the {@link AbstractRestClient} to talk to the
+ * upstream server.
+ */
+public enum HttpVersion {
+
+  /** One request per pooled connection (Apache HttpClient) */
+  HTTP_1_1,
+
+  /**
+   * All requests multiplexed over a single connection (OkHttp). HTTPS servers
+   * negotiate the protocol via ALPN and may fall back to HTTP/1.1, plain HTTP
+   * servers have to support HTTP/2 with prior knowledge (h2c).
+   */
+  HTTP_2
+}
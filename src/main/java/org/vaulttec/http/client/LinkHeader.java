@@ -19,44 +19,63 @@ package org.vaulttec.http.client;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.springframework.http.HttpHeaders;
 import org.springframework.util.StringUtils;
 
+/**
+ * Parsed "Link" response header (RFC 8288) as used by GitLab for pagination.
+ * <p>
+ * The header is parsed in a single pass without splitting it into substrings.
+ * The resource URI of a link is only created when it's requested via
+ * {@link Link#getResourceUri()}.
+ */
 public class LinkHeader {
-  private final Map<Rel, Link> links;
+  private static final Rel[] RELS = Rel.values();
+
+  private final Link[] links;
 
   public LinkHeader(Map<Rel, Link> links) {
+    this(new Link[RELS.length]);
+    links.forEach((rel, link) -> this.links[rel.ordinal()] = link);
+  }
+
+  private LinkHeader(Link[] links) {
     this.links = links;
   }
 
   public boolean hasLink(Rel rel) {
-    return links.containsKey(rel);
+    return links[rel.ordinal()] != null;
   }
 
   public Link getLink(Rel rel) {
-    return links.get(rel);
+    return links[rel.ordinal()];
   }
 
   public static final LinkHeader parse(HttpHeaders headers) {
     String linkValue = headers.getFirst(HttpHeaders.LINK);
     if (StringUtils.hasText(linkValue)) {
-      String[] linkValues = linkValue.split(",");
-      if (linkValues.length > 0) {
-        Map<Rel, Link> links = new HashMap<>();
-        for (int i = 0; i < linkValues.length; i++) {
-          Link link = Link.fromSource(linkValues[i]);
-          if (link != null && link.getRel() != null) {
-            links.put(link.getRel(), link);
-          }
+      Link[] links = new Link[RELS.length];
+      int length = linkValue.length();
+      int index = 0;
+      while (index < length) {
+        int uriStart = linkValue.indexOf('<', index);
+        int uriEnd = uriStart < 0 ? -1 : linkValue.indexOf('>', uriStart + 1);
+        if (uriEnd < 0) {
+          break;
         }
-        return new LinkHeader(links);
+        int linkEnd = linkValue.indexOf(',', uriEnd + 1);
+        if (linkEnd < 0) {
+          linkEnd = length;
+        }
+        Rel rel = Rel.fromSource(linkValue, uriEnd + 1, linkEnd);
+        if (rel != null) {
+          links[rel.ordinal()] = new Link(linkValue, uriStart + 1, uriEnd, rel);
+        }
+        index = linkEnd + 1;
       }
-
+      return new LinkHeader(links);
     }
     return null;
   }
@@ -65,10 +84,27 @@ public class LinkHeader {
     FIRST, PREV, NEXT, LAST;
 
     public static Rel fromSource(String source) {
-      if (source != null) {
-        for (Rel rel : Rel.values()) {
-          String pattern = "rel=\"" + rel.name().toLowerCase() + "\"";
-          if (source.indexOf(pattern) != -1) {
+      return source != null ? fromSource(source, 0, source.length()) : null;
+    }
+
+    /**
+     * Returns the value of the "rel" parameter within the given range of the
+     * source.
+     */
+    static Rel fromSource(String source, int start, int end) {
+      for (int i = source.indexOf("rel=", start); i >= 0 && i + 4 < end; i = source.indexOf("rel=", i + 4)) {
+        int valueStart = i + 4;
+        if (source.charAt(valueStart) == '"') {
+          valueStart++;
+        }
+        int valueEnd = valueStart;
+        while (valueEnd < end && Character.isLetter(source.charAt(valueEnd))) {
+          valueEnd++;
+        }
+        int valueLength = valueEnd - valueStart;
+        for (Rel rel : RELS) {
+          if (rel.name().length() == valueLength
+              && source.regionMatches(true, valueStart, rel.name(), 0, valueLength)) {
             return rel;
           }
         }
@@ -78,14 +114,22 @@ public class LinkHeader {
   }
 
   public static final class Link {
-    private static final Pattern QUERY_PATTERN = Pattern.compile("([^&=]+)=?([^&]+)?");
-
+    private final String source;
+    private final int uriStart;
+    private final int uriEnd;
     private URI resourceUri;
-    private int page;
-    private int perPage;
-    private Rel rel;
+    private final int page;
+    private final int perPage;
+    private final Rel rel;
 
     public URI getResourceUri() {
+      if (resourceUri == null && uriStart >= 0) {
+        try {
+          resourceUri = new URI(source.substring(uriStart, uriEnd));
+        } catch (URISyntaxException e) {
+          throw new IllegalStateException("", e);
+        }
+      }
       return resourceUri;
     }
 
@@ -102,64 +146,67 @@ public class LinkHeader {
     }
 
     public Link(URI resourceUri, int page, int perPage, Rel rel) {
+      this.source = null;
+      this.uriStart = -1;
+      this.uriEnd = -1;
       this.resourceUri = resourceUri;
       this.page = page;
       this.perPage = perPage;
       this.rel = rel;
     }
 
+    private Link(String source, int uriStart, int uriEnd, Rel rel) {
+      this.source = source;
+      this.uriStart = uriStart;
+      this.uriEnd = uriEnd;
+      this.page = getQueryParameterValue(source, uriStart, uriEnd, "page");
+      this.perPage = getQueryParameterValue(source, uriStart, uriEnd, "per_page");
+      this.rel = rel;
+    }
+
     public static Link fromSource(String source) {
       if (StringUtils.isEmpty(source)) {
         return null;
       }
-      URI resourceUri = getResourceUri(source);
-      int page = getPage(resourceUri);
-      int perPage = getPerPage(resourceUri);
+      int uriStart = source.indexOf('<');
+      int uriEnd = source.indexOf('>');
       Rel rel = Rel.fromSource(source);
-      return new Link(resourceUri, page, perPage, rel);
-    }
-
-    private static URI getResourceUri(String source) {
-      int startIndex = source.indexOf("<");
-      int endIndex = source.indexOf(">");
-      if (startIndex < 0 || endIndex < 0) {
-        return null;
-      } else {
-        String resourceString = source.substring(startIndex, endIndex + 1);
-        try {
-          return new URI(resourceString.substring(1, resourceString.length() - 1));
-        } catch (URISyntaxException e) {
-          throw new IllegalStateException("", e);
-        }
+      if (uriStart < 0 || uriEnd < uriStart) {
+        return new Link((URI) null, -1, -1, rel);
       }
+      return new Link(source, uriStart + 1, uriEnd, rel);
     }
 
-    private static int getPage(URI resourceUri) {
-      return getQueryParameterValue(resourceUri, "page");
-    }
-
-    private static int getPerPage(URI resourceUri) {
-      return getQueryParameterValue(resourceUri, "per_page");
-    }
-
-    private static int getQueryParameterValue(URI resourceUri, String paramName) {
-      if (resourceUri == null) {
+    /**
+     * Returns the (non-negative) integer value of the given query parameter
+     * within the URI range of the source or -1 if not available.
+     */
+    private static int getQueryParameterValue(String source, int uriStart, int uriEnd, String paramName) {
+      int queryStart = uriStart < 0 ? -1 : source.indexOf('?', uriStart);
+      if (queryStart < 0 || queryStart >= uriEnd) {
         return -1;
       }
-      String query = resourceUri.getQuery();
-      if (query == null)
-        return -1;
-      Matcher matcher = QUERY_PATTERN.matcher(query);
-      while (matcher.find()) {
-        String name = matcher.group(1);
-        String value = matcher.group(2);
-        if (name.equals(paramName)) {
-          if (StringUtils.isEmpty(value)) {
-            return -1;
-          } else {
-            return Integer.valueOf(value);
+      int nameLength = paramName.length();
+      int paramStart = queryStart + 1;
+      while (paramStart < uriEnd) {
+        int paramEnd = source.indexOf('&', paramStart);
+        if (paramEnd < 0 || paramEnd > uriEnd) {
+          paramEnd = uriEnd;
+        }
+        int valueStart = paramStart + nameLength + 1;
+        if (valueStart <= paramEnd && source.charAt(valueStart - 1) == '='
+            && source.regionMatches(paramStart, paramName, 0, nameLength)) {
+          int value = 0;
+          for (int i = valueStart; i < paramEnd; i++) {
+            int digit = Character.digit(source.charAt(i), 10);
+            if (digit < 0) {
+              return -1;
+            }
+            value = value * 10 + digit;
           }
+          return valueStart < paramEnd ? value : -1;
         }
+        paramStart = paramEnd + 1;
       }
       return -1;
     }
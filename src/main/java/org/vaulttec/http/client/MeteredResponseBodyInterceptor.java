@@ -0,0 +1,127 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.io.IOException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * OkHttp counterpart of {@link MeteredResponseContentEncoding}. OkHttp
+ * decompresses the response bodies transparently, so the bytes received from
+ * the server are counted by a network interceptor ("compressed") and the bytes
+ * handed over to the message converters by an application interceptor
+ * ("decompressed"), which also records the size of the response bodies.
+ */
+public class MeteredResponseBodyInterceptor implements Interceptor {
+
+  private final Counter counter;
+  private final DistributionSummary summary;
+
+  private MeteredResponseBodyInterceptor(Counter counter, DistributionSummary summary) {
+    this.counter = counter;
+    this.summary = summary;
+  }
+
+  /** Returns an interceptor to be registered as network interceptor */
+  public static MeteredResponseBodyInterceptor network(String name, MeterRegistry meterRegistry) {
+    return new MeteredResponseBodyInterceptor(MeteredResponseContentEncoding.compressedBytes(name, meterRegistry),
+        null);
+  }
+
+  /** Returns an interceptor to be registered as application interceptor */
+  public static MeteredResponseBodyInterceptor application(String name, MeterRegistry meterRegistry) {
+    return new MeteredResponseBodyInterceptor(MeteredResponseContentEncoding.decompressedBytes(name, meterRegistry),
+        MeteredResponseContentEncoding.responseSize(name, meterRegistry));
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Response response = chain.proceed(chain.request());
+    ResponseBody body = response.body();
+    if (body == null || body.contentLength() == 0) {
+      return response;
+    }
+    return response.newBuilder().body(new CountingResponseBody(body)).build();
+  }
+
+  private final class CountingResponseBody extends ResponseBody {
+    private final ResponseBody body;
+    private BufferedSource source;
+    private long size;
+    private boolean recorded;
+
+    CountingResponseBody(ResponseBody body) {
+      this.body = body;
+    }
+
+    @Override
+    public MediaType contentType() {
+      return body.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+      return body.contentLength();
+    }
+
+    @Override
+    public BufferedSource source() {
+      if (source == null) {
+        source = Okio.buffer(new ForwardingSource(body.source()) {
+
+          @Override
+          public long read(Buffer sink, long byteCount) throws IOException {
+            long count = super.read(sink, byteCount);
+            if (count > 0) {
+              counter.increment(count);
+              size += count;
+            } else if (count < 0) {
+              record();
+            }
+            return count;
+          }
+
+          @Override
+          public void close() throws IOException {
+            record();
+            super.close();
+          }
+        });
+      }
+      return source;
+    }
+
+    private void record() {
+      if (!recorded && summary != null) {
+        recorded = true;
+        summary.record(size);
+      }
+    }
+  }
+}
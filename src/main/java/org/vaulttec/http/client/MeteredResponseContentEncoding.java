@@ -0,0 +1,173 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Replacement for Apache HttpClient's
+ * {@link org.apache.http.client.protocol.ResponseContentEncoding} which
+ * additionally counts the bytes of the response bodies as received from the
+ * server ("compressed") and as handed over to the message converters
+ * ("decompressed"). The body is decompressed while it's read, so it's never
+ * buffered. The decompressed size of every response body is recorded as
+ * distribution summary "http.client.response.size".
+ */
+public class MeteredResponseContentEncoding implements HttpResponseInterceptor {
+
+  private final Counter compressedBytes;
+  private final Counter decompressedBytes;
+  private final DistributionSummary responseSize;
+
+  public MeteredResponseContentEncoding(String name, MeterRegistry meterRegistry) {
+    this.compressedBytes = compressedBytes(name, meterRegistry);
+    this.decompressedBytes = decompressedBytes(name, meterRegistry);
+    this.responseSize = responseSize(name, meterRegistry);
+  }
+
+  static Counter compressedBytes(String name, MeterRegistry meterRegistry) {
+    return Counter.builder("http.client.response.bytes").tag("client", name).tag("encoding", "compressed")
+        .baseUnit("bytes").description("Response body bytes received from the server").register(meterRegistry);
+  }
+
+  static Counter decompressedBytes(String name, MeterRegistry meterRegistry) {
+    return Counter.builder("http.client.response.bytes").tag("client", name).tag("encoding", "decompressed")
+        .baseUnit("bytes").description("Response body bytes after decompression").register(meterRegistry);
+  }
+
+  static DistributionSummary responseSize(String name, MeterRegistry meterRegistry) {
+    return DistributionSummary.builder("http.client.response.size").tag("client", name).baseUnit("bytes")
+        .description("Size of the (decompressed) response bodies").register(meterRegistry);
+  }
+
+  @Override
+  public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+    HttpEntity entity = response.getEntity();
+    if (entity == null || entity.getContentLength() == 0) {
+      return;
+    }
+    entity = new CountingEntity(entity, compressedBytes, null);
+    Header contentEncoding = entity.getContentEncoding();
+    if (contentEncoding != null) {
+      for (HeaderElement codec : contentEncoding.getElements()) {
+        String codecName = codec.getName().toLowerCase(Locale.ROOT);
+        if ("gzip".equals(codecName) || "x-gzip".equals(codecName)) {
+          entity = new GzipDecompressingEntity(entity);
+        } else if ("deflate".equals(codecName)) {
+          entity = new DeflateDecompressingEntity(entity);
+        } else if (!"identity".equals(codecName)) {
+          throw new HttpException("Unsupported Content-Encoding: " + codec.getName());
+        }
+      }
+      response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+      response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+      response.removeHeaders(HttpHeaders.CONTENT_MD5);
+    }
+    response.setEntity(new CountingEntity(entity, decompressedBytes, responseSize));
+  }
+
+  /**
+   * Counts the bytes read from the wrapped entity. The content stream is created
+   * only once (the connection release calls {@link #getContent()} again), so the
+   * total size is recorded once when the stream is exhausted or closed.
+   */
+  private static final class CountingEntity extends HttpEntityWrapper {
+    private final Counter counter;
+    private final DistributionSummary summary;
+    private InputStream content;
+
+    CountingEntity(HttpEntity wrappedEntity, Counter counter, DistributionSummary summary) {
+      super(wrappedEntity);
+      this.counter = counter;
+      this.summary = summary;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      if (content == null) {
+        content = new CountingInputStream(super.getContent());
+      }
+      return content;
+    }
+
+    private final class CountingInputStream extends FilterInputStream {
+      private long size;
+      private boolean recorded;
+
+      CountingInputStream(InputStream in) {
+        super(in);
+      }
+
+      @Override
+      public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+          counter.increment();
+          size++;
+        } else {
+          record();
+        }
+        return b;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        int count = super.read(buffer, offset, length);
+        if (count > 0) {
+          counter.increment(count);
+          size += count;
+        } else if (count < 0) {
+          record();
+        }
+        return count;
+      }
+
+      @Override
+      public void close() throws IOException {
+        record();
+        super.close();
+      }
+
+      private void record() {
+        if (!recorded && summary != null) {
+          recorded = true;
+          summary.record(size);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StringUtils;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
+
+/**
+ * Paces the requests to an upstream server according to the rate limit
+ * reported in its responses. GitLab uses the headers "RateLimit-Limit",
+ * "RateLimit-Remaining" and "RateLimit-Reset" (epoch seconds) whereas
+ * Mattermost uses "X-Ratelimit-Limit", "X-Ratelimit-Remaining" and
+ * "X-Ratelimit-Reset" (seconds until reset).
+ * <p>
+ * The remaining requests are kept in a token bucket which is refilled when the
+ * rate limit window is reset. As long as more than half of the budget is left
+ * requests are sent immediately. Below that they are spread evenly until the
+ * reset, and with an exhausted budget they wait for the reset. Responses with
+ * "429 Too Many Requests" are retried after the time given by "Retry-After".
+ * <p>
+ * Blocking requests sent while handling a web request (interactive requests)
+ * wait at most "rate-limit-max-interactive-wait" in total. If a retry would
+ * exceed this budget the "429 Too Many Requests" response is returned instead,
+ * so users don't wait for minutes.
+ * <p>
+ * Used as (innermost) interceptor for {@link org.springframework.web.client.RestTemplate}
+ * and as filter for {@link org.springframework.web.reactive.function.client.WebClient}.
+ */
+public class RateLimitThrottler implements ClientHttpRequestInterceptor, ExchangeFilterFunction {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RateLimitThrottler.class);
+
+  private static final String GITLAB_HEADER_PREFIX = "RateLimit-";
+  private static final String MATTERMOST_HEADER_PREFIX = "X-Ratelimit-";
+  private static final double PACING_THRESHOLD = 0.5;
+  private static final long DEFAULT_RETRY_DELAY = 1000;
+
+  private final String name;
+  private final int maxRetries;
+  private final long maxDelay;
+  private final long maxInteractiveWait;
+  private final Timer delays;
+
+  private int limit = -1;
+  private int remaining = -1;
+  private long resetAt;
+  private long nextPermitAt;
+
+  public RateLimitThrottler(String name, int maxRetries, Duration maxDelay, Duration maxInteractiveWait,
+      MeterRegistry meterRegistry) {
+    this.name = name;
+    this.maxRetries = maxRetries;
+    this.maxDelay = maxDelay.toMillis();
+    this.maxInteractiveWait = maxInteractiveWait.toMillis();
+    this.delays = Timer.builder("http.client.rate.limit.delay").tag("client", name)
+        .description("Time requests were delayed to stay within the rate limit").register(meterRegistry);
+    Gauge.builder("http.client.rate.limit.remaining", this, RateLimitThrottler::getRemaining).tag("client", name)
+        .description("Remaining requests in the current rate limit window (-1 if unknown)").register(meterRegistry);
+  }
+
+  public synchronized int getRemaining() {
+    return limit > 0 && System.currentTimeMillis() >= resetAt ? limit : remaining;
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+      throws IOException {
+    long budget = isInteractive() ? maxInteractiveWait : Long.MAX_VALUE;
+    for (int retry = 0;; retry++) {
+      long delay = Math.min(reserve(), budget);
+      sleep(delay);
+      budget -= delay;
+      ClientHttpResponse response = execution.execute(request, body);
+      update(response.getHeaders());
+      if (response.getRawStatusCode() != HttpStatus.TOO_MANY_REQUESTS.value() || retry >= maxRetries) {
+        return response;
+      }
+      delay = tooManyRequests(response.getHeaders());
+      if (delay > budget) {
+        LOG.debug("Rate limit of '{}' exceeded - not retrying interactive {} {}", name, request.getMethod(),
+            request.getURI());
+        return response;
+      }
+      response.close();
+      LOG.debug("Rate limit of '{}' exceeded - retrying {} {} in {} ms", name, request.getMethod(),
+          request.getURI(), delay);
+      sleep(delay);
+      budget -= delay;
+    }
+  }
+
+  @Override
+  public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+    return exchange(request, next, 0);
+  }
+
+  private Mono<ClientResponse> exchange(ClientRequest request, ExchangeFunction next, int retry) {
+    return Mono.defer(() -> delay(reserve())).then(Mono.defer(() -> next.exchange(request))).flatMap(response -> {
+      HttpHeaders headers = response.headers().asHttpHeaders();
+      update(headers);
+      if (response.rawStatusCode() != HttpStatus.TOO_MANY_REQUESTS.value() || retry >= maxRetries) {
+        return Mono.just(response);
+      }
+      long delay = tooManyRequests(headers);
+      LOG.debug("Rate limit of '{}' exceeded - retrying {} {} in {} ms", name, request.method(), request.url(),
+          delay);
+      return response.releaseBody().then(delay(delay)).then(exchange(request, next, retry + 1));
+    });
+  }
+
+  /**
+   * Takes a token from the bucket and returns the time (in milliseconds) the
+   * request has to be delayed.
+   */
+  synchronized long reserve() {
+    long now = System.currentTimeMillis();
+    if (limit <= 0 || now >= resetAt) {
+      return 0;
+    }
+    long delay = 0;
+    if (remaining <= 0) {
+      delay = resetAt - now;
+    } else {
+      if (remaining < limit * PACING_THRESHOLD) {
+        long permitAt = Math.max(nextPermitAt, now);
+        nextPermitAt = permitAt + (resetAt - now) / remaining;
+        delay = permitAt - now;
+      }
+      remaining--;
+    }
+    return Math.min(delay, maxDelay);
+  }
+
+  /**
+   * Updates the token bucket from the rate limit headers of the given response.
+   */
+  synchronized void update(HttpHeaders headers) {
+    boolean gitLabHeaders = headers.containsKey(GITLAB_HEADER_PREFIX + "Remaining");
+    String prefix = gitLabHeaders ? GITLAB_HEADER_PREFIX : MATTERMOST_HEADER_PREFIX;
+    long newRemaining = parseLong(headers.getFirst(prefix + "Remaining"));
+    long reset = parseLong(headers.getFirst(prefix + "Reset"));
+    if (newRemaining < 0 || reset < 0) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    long newLimit = parseLong(headers.getFirst(prefix + "Limit"));
+    limit = (int) (newLimit > 0 ? newLimit : Math.max(limit, newRemaining));
+    remaining = (int) newRemaining;
+    resetAt = gitLabHeaders ? TimeUnit.SECONDS.toMillis(reset)
+        : now + TimeUnit.SECONDS.toMillis(reset);
+    if (resetAt <= now) {
+      // Reset time already passed (e.g. due to clock skew) - wait at least until
+      // the next second
+      resetAt = now + 1000;
+    }
+  }
+
+  /**
+   * Marks the budget as exhausted and returns the time (in milliseconds) to wait
+   * before retrying the request.
+   */
+  synchronized long tooManyRequests(HttpHeaders headers) {
+    long now = System.currentTimeMillis();
+    long delay = -1;
+    String retryAfter = headers.getFirst(HttpHeaders.RETRY_AFTER);
+    if (StringUtils.hasText(retryAfter)) {
+      long seconds = parseLong(retryAfter);
+      if (seconds >= 0) {
+        delay = TimeUnit.SECONDS.toMillis(seconds);
+      } else {
+        try {
+          delay = headers.getFirstDate(HttpHeaders.RETRY_AFTER) - now;
+        } catch (IllegalArgumentException e) {
+          LOG.debug("Invalid header {}: {}", HttpHeaders.RETRY_AFTER, retryAfter);
+        }
+      }
+    }
+    if (delay < 0) {
+      delay = limit > 0 && resetAt > now ? resetAt - now : DEFAULT_RETRY_DELAY;
+    }
+    delay = Math.min(delay, maxDelay);
+    if (limit <= 0) {
+      limit = 1;
+    }
+    remaining = 0;
+    resetAt = Math.max(resetAt, now + delay);
+    return delay;
+  }
+
+  /** Returns <code>true</code> if the current thread is handling a web request */
+  private static boolean isInteractive() {
+    return RequestContextHolder.getRequestAttributes() != null;
+  }
+
+  private void sleep(long delay) throws InterruptedIOException {
+    if (delay > 0) {
+      delays.record(delay, TimeUnit.MILLISECONDS);
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for rate limit of '" + name + "'");
+      }
+    }
+  }
+
+  private Mono<Void> delay(long delay) {
+    if (delay > 0) {
+      delays.record(delay, TimeUnit.MILLISECONDS);
+      return Mono.delay(Duration.ofMillis(delay)).then();
+    }
+    return Mono.empty();
+  }
+
+  private static long parseLong(String value) {
+    if (StringUtils.hasText(value)) {
+      try {
+        return Long.parseLong(value.trim());
+      } catch (NumberFormatException e) {
+        // ignore invalid value
+      }
+    }
+    return -1;
+  }
+}
@@ -19,9 +19,13 @@
 package org.vaulttec.http.client;
 
 import java.net.Proxy;
+import java.time.Duration;
 
 public interface RestClientConfig {
 
+  /** Returns name of the upstream server (used for logging and metrics) */
+  String getName();
+
   /** Returns server base URL (without trailing slash) */
   String getServerUrl();
 
@@ -31,4 +35,61 @@ public interface RestClientConfig {
   int getPerPage();
 
   Proxy getProxy();
+
+  /** Returns HTTP protocol version used for the synchronous API calls */
+  HttpVersion getHttpVersion();
+
+  /** Returns maximum number of pooled connections */
+  int getMaxConnections();
+
+  /** Returns maximum number of pooled connections per route (host) */
+  int getMaxConnectionsPerRoute();
+
+  /** Returns time after which idle connections are evicted from the pool */
+  Duration getIdleConnectionTimeout();
+
+  /** Returns maximum time to establish a connection */
+  Duration getConnectTimeout();
+
+  /** Returns maximum time to wait for data from the server */
+  Duration getReadTimeout();
+
+  /** Returns maximum time a list API call may take to retrieve all of its pages */
+  Duration getListDeadline();
+
+  /** Returns number of connections opened once the application is ready */
+  int getWarmUpConnections();
+
+  /** Returns <code>true</code> if responses are cached for conditional GET requests */
+  boolean isCacheEnabled();
+
+  /** Returns maximum number of responses cached for conditional GET requests */
+  int getCacheSize();
+
+  /** Returns <code>true</code> if compressed responses (gzip, deflate) are requested */
+  boolean isCompressionEnabled();
+
+  /** Returns <code>true</code> if requests are paced according to the server's rate limit headers */
+  boolean isRateLimitEnabled();
+
+  /** Returns maximum number of retries for requests rejected with "429 Too Many Requests" */
+  int getRateLimitMaxRetries();
+
+  /** Returns maximum time a request is delayed due to the server's rate limit */
+  Duration getRateLimitMaxDelay();
+
+  /** Returns maximum total time a request sent while handling a web request waits due to the server's rate limit */
+  Duration getRateLimitMaxInteractiveWait();
+
+  /** Returns <code>true</code> if requests are rejected while the server is failing */
+  boolean isCircuitBreakerEnabled();
+
+  /** Returns failure rate (in percent) which opens the circuit breaker */
+  int getCircuitBreakerFailureRateThreshold();
+
+  /** Returns number of requests the failure rate is calculated from */
+  int getCircuitBreakerSlidingWindowSize();
+
+  /** Returns time the circuit breaker stays open before a probe request is permitted */
+  Duration getCircuitBreakerWaitDuration();
 }
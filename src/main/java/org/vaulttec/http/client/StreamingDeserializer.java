@@ -0,0 +1,107 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Date;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+/**
+ * Base class for hand-written deserializers of entities which are read in
+ * large numbers. The fields are matched directly from the token stream and
+ * the values of unknown fields are skipped without being parsed.
+ */
+public abstract class StreamingDeserializer<T> extends StdDeserializer<T> {
+  private static final long serialVersionUID = 1L;
+
+  protected StreamingDeserializer(Class<T> type) {
+    super(type);
+  }
+
+  protected abstract T createEntity();
+
+  /**
+   * Reads the value of the given field into the given entity. The parser is
+   * positioned at the field's value and has to be left at the value's last
+   * token.
+   *
+   * @return <code>false</code> if the field is unknown (its value is skipped)
+   */
+  protected abstract boolean readField(JsonParser parser, DeserializationContext context, T entity, String field)
+      throws IOException;
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+    String field;
+    if (parser.isExpectedStartObjectToken()) {
+      field = parser.nextFieldName();
+    } else if (parser.hasToken(JsonToken.FIELD_NAME)) {
+      field = parser.getCurrentName();
+    } else {
+      return (T) context.handleUnexpectedToken(handledType(), parser);
+    }
+    T entity = createEntity();
+    for (; field != null; field = parser.nextFieldName()) {
+      parser.nextToken();
+      if (!readField(parser, context, entity, field)) {
+        parser.skipChildren();
+      }
+    }
+    return entity;
+  }
+
+  /**
+   * Returns the text of a scalar value (numbers and booleans included) or
+   * <code>null</code> for <code>null</code>, objects and arrays.
+   */
+  public static String readText(JsonParser parser) throws IOException {
+    if (parser.currentToken().isStructStart()) {
+      parser.skipChildren();
+      return null;
+    }
+    return parser.getValueAsString();
+  }
+
+  public static URL readUrl(JsonParser parser, DeserializationContext context) throws IOException {
+    String text = readText(parser);
+    if (text == null || text.isEmpty()) {
+      return null;
+    }
+    try {
+      return new URL(text);
+    } catch (MalformedURLException e) {
+      throw context.weirdStringException(text, URL.class, e.getMessage());
+    }
+  }
+
+  /** Returns the date of a timestamp (milliseconds since epoch) or a date string */
+  public static Date readDate(JsonParser parser, DeserializationContext context) throws IOException {
+    if (parser.hasToken(JsonToken.VALUE_NUMBER_INT)) {
+      return new Date(parser.getLongValue());
+    }
+    String text = readText(parser);
+    return text == null || text.isEmpty() ? null : context.parseDate(text);
+  }
+}
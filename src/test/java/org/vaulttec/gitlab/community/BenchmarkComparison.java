@@ -0,0 +1,114 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares two JMH result files (JSON) and prints the change of the score and
+ * the allocated bytes per operation for every benchmark contained in both.
+ * Changes for the worse exceeding the threshold (default 10%) are marked as
+ * regression and make the comparison fail with exit code 1.
+ * <p>
+ * Usage:
+ * <code>BenchmarkComparison &lt;baseline.json&gt; &lt;result.json&gt; [threshold in %]</code>
+ */
+public class BenchmarkComparison {
+
+  private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: BenchmarkComparison <baseline.json> <result.json> [threshold in %]");
+      System.exit(2);
+    }
+    double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+    Map<String, JsonNode> baseline = readResults(new File(args[0]));
+    Map<String, JsonNode> results = readResults(new File(args[1]));
+    int regressions = 0;
+    System.out.printf("%-100s %14s %14s %8s %14s %8s%n", "Benchmark", "Baseline", "Result", "Change", "B/op",
+        "Change");
+    for (Map.Entry<String, JsonNode> entry : results.entrySet()) {
+      JsonNode base = baseline.get(entry.getKey());
+      if (base == null) {
+        continue;
+      }
+      JsonNode result = entry.getValue();
+      double change = getChange(base.path("primaryMetric").path("score").asDouble(),
+          result.path("primaryMetric").path("score").asDouble());
+      // Higher is better only for throughput
+      boolean regression = "thrpt".equals(result.path("mode").asText()) ? change < -threshold : change > threshold;
+      double baseAllocation = getAllocation(base);
+      double allocation = getAllocation(result);
+      double allocationChange = getChange(baseAllocation, allocation);
+      regression |= allocationChange > threshold && allocation - baseAllocation > 16;
+      if (regression) {
+        regressions++;
+      }
+      System.out.printf("%-100s %14.3f %14.3f %+7.1f%% %14.0f %+7.1f%%%s%n", entry.getKey(),
+          base.path("primaryMetric").path("score").asDouble(), result.path("primaryMetric").path("score").asDouble(),
+          change, allocation, allocationChange, regression ? "  REGRESSION" : "");
+    }
+    System.out.printf("%d regression(s) exceeding %.1f%%%n", regressions, threshold);
+    if (regressions > 0) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Returns the results by benchmark name, mode and parameters.
+   */
+  private static Map<String, JsonNode> readResults(File file) throws IOException {
+    Map<String, JsonNode> results = new LinkedHashMap<>();
+    for (JsonNode result : new ObjectMapper().readTree(file)) {
+      Map<String, String> params = new TreeMap<>();
+      Iterator<Map.Entry<String, JsonNode>> fields = result.path("params").fields();
+      while (fields.hasNext()) {
+        Map.Entry<String, JsonNode> field = fields.next();
+        params.put(field.getKey(), field.getValue().asText());
+      }
+      String benchmark = result.path("benchmark").asText();
+      results.put(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1) + " "
+          + result.path("mode").asText() + (params.isEmpty() ? "" : " " + params), result);
+    }
+    return results;
+  }
+
+  private static double getAllocation(JsonNode result) {
+    Iterator<Map.Entry<String, JsonNode>> metrics = result.path("secondaryMetrics").fields();
+    while (metrics.hasNext()) {
+      Map.Entry<String, JsonNode> metric = metrics.next();
+      if (metric.getKey().endsWith(ALLOCATION_METRIC)) {
+        return metric.getValue().path("score").asDouble();
+      }
+    }
+    return Double.NaN;
+  }
+
+  private static double getChange(double base, double value) {
+    return base != 0 ? (value - base) * 100 / base : 0;
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.vaulttec.gitlab.community.gitlab.GitLabClient;
+import org.vaulttec.gitlab.community.gitlab.GitLabClientConfig;
+import org.vaulttec.gitlab.community.gitlab.GitLabRepository;
+import org.vaulttec.gitlab.community.mattermost.MattermostClient;
+import org.vaulttec.gitlab.community.mattermost.MattermostClientConfig;
+import org.vaulttec.gitlab.community.mattermost.MattermostRepository;
+import org.vaulttec.gitlab.community.model.Member;
+import org.vaulttec.gitlab.community.simulator.GitLabSimulator;
+import org.vaulttec.gitlab.community.simulator.MattermostSimulator;
+import org.vaulttec.gitlab.community.simulator.SimulatedCommunity;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Measures a complete refresh ({@link CommunityRefresher#refresh()}) and the
+ * member list of the web UI for communities of 1k, 10k and 100k users (200
+ * topics with 50 members each) which are served by the upstream simulators.
+ * The simulators answer without latency unless "latencyMillis" is given.
+ * <p>
+ * The repositories and clients are wired by a minimal Spring context, so the
+ * caches behave like in the application.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommunityRefreshBenchmark {
+
+  private static final int TOPICS = 200;
+  private static final int TOPIC_MEMBERS = 50;
+
+  @Param({ "1000", "10000", "100000" })
+  private int users;
+
+  @Param({ "0" })
+  private long latencyMillis;
+
+  private GitLabSimulator gitLabSimulator;
+  private MattermostSimulator mattermostSimulator;
+  private AnnotationConfigApplicationContext context;
+  private CommunityRefresher refresher;
+  private CommunityService service;
+
+  @Setup
+  public void setUp() throws IOException {
+    SimulatedCommunity community = new SimulatedCommunity(users, TOPICS, TOPIC_MEMBERS);
+    gitLabSimulator = new GitLabSimulator(community);
+    gitLabSimulator.setLatency(latencyMillis, TimeUnit.MILLISECONDS);
+    mattermostSimulator = new MattermostSimulator(community);
+    mattermostSimulator.setLatency(latencyMillis, TimeUnit.MILLISECONDS);
+
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("gitlab.server-url", gitLabSimulator.start());
+    properties.put("gitlab.personal-access-token", "token");
+    properties.put("mattermost.server-url", mattermostSimulator.start());
+    properties.put("mattermost.personal-access-token", "token");
+    properties.put("community.group-path", SimulatedCommunity.GROUP_PATH);
+    properties.put("community.topic-permission", "DEVELOPER");
+    properties.put("community.admin-usernames", "user1");
+    properties.put("community.excluded-usernames", "root");
+    context = new AnnotationConfigApplicationContext();
+    context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("simulator", properties));
+    context.register(RefreshConfig.class);
+    context.refresh();
+
+    // Created outside of the context to keep the refresh from being scheduled
+    refresher = context.getAutowireCapableBeanFactory().createBean(CommunityRefresher.class);
+    service = context.getBean(CommunityService.class);
+    refresher.refresh();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    context.close();
+    gitLabSimulator.close();
+    mattermostSimulator.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void refresh() {
+    refresher.refresh();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Page<Member> getMembersPaged() {
+    return service.getMembersPaged(PageRequest.of(0, 20, Sort.by("name")));
+  }
+
+  // No @Configuration - otherwise the component scan of the application would pick it up
+  @EnableCaching
+  @EnableConfigurationProperties
+  @Import({ CommunityConfig.class, CommunityRepository.class, CommunityService.class, GitLabClientConfig.class,
+      GitLabClient.class, GitLabRepository.class, MattermostClientConfig.class, MattermostClient.class,
+      MattermostRepository.class })
+  static class RefreshConfig {
+
+    @Bean
+    public CacheManager cacheManager() {
+      return new ConcurrentMapCacheManager();
+    }
+
+    @Bean
+    public MeterRegistry meterRegistry() {
+      return new SimpleMeterRegistry();
+    }
+
+    @Bean
+    public RestTemplateBuilder restTemplateBuilder() {
+      return new RestTemplateBuilder();
+    }
+
+    @Bean
+    public WebClient.Builder webClientBuilder() {
+      return WebClient.builder();
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommunityRepositoryTest {
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testForEachGroupOrderAndConcurrency() {
+    AtomicInteger calls = new AtomicInteger();
+    AtomicInteger maxCalls = new AtomicInteger();
+    List<Integer> groups = IntStream.range(0, 20).boxed().collect(Collectors.toList());
+    List<Integer> results = CommunityRepository.forEachGroup(executor, groups, 3, group -> {
+      maxCalls.accumulateAndGet(calls.incrementAndGet(), Math::max);
+      try {
+        // Later groups complete earlier
+        Thread.sleep(20 - group);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      calls.decrementAndGet();
+      return group * 2;
+    });
+    assertEquals(groups.stream().map(group -> group * 2).collect(Collectors.toList()), results);
+    assertTrue(maxCalls.get() > 1);
+    assertTrue(maxCalls.get() <= 3);
+  }
+
+  @Test
+  public void testForEachGroupFailure() throws InterruptedException {
+    IllegalStateException failure = new IllegalStateException("Failed");
+    CountDownLatch blockedCalls = new CountDownLatch(1);
+    CountDownLatch cancelledCalls = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    List<Integer> groups = IntStream.range(0, 10).boxed().collect(Collectors.toList());
+    try {
+      CommunityRepository.forEachGroup(executor, groups, 2, group -> {
+        calls.incrementAndGet();
+        if (group == 1) {
+          try {
+            blockedCalls.countDown();
+            Thread.sleep(10000);
+          } catch (InterruptedException e) {
+            cancelledCalls.countDown();
+          }
+          return group;
+        }
+        try {
+          blockedCalls.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        throw failure;
+      });
+      fail("Failure not rethrown");
+    } catch (IllegalStateException e) {
+      assertSame(failure, e);
+    }
+
+    // The blocked call is cancelled and no further calls are started
+    assertTrue(cancelledCalls.await(10, TimeUnit.SECONDS));
+    assertEquals(2, calls.get());
+  }
+}
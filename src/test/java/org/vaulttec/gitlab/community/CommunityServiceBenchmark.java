@@ -0,0 +1,252 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.objenesis.SpringObjenesis;
+import org.vaulttec.gitlab.community.gitlab.model.GLGroup;
+import org.vaulttec.gitlab.community.gitlab.model.GLUser;
+import org.vaulttec.gitlab.community.mattermost.model.MMChannel;
+import org.vaulttec.gitlab.community.mattermost.model.MMTeam;
+import org.vaulttec.gitlab.community.model.Community;
+import org.vaulttec.gitlab.community.model.Member;
+import org.vaulttec.gitlab.community.model.Topic;
+
+/**
+ * Measures the {@link CommunityService} methods used by every page view for
+ * communities with 1k to 200k members and 50 to 5k topics. Every member joined
+ * 3 random topics on average. The pages (20 entries) are requested for every
+ * sort key at the first, middle and last page position.
+ * <p>
+ * Throughput and the latency distribution (sample mode) are measured, the
+ * allocation rate is reported by the "gc" profiler of the benchmark profile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommunityServiceBenchmark {
+
+  private static final int PAGE_SIZE = 20;
+
+  @Param({ "1000", "20000", "200000" })
+  private int members;
+
+  @Param({ "50", "500", "5000" })
+  private int topics;
+
+  private CommunityService service;
+  private List<Member> memberList;
+  private List<Topic> topicList;
+  private int nextMember;
+  private int nextTopic;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    Map<String, Member> memberMap = new HashMap<>();
+    for (int i = 0; i < members; i++) {
+      GLUser user = new GLUser();
+      user.setId(Integer.toString(i));
+      user.setUsername("user" + i);
+      user.setName("User " + random.nextInt(members));
+      user.addCustomAttribute(GLUser.CUSTOM_ATTRIBUTE_JOINED,
+          LocalDate.of(2018, 1, 1).plusDays(random.nextInt(1000)).format(GLUser.JOINED_FORMATTER));
+      memberMap.put(user.getUsername(), new Member(user, false));
+    }
+    Map<String, Topic> topicMap = new HashMap<>();
+    Map<String, Set<Member>> topicMembers = new HashMap<>();
+    for (int i = 0; i < topics; i++) {
+      GLGroup group = new GLGroup();
+      group.setId(Integer.toString(i));
+      group.setPath("topic-" + i);
+      group.setName("Topic " + random.nextInt(topics));
+      group.setDescription("Description of topic " + random.nextInt(topics));
+      MMChannel channel = new MMChannel();
+      channel.setId("channel" + i);
+      channel.setMessageCount(random.nextInt(10000));
+      channel.setCreateAt(new Date(0));
+      channel.setLastPostAt(new Date(TimeUnit.DAYS.toMillis(random.nextInt(1000))));
+      Topic topic = new Topic(group, channel);
+      topicMap.put(topic.getPath(), topic);
+      topicMembers.put(topic.getPath(), new HashSet<>());
+    }
+    memberList = new ArrayList<>(memberMap.values());
+    topicList = new ArrayList<>(topicMap.values());
+    memberList.forEach(member -> {
+      for (int i = random.nextInt(7); i > 0; i--) {
+        topicMembers.get(topicList.get(random.nextInt(topics)).getPath()).add(member);
+      }
+    });
+    service = new CommunityService(BenchmarkRepository.create(memberMap, topicMap, topicMembers));
+  }
+
+  @State(Scope.Thread)
+  public static class MemberPage {
+
+    @Param({ "username", "name", "joined" })
+    private String sort;
+
+    @Param({ "first", "middle", "last" })
+    private String position;
+
+    private Pageable pageable;
+
+    @Setup(Level.Trial)
+    public void setUp(CommunityServiceBenchmark benchmark) {
+      pageable = createPageable(benchmark.members, sort, position);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class TopicPage {
+
+    @Param({ "path", "name", "description", "messageCount", "lastPostAt" })
+    private String sort;
+
+    @Param({ "first", "middle", "last" })
+    private String position;
+
+    private Pageable pageable;
+
+    @Setup(Level.Trial)
+    public void setUp(CommunityServiceBenchmark benchmark) {
+      pageable = createPageable(benchmark.topics, sort, position);
+    }
+  }
+
+  private static Pageable createPageable(int entries, String sort, String position) {
+    int lastPage = (entries - 1) / PAGE_SIZE;
+    int page = "first".equals(position) ? 0 : "middle".equals(position) ? lastPage / 2 : lastPage;
+    return PageRequest.of(page, PAGE_SIZE, Sort.by(sort));
+  }
+
+  @Benchmark
+  public Page<Member> getMembersPaged(MemberPage page) {
+    return service.getMembersPaged(page.pageable);
+  }
+
+  @Benchmark
+  public Page<Topic> getTopicsPaged(TopicPage page) {
+    return service.getTopicsPaged(page.pageable);
+  }
+
+  @Benchmark
+  public Collection<Topic> getTopicsForMember() {
+    return service.getTopicsForMember(nextMember());
+  }
+
+  @Benchmark
+  public Map<String, Collection<Topic>> getMemberTopics() {
+    return service.getMemberTopics();
+  }
+
+  @Benchmark
+  public boolean isTopicMember() {
+    return service.isTopicMember(nextTopic(), nextMember().getUsername());
+  }
+
+  private Member nextMember() {
+    nextMember = (nextMember + 1) % memberList.size();
+    return memberList.get(nextMember);
+  }
+
+  private Topic nextTopic() {
+    nextTopic = (nextTopic + 1) % topicList.size();
+    return topicList.get(nextTopic);
+  }
+
+  /**
+   * Repository with prepared data. It's instantiated without calling the
+   * constructor, which would retrieve the community from the upstream servers.
+   */
+  static class BenchmarkRepository extends CommunityRepository {
+    private Community community;
+    private Map<String, Member> members;
+    private Map<String, Topic> topics;
+    private Map<String, Set<Member>> topicMembers;
+
+    private BenchmarkRepository() {
+      super(null, null, null, null, null);
+    }
+
+    static BenchmarkRepository create(Map<String, Member> members, Map<String, Topic> topics,
+        Map<String, Set<Member>> topicMembers) {
+      BenchmarkRepository repository = new SpringObjenesis().newInstance(BenchmarkRepository.class);
+      GLGroup group = new GLGroup();
+      group.setId("0");
+      group.setPath("community");
+      MMTeam team = new MMTeam();
+      team.setId("team");
+      repository.community = new Community(new CommunityConfig(), group, team);
+      repository.members = members;
+      repository.topics = topics;
+      repository.topicMembers = topicMembers;
+      return repository;
+    }
+
+    @Override
+    public Community getCommunity() {
+      return community;
+    }
+
+    @Override
+    public Map<String, Member> getMembers() {
+      return members;
+    }
+
+    @Override
+    public Map<String, Topic> getTopics() {
+      return topics;
+    }
+
+    @Override
+    public Map<String, Set<Member>> getTopicMembers() {
+      return topicMembers;
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.vaulttec.gitlab.community.gitlab.model.GLCustomAttribute;
+import org.vaulttec.gitlab.community.gitlab.model.GLGroup;
+import org.vaulttec.gitlab.community.gitlab.model.GLGroupMember;
+import org.vaulttec.gitlab.community.gitlab.model.GLPermission;
+import org.vaulttec.gitlab.community.gitlab.model.GLUser;
+import org.vaulttec.gitlab.community.mattermost.model.MMChannel;
+import org.vaulttec.gitlab.community.mattermost.model.MMMember;
+import org.vaulttec.gitlab.community.mattermost.model.MMUser;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+/**
+ * Decodes recorded pages with 100 entities each via the streaming
+ * deserializers of the models and via Jackson's reflective bean deserializer.
+ * The score is per entity - run with "-prof gc" for the allocation per entity
+ * ("gc.alloc.rate.norm").
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonDecodingBenchmark {
+
+  private static final int ENTITIES_PER_PAGE = 100;
+
+  @Param({ "gitlab-users", "gitlab-group-members", "mattermost-users", "mattermost-channel-members" })
+  private String page;
+
+  private byte[] content;
+  private ObjectReader streamingReader;
+  private ObjectReader reflectiveReader;
+
+  @Setup
+  public void setUp() throws IOException {
+    content = readPage(page);
+    Class<?> type = getEntityType(page);
+    ObjectMapper streamingMapper = Jackson2ObjectMapperBuilder.json().build();
+    streamingReader = streamingMapper.readerFor(streamingMapper.getTypeFactory().constructCollectionType(List.class,
+        type));
+    ObjectMapper reflectiveMapper = createReflectiveObjectMapper();
+    reflectiveReader = reflectiveMapper.readerFor(reflectiveMapper.getTypeFactory()
+        .constructCollectionType(List.class, type));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ENTITIES_PER_PAGE)
+  public List<?> streaming() throws IOException {
+    return streamingReader.readValue(content);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ENTITIES_PER_PAGE)
+  public List<?> reflective() throws IOException {
+    return reflectiveReader.readValue(content);
+  }
+
+  static byte[] readPage(String page) throws IOException {
+    try (InputStream in = JsonDecodingBenchmark.class.getResourceAsStream(page + ".json")) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  static Class<?> getEntityType(String page) {
+    switch (page) {
+    case "gitlab-users":
+      return GLUser.class;
+    case "gitlab-group-members":
+      return GLGroupMember.class;
+    case "mattermost-users":
+      return MMUser.class;
+    case "mattermost-channel-members":
+      return MMMember.class;
+    default:
+      throw new IllegalArgumentException("Unknown page: " + page);
+    }
+  }
+
+  /**
+   * Returns an object mapper which ignores the streaming deserializers of the
+   * models and maps the JSON properties of the recorded pages via mix-ins.
+   */
+  static ObjectMapper createReflectiveObjectMapper() {
+    return Jackson2ObjectMapperBuilder.json().mixIn(GLUser.class, GLUserMixIn.class)
+        .mixIn(GLGroup.class, ReflectiveMixIn.class).mixIn(GLGroupMember.class, GLGroupMemberMixIn.class)
+        .mixIn(MMUser.class, ReflectiveMixIn.class).mixIn(MMChannel.class, ReflectiveMixIn.class)
+        .mixIn(MMMember.class, MMMemberMixIn.class).build();
+  }
+
+  @JsonDeserialize(using = JsonDeserializer.None.class)
+  private abstract static class ReflectiveMixIn {
+  }
+
+  @JsonDeserialize(using = JsonDeserializer.None.class)
+  private abstract static class GLUserMixIn {
+    @JsonAlias("avatar_url")
+    private URL avatar;
+    @JsonAlias("web_url")
+    private URL profile;
+    @JsonAlias("updated_at")
+    private Date updatedAt;
+
+    @JsonSetter("custom_attributes")
+    public abstract void setCustomAttributes(List<GLCustomAttribute> customAttributes);
+  }
+
+  @JsonDeserialize(using = JsonDeserializer.None.class)
+  private abstract static class GLGroupMemberMixIn {
+    @JsonAlias("access_level")
+    private GLPermission permission;
+  }
+
+  @JsonDeserialize(using = JsonDeserializer.None.class)
+  private abstract static class MMMemberMixIn {
+    @JsonAlias("user_id")
+    private String userId;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.vaulttec.gitlab.community.gitlab.model.GLGroup;
+import org.vaulttec.gitlab.community.gitlab.model.GLUser;
+import org.vaulttec.gitlab.community.mattermost.model.MMChannel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class StreamingDeserializerTest {
+
+  private final ObjectMapper streamingMapper = Jackson2ObjectMapperBuilder.json().build();
+  private final ObjectMapper reflectiveMapper = JsonDecodingBenchmark.createReflectiveObjectMapper();
+
+  @Test
+  public void testRecordedPages() throws Exception {
+    for (String page : new String[] { "gitlab-users", "gitlab-group-members", "mattermost-users",
+        "mattermost-channel-members" }) {
+      byte[] content = JsonDecodingBenchmark.readPage(page);
+      Class<?> type = JsonDecodingBenchmark.getEntityType(page);
+      List<?> expected = reflectiveMapper.readValue(content,
+          reflectiveMapper.getTypeFactory().constructCollectionType(List.class, type));
+      List<?> actual = streamingMapper.readValue(content,
+          streamingMapper.getTypeFactory().constructCollectionType(List.class, type));
+      assertEquals(page, expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(page + "[" + i + "]", expected.get(i).toString(), actual.get(i).toString());
+      }
+    }
+  }
+
+  @Test
+  public void testGroup() throws Exception {
+    GLGroup group = streamingMapper.readValue("{\"id\":42,\"path\":\"community\",\"name\":\"Community\","
+        + "\"description\":\"Text<!--cut here-->Hidden\",\"avatar_url\":null,"
+        + "\"web_url\":\"https://gitlab.example.com/groups/community\",\"projects\":[{\"id\":1}],"
+        + "\"custom_attributes\":[{\"key\":\"k\",\"value\":\"v\"}]}", GLGroup.class);
+
+    assertEquals("42", group.getId());
+    assertEquals("community", group.getPath());
+    assertEquals("Text", group.getDescription());
+    assertNull(group.getAvatar());
+    assertEquals("https://gitlab.example.com/groups/community", group.getProfile().toString());
+    assertEquals("v", group.getCustomAttribute("k"));
+  }
+
+  @Test
+  public void testChannel() throws Exception {
+    MMChannel channel = streamingMapper.readValue("{\"id\":\"abc\",\"name\":\"town-square\","
+        + "\"display_name\":\"Town Square\",\"type\":\"P\",\"total_msg_count\":12,\"create_at\":1546300800000,"
+        + "\"delete_at\":0,\"props\":{\"a\":[1,2]},\"last_post_at\":1577836800000}", MMChannel.class);
+
+    assertEquals("abc", channel.getId());
+    assertEquals("Town Square", channel.getDisplayName());
+    assertTrue(channel.isPrivate());
+    assertEquals(12, channel.getMessageCount());
+    assertEquals(1546300800000L, channel.getCreateAt().getTime());
+    assertEquals(1577836800000L, channel.getLastPostAt().getTime());
+    assertEquals(0, channel.getDeleteAt().getTime());
+  }
+
+  @Test
+  public void testUserWithoutCustomAttributes() throws Exception {
+    GLUser user = streamingMapper.readValue("{\"id\":1,\"username\":\"jdoe\",\"identities\":[],"
+        + "\"custom_attributes\":null}", GLUser.class);
+
+    assertEquals("1", user.getId());
+    assertEquals("jdoe", user.getUsername());
+    assertNull(user.getJoined());
+  }
+}
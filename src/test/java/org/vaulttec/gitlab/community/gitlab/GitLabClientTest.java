@@ -0,0 +1,178 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.gitlab;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.vaulttec.gitlab.community.gitlab.model.GLGroup;
+import org.vaulttec.gitlab.community.gitlab.model.GLGroupMember;
+import org.vaulttec.gitlab.community.gitlab.model.GLPermission;
+import org.vaulttec.gitlab.community.gitlab.model.GLUser;
+import org.vaulttec.gitlab.community.simulator.GitLabSimulator;
+import org.vaulttec.gitlab.community.simulator.SimulatedCommunity;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class GitLabClientTest {
+
+  private SimulatedCommunity community;
+  private GitLabSimulator simulator;
+  private GitLabClientConfig config;
+  private final List<GitLabClient> clients = new ArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    community = new SimulatedCommunity(1000, 5, 50);
+    simulator = new GitLabSimulator(community);
+    config = new GitLabClientConfig(new MockEnvironment());
+    config.setServerUrl(simulator.start());
+    config.setPersonalAccessToken("token");
+    config.setPerPage(100);
+    config.setCircuitBreakerEnabled(false);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    clients.forEach(GitLabClient::close);
+    simulator.close();
+  }
+
+  private GitLabClient createClient() {
+    GitLabClient client = new GitLabClient(config, new RestTemplateBuilder(), WebClient.builder(),
+        new SimpleMeterRegistry());
+    clients.add(client);
+    return client;
+  }
+
+  @Test
+  public void testActiveUsers() {
+    for (boolean keysetPagination : new boolean[] { true, false }) {
+      config.setKeysetPagination(keysetPagination);
+      GitLabClient client = createClient();
+      List<GLUser> users = client.getActiveUsers();
+      assertNotNull(users);
+      assertEquals(community.getActiveUserCount(), users.size());
+      assertEquals(users.size(), users.stream().map(GLUser::getUsername).distinct().count());
+      assertTrue(users.stream().anyMatch(user -> user.hasCustomAttribute(GLUser.CUSTOM_ATTRIBUTE_JOINED)));
+    }
+  }
+
+  @Test
+  public void testUsersById() {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    GitLabClient client = new GitLabClient(config, new RestTemplateBuilder(), WebClient.builder(), meterRegistry);
+    clients.add(client);
+    // Unknown users are skipped
+    List<GLUser> users = client.getUsers(Arrays.asList("1", "2", "3", "99999"));
+    assertNotNull(users);
+    assertEquals(Arrays.asList("1", "2", "3"), users.stream().map(GLUser::getId).collect(Collectors.toList()));
+    assertEquals(4, meterRegistry.get("http.client.api.calls").timers().stream().mapToLong(Timer::count).sum());
+    simulator.setErrorRate(1.0);
+    assertNull(client.getUsers(Arrays.asList("1", "2")));
+  }
+
+  @Test
+  public void testGroupMembers() throws Exception {
+    GitLabClient client = createClient();
+    GLGroup group = client.getGroup(SimulatedCommunity.GROUP_PATH);
+    assertNotNull(group);
+    // Keyset pagination is rejected for group members
+    Set<String> usernames = client.getGroupMembers(group.getId()).stream().map(GLGroupMember::getUsername)
+        .collect(Collectors.toSet());
+    assertEquals(community.getGroupMembers(SimulatedCommunity.GROUP_PATH), usernames);
+    assertEquals(community.getMemberCount(), client.getGroupMembersAsync(group.getId()).get().size());
+    assertEquals(community.getTopicCount(), client.getSubGroups(group.getId()).size());
+  }
+
+  @Test
+  public void testSubGroupMembers() {
+    config.setPerPage(20);
+    config.setGraphqlEnabled(true);
+    GitLabClient client = createClient();
+    GLGroup group = client.getGroup(SimulatedCommunity.GROUP_PATH);
+    List<GLGroup> subGroups = client.getSubGroups(group.getId());
+    // Nested subgroups are skipped
+    assertNotNull(client.createSubGroup(subGroups.get(0).getId(), "nested", "Nested", "Description"));
+    Map<String, List<GLGroupMember>> subGroupMembers = client.getSubGroupMembers(SimulatedCommunity.GROUP_PATH);
+    assertNotNull(subGroupMembers);
+    assertEquals(community.getTopicCount() - 1, subGroupMembers.size());
+    subGroups.forEach(subGroup -> {
+      List<GLGroupMember> members = subGroupMembers.get(subGroup.getPath());
+      assertEquals(client.getGroupMembers(subGroup.getId()), members);
+      assertTrue(members.stream().allMatch(member -> member.getId() != null
+          && member.getPermission() == GLPermission.DEVELOPER));
+    });
+    assertNull(client.getSubGroupMembers("unknown"));
+    config.setGraphqlEnabled(false);
+    assertNull(client.getSubGroupMembers(SimulatedCommunity.GROUP_PATH));
+  }
+
+  @Test
+  public void testSubGroup() {
+    GitLabClient client = createClient();
+    GLGroup group = client.getGroup(SimulatedCommunity.GROUP_PATH);
+    GLGroup subGroup = client.createSubGroup(group.getId(), "new-topic", "New Topic", "Description");
+    assertNotNull(subGroup);
+    assertNull(client.createSubGroup(group.getId(), "new-topic", "New Topic", "Description"));
+    assertTrue(client.addMemberToGroup(subGroup.getId(), "1", GLPermission.DEVELOPER));
+    assertEquals(1, community.getGroupMembers(SimulatedCommunity.GROUP_PATH + "/new-topic").size());
+    assertTrue(client.removeMemberFromGroup(subGroup.getId(), "1"));
+    assertFalse(client.removeMemberFromGroup(subGroup.getId(), "1"));
+    assertEquals("Renamed", client.updateGroup(subGroup.getId(), "new-topic", "Renamed", "").getName());
+    assertTrue(client.deleteGroup(subGroup.getId()));
+    assertNull(community.getGroupMembers(SimulatedCommunity.GROUP_PATH + "/new-topic"));
+  }
+
+  @Test
+  public void testRateLimit() {
+    simulator.setRateLimit(4, 1, TimeUnit.SECONDS);
+    config.setKeysetPagination(false);
+    GitLabClient client = createClient();
+    List<GLUser> users = client.getActiveUsers();
+    assertNotNull(users);
+    assertEquals(community.getActiveUserCount(), users.size());
+  }
+
+  @Test
+  public void testServerErrors() {
+    simulator.setErrorRate(1.0);
+    GitLabClient client = createClient();
+    assertNull(client.getActiveUsers());
+    assertNull(client.getGroup(SimulatedCommunity.GROUP_PATH));
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.gitlab;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.vaulttec.gitlab.community.CommunityConfig;
+import org.vaulttec.gitlab.community.gitlab.model.GLGroupMember;
+import org.vaulttec.gitlab.community.gitlab.model.GLUser;
+import org.vaulttec.gitlab.community.simulator.GitLabSimulator;
+import org.vaulttec.gitlab.community.simulator.SimulatedCommunity;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class GitLabRepositoryTest {
+
+  private SimulatedCommunity community;
+  private GitLabSimulator simulator;
+  private GitLabClient client;
+  private CommunityConfig communityConfig;
+
+  @Before
+  public void setUp() throws IOException {
+    community = new SimulatedCommunity(1000, 5, 50);
+    simulator = new GitLabSimulator(community);
+    GitLabClientConfig config = new GitLabClientConfig(new MockEnvironment());
+    config.setServerUrl(simulator.start());
+    config.setPersonalAccessToken("token");
+    config.setPerPage(100);
+    config.setCircuitBreakerEnabled(false);
+    client = new GitLabClient(config, new RestTemplateBuilder(), WebClient.builder(), new SimpleMeterRegistry());
+    communityConfig = new CommunityConfig();
+    communityConfig.setIncrementalUserSync(true);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    client.close();
+    simulator.close();
+  }
+
+  @Test
+  public void testIncrementalUserSync() {
+    GitLabRepository repository = new GitLabRepository(client, communityConfig);
+    Map<String, GLUser> users = repository.getUsers();
+    assertEquals(community.getActiveUserCount(), users.size());
+
+    community.renameUser("user10", "Renamed User");
+    community.blockUser("user11");
+    int requests = simulator.getRequestCount();
+    assertSame(users, repository.refreshUsers());
+    assertEquals(1, simulator.getRequestCount() - requests);
+    assertEquals("Renamed User", users.get("user10").getName());
+    assertFalse(users.containsKey("user11"));
+    assertEquals(community.getActiveUserCount(), users.size());
+
+    // Nothing changed since the last refresh
+    assertSame(users, repository.refreshUsers());
+    assertEquals("Renamed User", users.get("user10").getName());
+  }
+
+  @Test
+  public void testFullUserSync() {
+    communityConfig.setFullUserSyncInterval(Duration.ZERO);
+    GitLabRepository repository = new GitLabRepository(client, communityConfig);
+    Map<String, GLUser> users = repository.getUsers();
+    community.blockUser("user10");
+    int requests = simulator.getRequestCount();
+    Map<String, GLUser> refreshedUsers = repository.refreshUsers();
+    assertTrue(simulator.getRequestCount() - requests > 1);
+    assertFalse(refreshedUsers.containsKey("user10"));
+    assertEquals(users.size() - 1, refreshedUsers.size());
+  }
+
+  @Test
+  public void testGroupUsersOnly() {
+    communityConfig.setGroupPath(SimulatedCommunity.GROUP_PATH);
+    communityConfig.setGroupUsersOnly(true);
+    GitLabRepository repository = new GitLabRepository(client, communityConfig);
+    Map<String, GLUser> users = repository.getUsers();
+    assertEquals(community.getMemberCount(), users.size());
+    assertTrue(users.size() < community.getActiveUserCount());
+    assertTrue(users.values().stream()
+        .anyMatch(user -> user.hasCustomAttribute(SimulatedCommunity.CUSTOM_ATTRIBUTE_JOINED)));
+
+    // The subgroup members are handed over once
+    Map<String, List<GLGroupMember>> subGroupMembers = repository.takeSubGroupMembers();
+    assertEquals(community.getTopicCount(), subGroupMembers.size());
+    String topicPath = SimulatedCommunity.TOPIC_PATH_PREFIX + 1;
+    assertEquals(community.getGroupMembers(SimulatedCommunity.GROUP_PATH + "/" + topicPath),
+        subGroupMembers.get(topicPath).stream().map(GLGroupMember::getUsername).collect(Collectors.toSet()));
+    assertNull(repository.takeSubGroupMembers());
+
+    String member = community.getGroupMembers(SimulatedCommunity.GROUP_PATH).iterator().next();
+    community.blockUser(member);
+    Map<String, GLUser> refreshedUsers = repository.refreshUsers();
+    assertFalse(refreshedUsers.containsKey(member));
+    assertEquals(users.size() - 1, refreshedUsers.size());
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.gitlab;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.vaulttec.gitlab.community.simulator.GitLabSimulator;
+import org.vaulttec.gitlab.community.simulator.SimulatedCommunity;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class GitLabWriteBehindQueueTest {
+
+  private static final String JOINED = "2020-02-02";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private SimulatedCommunity community;
+  private GitLabSimulator simulator;
+  private GitLabClientConfig config;
+  private GitLabClient client;
+
+  @Before
+  public void setUp() throws IOException {
+    community = new SimulatedCommunity(10, 0, 0);
+    simulator = new GitLabSimulator(community);
+    config = new GitLabClientConfig(new MockEnvironment());
+    config.setServerUrl(simulator.start());
+    config.setPersonalAccessToken("token");
+    config.setCircuitBreakerEnabled(false);
+    config.setWriteBehindRetryDelay(Duration.ofMillis(10));
+    client = new GitLabClient(config, new RestTemplateBuilder(), WebClient.builder(), new SimpleMeterRegistry());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    client.close();
+    simulator.close();
+  }
+
+  @Test
+  public void testWriteBehind() throws InterruptedException {
+    simulator.setLatency(100, TimeUnit.MILLISECONDS);
+    GitLabWriteBehindQueue queue = new GitLabWriteBehindQueue(client, config);
+    try {
+      queue.setUserCustomAttribute("1", SimulatedCommunity.CUSTOM_ATTRIBUTE_JOINED, JOINED);
+      assertEquals(JOINED, queue.getUserCustomAttribute("1", SimulatedCommunity.CUSTOM_ATTRIBUTE_JOINED));
+      awaitWritten(queue);
+      assertNull(queue.getUserCustomAttribute("1", SimulatedCommunity.CUSTOM_ATTRIBUTE_JOINED));
+      assertEquals(JOINED, community.getUserAttribute("user1", SimulatedCommunity.CUSTOM_ATTRIBUTE_JOINED));
+    } finally {
+      queue.close();
+    }
+  }
+
+  @Test
+  public void testRetryAndResume() throws InterruptedException {
+    File file = new File(folder.getRoot(), "pending-writes.json");
+    config.setWriteBehindFile(file.getPath());
+    simulator.setErrorRate(1.0);
+    GitLabWriteBehindQueue queue = new GitLabWriteBehindQueue(client, config);
+    queue.setUserCustomAttribute("2", SimulatedCommunity.CUSTOM_ATTRIBUTE_JOINED, JOINED);
+    Thread.sleep(200);
+    queue.close();
+    assertEquals(1, queue.getPendingWrites());
+    assertTrue(file.exists());
+
+    simulator.setErrorRate(0);
+    simulator.setLatency(100, TimeUnit.MILLISECONDS);
+    GitLabWriteBehindQueue resumedQueue = new GitLabWriteBehindQueue(client, config);
+    try {
+      assertEquals(JOINED, resumedQueue.getUserCustomAttribute("2", SimulatedCommunity.CUSTOM_ATTRIBUTE_JOINED));
+      awaitWritten(resumedQueue);
+      assertEquals(JOINED, community.getUserAttribute("user2", SimulatedCommunity.CUSTOM_ATTRIBUTE_JOINED));
+    } finally {
+      resumedQueue.close();
+    }
+  }
+
+  @Test
+  public void testDroppedAfterMaxAttempts() throws InterruptedException {
+    config.setWriteBehindMaxAttempts(3);
+    simulator.setErrorRate(1.0);
+    GitLabWriteBehindQueue queue = new GitLabWriteBehindQueue(client, config);
+    try {
+      queue.setUserCustomAttribute("3", SimulatedCommunity.CUSTOM_ATTRIBUTE_JOINED, JOINED);
+      awaitWritten(queue);
+      assertEquals(3, simulator.getRequestCount());
+    } finally {
+      queue.close();
+    }
+  }
+
+  @Test
+  public void testDroppedOnPermanentFailure() throws InterruptedException {
+    GitLabWriteBehindQueue queue = new GitLabWriteBehindQueue(client, config);
+    try {
+      queue.setUserCustomAttribute("999", SimulatedCommunity.CUSTOM_ATTRIBUTE_JOINED, JOINED);
+      awaitWritten(queue);
+      assertEquals(1, simulator.getRequestCount());
+    } finally {
+      queue.close();
+    }
+  }
+
+  @Test
+  public void testCloseStoresFinishedWrites() throws InterruptedException {
+    File file = new File(folder.getRoot(), "pending-writes.json");
+    config.setWriteBehindFile(file.getPath());
+    simulator.setLatency(100, TimeUnit.MILLISECONDS);
+    GitLabWriteBehindQueue queue = new GitLabWriteBehindQueue(client, config);
+    queue.setUserCustomAttribute("1", SimulatedCommunity.CUSTOM_ATTRIBUTE_JOINED, JOINED);
+    queue.setUserCustomAttribute("2", SimulatedCommunity.CUSTOM_ATTRIBUTE_JOINED, JOINED);
+    awaitWritten(queue);
+    queue.close();
+
+    // The stored state no longer contains the written values
+    GitLabWriteBehindQueue resumedQueue = new GitLabWriteBehindQueue(client, config);
+    try {
+      assertEquals(0, resumedQueue.getPendingWrites());
+    } finally {
+      resumedQueue.close();
+    }
+  }
+
+  private static void awaitWritten(GitLabWriteBehindQueue queue) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (queue.getPendingWrites() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, queue.getPendingWrites());
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.gitlab;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.vaulttec.gitlab.community.gitlab.model.GLUser;
+import org.vaulttec.http.client.HttpVersion;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Compares the wall time of retrieving all active users (20 pages, 4 of them
+ * requested concurrently) via HTTP/1.1 and HTTP/2 (h2c) from a local
+ * {@link MockWebServer} which answers every page request after 10ms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpVersionBenchmark {
+
+  private static final int PAGES = 20;
+  private static final int PER_PAGE = 100;
+  private static final long LATENCY_MILLIS = 10;
+
+  @Param({ "HTTP_1_1", "HTTP_2" })
+  private HttpVersion httpVersion;
+
+  private MockWebServer server;
+  private GitLabClient client;
+
+  @Setup
+  public void setUp() throws IOException {
+    List<String> pages = new ArrayList<>();
+    for (int page = 1; page <= PAGES; page++) {
+      StringBuilder body = new StringBuilder("[");
+      for (int i = (page - 1) * PER_PAGE; i < page * PER_PAGE; i++) {
+        body.append(i % PER_PAGE == 0 ? "" : ",").append("{\"id\":\"").append(i).append("\",\"username\":\"user")
+            .append(i).append("\",\"name\":\"User ").append(i).append("\",\"state\":\"active\"}");
+      }
+      pages.add(body.append(']').toString());
+    }
+    server = new MockWebServer();
+    if (httpVersion == HttpVersion.HTTP_2) {
+      server.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+    }
+    server.setDispatcher(new Dispatcher() {
+
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        String page = request.getRequestUrl().queryParameter("page");
+        int pageNumber = page != null ? Integer.parseInt(page) : 1;
+        String url = request.getRequestUrl().newBuilder().removeAllQueryParameters("page").build() + "&page=";
+        MockResponse response = new MockResponse().setHeader("Content-Type", "application/json")
+            .setHeader("X-Total-Pages", PAGES).setBody(pages.get(pageNumber - 1))
+            .setHeadersDelay(LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+        response.addHeader("Link", "<" + url + "1>; rel=\"first\", <" + url + PAGES + ">; rel=\"last\""
+            + (pageNumber < PAGES ? ", <" + url + (pageNumber + 1) + ">; rel=\"next\"" : ""));
+        return response;
+      }
+    });
+    server.start();
+
+    GitLabClientConfig config = new GitLabClientConfig(new MockEnvironment());
+    config.setServerUrl(server.url("").toString().replaceAll("/$", ""));
+    config.setPersonalAccessToken("token");
+    config.setPerPage(PER_PAGE);
+    config.setHttpVersion(httpVersion);
+    client = new GitLabClient(config, new RestTemplateBuilder(), WebClient.builder(), new SimpleMeterRegistry());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    client.close();
+    server.shutdown();
+  }
+
+  @Benchmark
+  public List<GLUser> getActiveUsers() {
+    return client.getActiveUsers();
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.mattermost;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.vaulttec.gitlab.community.mattermost.model.MMChannel;
+import org.vaulttec.gitlab.community.mattermost.model.MMTeam;
+import org.vaulttec.gitlab.community.mattermost.model.MMUser;
+import org.vaulttec.gitlab.community.simulator.MattermostSimulator;
+import org.vaulttec.gitlab.community.simulator.SimulatedCommunity;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class MattermostClientTest {
+
+  private SimulatedCommunity community;
+  private MattermostSimulator simulator;
+  private MattermostClient client;
+
+  @Before
+  public void setUp() throws IOException {
+    community = new SimulatedCommunity(1000, 5, 50);
+    simulator = new MattermostSimulator(community);
+    MattermostClientConfig config = new MattermostClientConfig(new MockEnvironment());
+    config.setServerUrl(simulator.start());
+    config.setPersonalAccessToken("token");
+    config.setPerPage(100);
+    config.setCircuitBreakerEnabled(false);
+    client = new MattermostClient(config, new RestTemplateBuilder(), WebClient.builder(), new SimpleMeterRegistry());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    client.close();
+    simulator.close();
+  }
+
+  @Test
+  public void testUsers() throws Exception {
+    List<MMUser> users = client.getUsers();
+    assertNotNull(users);
+    assertEquals(community.getUserCount(), users.size());
+    assertEquals(users.size(), client.getUsersAsync().get().size());
+    MMUser user = client.getUserByUsername("user42");
+    assertNotNull(user);
+    assertEquals(user.getId(), client.getUserById(user.getId()).getId());
+    assertNull(client.getUserByUsername("unknown"));
+    assertEquals(2, client.getUsersByUsernames(Arrays.asList("user1", "user2", "unknown")).size());
+  }
+
+  @Test
+  public void testChannel() {
+    MMTeam team = client.getTeamByName(SimulatedCommunity.GROUP_PATH);
+    assertNotNull(team);
+    MMChannel channel = client.getChannelByName(team, SimulatedCommunity.TOPIC_PATH_PREFIX + 1);
+    assertNotNull(channel);
+    assertTrue(channel.isPrivate());
+    Set<String> usernames = client.getChannelMembers(channel).stream()
+        .map(member -> client.getUserById(member.getUserId()).getUsername())
+        .collect(Collectors.toCollection(TreeSet::new));
+    assertEquals(community.getChannelMembers(channel.getName()), usernames);
+
+    channel = client.createChannel(team, "new-topic", "New Topic", "Purpose", "Header", false);
+    assertNotNull(channel);
+    assertNull(client.createChannel(team, "new-topic", "New Topic", "Purpose", "Header", false));
+    assertTrue(client.convertChannelIntoPrivate(channel));
+    assertTrue(client.addMemberToChannel(channel, client.getUserByUsername("user1")));
+    assertEquals(1, community.getChannelMembers("new-topic").size());
+    assertTrue(client.deleteChannel(channel));
+    assertTrue(client.getChannelByName(team, "new-topic").isDeleted());
+    assertFalse(client.restoreChannel(channel).isDeleted());
+    assertTrue(client.updateChannel(channel, "new-topic", "Renamed", "Purpose", "Header"));
+    assertEquals("Renamed", client.getChannelByName(team, "new-topic").getDisplayName());
+  }
+
+  @Test
+  public void testTeamMembers() {
+    MMTeam team = client.getTeamByName(SimulatedCommunity.GROUP_PATH);
+    assertEquals(community.getMemberCount(), client.getTeamMembers(team).size());
+    MMUser user = client.getUserByUsername("user1");
+    assertTrue(client.removeMemberFromTeam(team, user) || client.addMemberToTeam(team, user));
+  }
+
+  @Test
+  public void testLatencyAndRateLimit() {
+    simulator.setLatency(20, TimeUnit.MILLISECONDS);
+    simulator.setRateLimit(5, 1, TimeUnit.SECONDS);
+    assertEquals(community.getUserCount(), client.getUsers().size());
+  }
+}
@@ -0,0 +1,413 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.simulator;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+import javax.imageio.ImageIO;
+
+import org.vaulttec.gitlab.community.simulator.SimulatedCommunity.Group;
+import org.vaulttec.gitlab.community.simulator.SimulatedCommunity.User;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+/**
+ * Simulates the GitLab API calls of
+ * {@link org.vaulttec.gitlab.community.gitlab.GitLabClient}.
+ * <p>
+ * Collections are paged like GitLab does: offset pagination via "page"
+ * (starting with 1) and "per_page" (default 20, at most 100) with a "Link"
+ * header and the "X-Page", "X-Per-Page", "X-Next-Page", "X-Prev-Page",
+ * "X-Total" and "X-Total-Pages" headers. For collections with more than 10,000
+ * entries the totals and the "last" link are omitted. Keyset pagination
+ * ("pagination=keyset&amp;order_by=id") is supported for the users only, all
+ * other collections reject it with "405 Method Not Allowed". The users can be
+ * ordered by their update time ("order_by=updated_at", "sort=desc" by default).
+ * <p>
+ * The GraphQL queries "SubGroupMembers" and "GroupMembers" are answered with
+ * cursor based pagination ("first" and "after").
+ */
+public class GitLabSimulator extends UpstreamSimulator {
+
+  public static final String AVATAR_PATH = "/uploads/-/system/user/avatar/";
+  private static final int AVATAR_SIZE = 400;
+  private static final int DEFAULT_PER_PAGE = 20;
+  private static final int MAX_PER_PAGE = 100;
+  private static final int MAX_COUNTED_ENTRIES = 10000;
+
+  public GitLabSimulator(SimulatedCommunity community) {
+    super(community);
+  }
+
+  @Override
+  protected boolean isAuthenticated(RecordedRequest request) {
+    String token = request.getHeader("PRIVATE-TOKEN");
+    // Avatars are public uploads
+    return token != null && !token.isEmpty() || request.getPath().startsWith(AVATAR_PATH);
+  }
+
+  @Override
+  protected MockResponse handle(String method, List<String> segments, HttpUrl url, String body) throws IOException {
+    int size = segments.size();
+    if ("users".equals(segments.get(0))) {
+      if (size == 1 && "GET".equals(method)) {
+        return getUsers(url);
+      }
+      if (size == 2 && "GET".equals(method)) {
+        User user = community.users.get(parseId(segments.get(1)));
+        return user != null ? json(200, toJson(user, url)) : error(404, "User Not Found");
+      }
+      if (size == 4 && "custom_attributes".equals(segments.get(2)) && "PUT".equals(method)) {
+        User user = community.users.get(parseId(segments.get(1)));
+        return user != null ? setCustomAttribute(user.attributes, segments.get(3), body) : error(404, "User Not Found");
+      }
+    } else if ("groups".equals(segments.get(0))) {
+      if (size == 1) {
+        return "POST".equals(method) ? createGroup(url) : null;
+      }
+      Group group = getGroup(segments.get(1));
+      if (group == null) {
+        return error(404, "Group Not Found");
+      }
+      if (size == 2) {
+        switch (method) {
+        case "GET":
+          return json(200, toJson(group, url));
+        case "PUT":
+          return updateGroup(group, url);
+        case "DELETE":
+          community.deleteGroup(group);
+          return json(202, MAPPER.createObjectNode().put("message", "202 Accepted"));
+        }
+      } else if ("subgroups".equals(segments.get(2)) && size == 3 && "GET".equals(method)) {
+        List<Group> subGroups = community.groups.values().stream().filter(subGroup -> subGroup.parentId == group.id)
+            .collect(Collectors.toList());
+        return list(url, subGroups, subGroup -> toJson(subGroup, url), subGroup -> subGroup.id, false);
+      } else if ("members".equals(segments.get(2))) {
+        return handleMembers(method, segments, url, group);
+      } else if ("custom_attributes".equals(segments.get(2)) && size == 4 && "PUT".equals(method)) {
+        return setCustomAttribute(group.attributes, segments.get(3), body);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  protected MockResponse handleOther(String method, HttpUrl url, String body) throws IOException {
+    if (url.encodedPath().startsWith(AVATAR_PATH) && "GET".equals(method)) {
+      return avatar(url);
+    }
+    if (!"/api/graphql".equals(url.encodedPath()) || !"POST".equals(method) || body == null) {
+      return null;
+    }
+    JsonNode request = MAPPER.readTree(body);
+    String query = request.path("query").asText();
+    JsonNode variables = request.path("variables");
+    int first = Math.min(variables.path("first").asInt(DEFAULT_PER_PAGE), MAX_PER_PAGE);
+    int offset = variables.path("after").isTextual() ? Integer.parseInt(variables.path("after").asText()) : 0;
+    Group group = community.getGroup(variables.path("fullPath").asText());
+    ObjectNode response = MAPPER.createObjectNode();
+    if (group == null) {
+      response.putObject("data").putNull("group");
+    } else if (query.startsWith("query SubGroupMembers")) {
+      String prefix = community.getFullPath(group) + "/";
+      List<Group> descendants = community.groups.values().stream()
+          .filter(descendant -> community.getFullPath(descendant).startsWith(prefix)).collect(Collectors.toList());
+      response.putObject("data").putObject("group").set("descendantGroups",
+          toConnection(descendants, offset, first, descendant -> {
+            ObjectNode node = MAPPER.createObjectNode().put("fullPath", community.getFullPath(descendant))
+                .put("path", descendant.path);
+            node.set("groupMembers", toMembersConnection(descendant, 0, first));
+            return node;
+          }));
+    } else if (query.startsWith("query GroupMembers")) {
+      response.putObject("data").putObject("group").set("groupMembers", toMembersConnection(group, offset, first));
+    } else {
+      response.putArray("errors").addObject().put("message", "Unsupported query");
+    }
+    return json(200, response);
+  }
+
+  /** Returns a PNG image with a color derived from the user ID */
+  private static MockResponse avatar(HttpUrl url) throws IOException {
+    int id = parseId(url.pathSegments().get(url.pathSize() - 2));
+    BufferedImage image = new BufferedImage(AVATAR_SIZE, AVATAR_SIZE, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    graphics.setColor(new Color(id * 0x9E3779 & 0xFFFFFF));
+    graphics.fillRect(0, 0, AVATAR_SIZE, AVATAR_SIZE);
+    graphics.dispose();
+    Buffer buffer = new Buffer();
+    ImageIO.write(image, "png", buffer.outputStream());
+    return new MockResponse().setResponseCode(200).setHeader("Content-Type", "image/png").setBody(buffer);
+  }
+
+  private ObjectNode toMembersConnection(Group group, int offset, int first) {
+    List<Map.Entry<Integer, Integer>> entries = new ArrayList<>(community.groupMembers.get(group.id).entrySet());
+    return toConnection(entries, offset, first, entry -> {
+      ObjectNode node = MAPPER.createObjectNode();
+      node.putObject("accessLevel").put("integerValue", entry.getValue());
+      node.putObject("user").put("id", "gid://gitlab/User/" + entry.getKey()).put("username",
+          community.users.get(entry.getKey()).username);
+      return node;
+    });
+  }
+
+  private static <T> ObjectNode toConnection(List<T> entries, int offset, int first, Function<T, JsonNode> toJson) {
+    int end = Math.min(offset + first, entries.size());
+    ObjectNode connection = MAPPER.createObjectNode();
+    connection.putObject("pageInfo").put("hasNextPage", end < entries.size()).put("endCursor",
+        Integer.toString(end));
+    ArrayNode nodes = connection.putArray("nodes");
+    entries.subList(Math.min(offset, end), end).forEach(entry -> nodes.add(toJson.apply(entry)));
+    return connection;
+  }
+
+  private MockResponse handleMembers(String method, List<String> segments, HttpUrl url, Group group) {
+    Map<Integer, Integer> members = community.groupMembers.get(group.id);
+    if (segments.size() == 3) {
+      if ("GET".equals(method)) {
+        List<Map.Entry<Integer, Integer>> entries = new ArrayList<>(members.entrySet());
+        return list(url, entries, entry -> toJson(community.users.get(entry.getKey()), entry.getValue()),
+            Map.Entry::getKey, false);
+      }
+      if ("POST".equals(method)) {
+        User user = community.users.get(intParameter(url, "user_id", 0));
+        int accessLevel = intParameter(url, "access_level", 0);
+        if (user == null) {
+          return error(404, "User Not Found");
+        }
+        if (accessLevel <= 0) {
+          return error(400, "access_level is missing");
+        }
+        if (members.containsKey(user.id)) {
+          return error(409, "Member already exists");
+        }
+        members.put(user.id, accessLevel);
+        return json(201, toJson(user, accessLevel));
+      }
+    } else if (segments.size() == 4 && "GET".equals(method)) {
+      int userId = parseId(segments.get(3));
+      Integer accessLevel = members.get(userId);
+      if (accessLevel == null) {
+        return error(404, "Member Not Found");
+      }
+      return json(200, toJson(community.users.get(userId), accessLevel));
+    } else if (segments.size() == 4 && "DELETE".equals(method)) {
+      if (members.remove(parseId(segments.get(3))) == null) {
+        return error(404, "Member Not Found");
+      }
+      return new MockResponse().setResponseCode(204);
+    }
+    return null;
+  }
+
+  private MockResponse getUsers(HttpUrl url) {
+    boolean activeOnly = "true".equals(url.queryParameter("active"));
+    List<User> users = community.users.values().stream().filter(user -> !activeOnly || user.active)
+        .collect(Collectors.toList());
+    if ("updated_at".equals(url.queryParameter("order_by"))) {
+      Comparator<User> comparator = Comparator.comparingLong(user -> user.updatedAt);
+      users.sort("asc".equals(url.queryParameter("sort")) ? comparator : comparator.reversed());
+    }
+    return list(url, users, user -> toJson(user, url), user -> user.id, true);
+  }
+
+  private MockResponse createGroup(HttpUrl url) {
+    String path = url.queryParameter("path");
+    String name = url.queryParameter("name");
+    if (path == null || path.isEmpty() || name == null || name.isEmpty()) {
+      return error(400, "path and name are missing");
+    }
+    int parentId = intParameter(url, "parent_id", 0);
+    if (parentId != 0 && !community.groups.containsKey(parentId)) {
+      return error(404, "Parent Group Not Found");
+    }
+    if (community.groups.values().stream().anyMatch(group -> group.parentId == parentId && path.equals(group.path))) {
+      return error(400, "Failed to save group {:path=>[\"has already been taken\"]}");
+    }
+    String description = url.queryParameter("description");
+    Group group = community.createGroup(path, name, description != null ? description : "", parentId);
+    return json(201, toJson(group, url));
+  }
+
+  private MockResponse updateGroup(Group group, HttpUrl url) {
+    String path = url.queryParameter("path");
+    if (path != null && !path.isEmpty()) {
+      group.path = path;
+    }
+    String name = url.queryParameter("name");
+    if (name != null && !name.isEmpty()) {
+      group.name = name;
+    }
+    String description = url.queryParameter("description");
+    if (description != null) {
+      group.description = description;
+    }
+    return json(200, toJson(group, url));
+  }
+
+  private MockResponse setCustomAttribute(Map<String, String> attributes, String key, String body) throws IOException {
+    JsonNode value = body != null ? MAPPER.readTree(body).get("value") : null;
+    if (value == null || !value.isValueNode()) {
+      return error(400, "value is missing");
+    }
+    attributes.put(key, value.asText());
+    return json(200, MAPPER.createObjectNode().put("key", key).put("value", value.asText()));
+  }
+
+  /**
+   * Returns the requested page of the given entities (sorted by ID) in offset
+   * or keyset pagination mode.
+   */
+  private <T> MockResponse list(HttpUrl url, List<T> entities, Function<T, JsonNode> mapper, ToIntFunction<T> id,
+      boolean keysetSupported) {
+    int perPage = Math.min(Math.max(intParameter(url, "per_page", DEFAULT_PER_PAGE), 1), MAX_PER_PAGE);
+    if ("keyset".equals(url.queryParameter("pagination"))) {
+      if (!keysetSupported || !"id".equals(url.queryParameter("order_by"))) {
+        return error(405, "Method Not Allowed");
+      }
+      int idAfter = intParameter(url, "id_after", 0);
+      int start = 0;
+      while (start < entities.size() && id.applyAsInt(entities.get(start)) <= idAfter) {
+        start++;
+      }
+      List<T> page = entities.subList(start, Math.min(start + perPage, entities.size()));
+      MockResponse response = json(200, toArray(page, mapper));
+      if (start + perPage < entities.size()) {
+        HttpUrl next = url.newBuilder().setQueryParameter("id_after",
+            Integer.toString(id.applyAsInt(page.get(page.size() - 1)))).build();
+        response.setHeader("Link", "<" + next + ">; rel=\"next\"");
+      }
+      return response.setHeader("X-Per-Page", perPage);
+    }
+    int page = Math.max(intParameter(url, "page", 1), 1);
+    int totalPages = Math.max((entities.size() + perPage - 1) / perPage, 1);
+    boolean counted = entities.size() <= MAX_COUNTED_ENTRIES;
+    ArrayNode array = toArray(page(entities, page - 1, perPage), mapper);
+    StringJoiner links = new StringJoiner(", ");
+    if (page > 1) {
+      links.add(link(url, page - 1, "prev"));
+    }
+    if (page < totalPages) {
+      links.add(link(url, page + 1, "next"));
+    }
+    links.add(link(url, 1, "first"));
+    if (counted) {
+      links.add(link(url, totalPages, "last"));
+    }
+    MockResponse response = json(200, array).setHeader("Link", links.toString()).setHeader("X-Page", page)
+        .setHeader("X-Per-Page", perPage).setHeader("X-Prev-Page", page > 1 ? Integer.toString(page - 1) : "")
+        .setHeader("X-Next-Page", page < totalPages ? Integer.toString(page + 1) : "");
+    if (counted) {
+      response.setHeader("X-Total", entities.size()).setHeader("X-Total-Pages", totalPages);
+    }
+    return response;
+  }
+
+  private static String link(HttpUrl url, int page, String rel) {
+    return "<" + url.newBuilder().setQueryParameter("page", Integer.toString(page)).build() + ">; rel=\"" + rel
+        + "\"";
+  }
+
+  private Group getGroup(String idOrPath) {
+    int id = parseId(idOrPath);
+    return id > 0 ? community.groups.get(id) : community.getGroup(idOrPath);
+  }
+
+  private static int parseId(String id) {
+    try {
+      return Integer.parseInt(id);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private ObjectNode toJson(User user, HttpUrl url) {
+    ObjectNode json = MAPPER.createObjectNode().put("id", user.id).put("username", user.username)
+        .put("name", user.name).put("state", user.active ? "active" : "blocked")
+        .put("avatar_url", getServerUrl() + AVATAR_PATH + user.id + "/avatar.png")
+        .put("web_url", getServerUrl() + "/" + user.username).put("email", user.username + "@example.com")
+        .put("bio", "").put("updated_at", Instant.ofEpochMilli(user.updatedAt).toString());
+    if ("true".equals(url.queryParameter("with_custom_attributes"))) {
+      json.set("custom_attributes", toJson(user.attributes));
+    }
+    return json;
+  }
+
+  private ObjectNode toJson(User user, int accessLevel) {
+    return MAPPER.createObjectNode().put("id", user.id).put("username", user.username).put("name", user.name)
+        .put("state", user.active ? "active" : "blocked")
+        .put("avatar_url", getServerUrl() + AVATAR_PATH + user.id + "/avatar.png")
+        .put("web_url", getServerUrl() + "/" + user.username).put("access_level", accessLevel).putNull("expires_at");
+  }
+
+  private ObjectNode toJson(Group group, HttpUrl url) {
+    String fullPath = community.getFullPath(group);
+    ObjectNode json = MAPPER.createObjectNode().put("id", group.id)
+        .put("web_url", getServerUrl() + "/groups/" + fullPath).put("name", group.name).put("path", group.path)
+        .put("description", group.description).put("visibility", "private").putNull("avatar_url")
+        .put("full_path", fullPath);
+    if (group.parentId != 0) {
+      json.put("parent_id", group.parentId);
+    } else {
+      json.putNull("parent_id");
+    }
+    if ("true".equals(url.queryParameter("with_custom_attributes"))) {
+      json.set("custom_attributes", toJson(group.attributes));
+    }
+    return json;
+  }
+
+  private static ArrayNode toJson(Map<String, String> attributes) {
+    ArrayNode json = MAPPER.createArrayNode();
+    attributes.forEach((key, value) -> json.addObject().put("key", key).put("value", value));
+    return json;
+  }
+
+  @Override
+  protected MockResponse addRateLimitHeaders(MockResponse response, int limit, int remaining, long resetAtMillis) {
+    return response.setHeader("RateLimit-Limit", limit).setHeader("RateLimit-Observed", limit - remaining)
+        .setHeader("RateLimit-Remaining", remaining)
+        .setHeader("RateLimit-Reset", TimeUnit.MILLISECONDS.toSeconds(resetAtMillis + 999));
+  }
+
+  @Override
+  protected MockResponse error(int status, String message) {
+    return json(status, MAPPER.createObjectNode().put("message", status + " " + message));
+  }
+}
@@ -0,0 +1,281 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.simulator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.vaulttec.gitlab.community.simulator.SimulatedCommunity.Channel;
+import org.vaulttec.gitlab.community.simulator.SimulatedCommunity.User;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Simulates the Mattermost API calls of
+ * {@link org.vaulttec.gitlab.community.mattermost.MattermostClient}.
+ * <p>
+ * Collections are paged like Mattermost does: "page" starts with 0 and
+ * "per_page" defaults to 60 (at most 200). There are no paging headers, the
+ * last page is the first one which isn't completely filled. The client
+ * requests the "POST" lookups (users by usernames, channels by IDs) paged as
+ * well, so they are paged the same way.
+ */
+public class MattermostSimulator extends UpstreamSimulator {
+
+  private static final int DEFAULT_PER_PAGE = 60;
+  private static final int MAX_PER_PAGE = 200;
+
+  public MattermostSimulator(SimulatedCommunity community) {
+    super(community);
+  }
+
+  @Override
+  protected boolean isAuthenticated(RecordedRequest request) {
+    String authorization = request.getHeader("Authorization");
+    return authorization != null && authorization.startsWith("Bearer ") && authorization.length() > 7;
+  }
+
+  @Override
+  protected MockResponse handle(String method, List<String> segments, HttpUrl url, String body) throws IOException {
+    switch (segments.get(0)) {
+    case "users":
+      return handleUsers(method, segments, url, body);
+    case "teams":
+      return handleTeams(method, segments, url, body);
+    case "channels":
+      return handleChannels(method, segments, url, body);
+    }
+    return null;
+  }
+
+  private MockResponse handleUsers(String method, List<String> segments, HttpUrl url, String body)
+      throws IOException {
+    if (segments.size() == 1 && "GET".equals(method)) {
+      return list(url, new ArrayList<>(community.users.values()), this::toJson);
+    }
+    if (segments.size() == 2 && "usernames".equals(segments.get(1)) && "POST".equals(method)) {
+      List<User> users = new ArrayList<>();
+      MAPPER.readTree(body).forEach(username -> {
+        User user = community.usersByUsername.get(username.asText());
+        if (user != null) {
+          users.add(user);
+        }
+      });
+      return list(url, users, this::toJson);
+    }
+    if ("GET".equals(method)) {
+      User user = null;
+      if (segments.size() == 2) {
+        user = community.usersByMattermostId.get(segments.get(1));
+      } else if (segments.size() == 3 && "username".equals(segments.get(1))) {
+        user = community.usersByUsername.get(segments.get(2));
+      }
+      return user != null ? json(200, toJson(user)) : error(404, "We couldn't find the existing account.");
+    }
+    return null;
+  }
+
+  private MockResponse handleTeams(String method, List<String> segments, HttpUrl url, String body)
+      throws IOException {
+    if (segments.size() == 3 && "name".equals(segments.get(1)) && "GET".equals(method)) {
+      if (!SimulatedCommunity.GROUP_PATH.equals(segments.get(2))) {
+        return error(404, "Unable to find the existing team.");
+      }
+      return json(200, MAPPER.createObjectNode().put("id", community.teamId).put("display_name", "Community")
+          .put("name", SimulatedCommunity.GROUP_PATH).put("type", "I"));
+    }
+    if (segments.size() < 3 || !community.teamId.equals(segments.get(1))) {
+      return error(404, "Unable to find the existing team.");
+    }
+    if ("members".equals(segments.get(2))) {
+      if (segments.size() == 3 && "GET".equals(method)) {
+        return list(url, new ArrayList<>(community.teamMembers), userId -> MAPPER.createObjectNode()
+            .put("team_id", community.teamId).put("user_id", userId).put("roles", "team_user").put("delete_at", 0));
+      }
+      if (segments.size() == 3 && "POST".equals(method)) {
+        String userId = MAPPER.readTree(body).path("user_id").asText();
+        if (!community.usersByMattermostId.containsKey(userId)) {
+          return error(404, "We couldn't find the existing account.");
+        }
+        community.teamMembers.add(userId);
+        return json(201, MAPPER.createObjectNode().put("team_id", community.teamId).put("user_id", userId)
+            .put("roles", "team_user").put("delete_at", 0));
+      }
+      if (segments.size() == 4 && "DELETE".equals(method)) {
+        return community.teamMembers.remove(segments.get(3)) ? statusOk()
+            : error(404, "We couldn't find the existing team member.");
+      }
+    } else if ("channels".equals(segments.get(2))) {
+      if (segments.size() == 5 && "name".equals(segments.get(3)) && "GET".equals(method)) {
+        Channel channel = community.getChannel(segments.get(4));
+        if (channel == null || (channel.deleteAt != 0 && !"true".equals(url.queryParameter("include_deleted")))) {
+          return error(404, "Unable to find the existing channel.");
+        }
+        return json(200, toJson(channel));
+      }
+      if (segments.size() == 4 && "ids".equals(segments.get(3)) && "POST".equals(method)) {
+        List<Channel> channels = new ArrayList<>();
+        MAPPER.readTree(body).forEach(id -> {
+          Channel channel = community.channels.get(id.asText());
+          if (channel != null) {
+            channels.add(channel);
+          }
+        });
+        return list(url, channels, this::toJson);
+      }
+    }
+    return null;
+  }
+
+  private MockResponse handleChannels(String method, List<String> segments, HttpUrl url, String body)
+      throws IOException {
+    if (segments.size() == 1) {
+      return "POST".equals(method) ? createChannel(body) : null;
+    }
+    Channel channel = community.channels.get(segments.get(1));
+    if (channel == null) {
+      return error(404, "Unable to find the existing channel.");
+    }
+    if (segments.size() == 2) {
+      if ("PUT".equals(method)) {
+        return updateChannel(channel, body);
+      }
+      if ("DELETE".equals(method)) {
+        channel.deleteAt = System.currentTimeMillis();
+        return statusOk();
+      }
+    } else if (segments.size() == 3 && "convert".equals(segments.get(2)) && "POST".equals(method)) {
+      if ("P".equals(channel.type)) {
+        return error(400, "The channel is already private.");
+      }
+      channel.type = "P";
+      return json(200, toJson(channel));
+    } else if (segments.size() == 3 && "restore".equals(segments.get(2)) && "POST".equals(method)) {
+      if (channel.deleteAt == 0) {
+        return error(400, "The channel is not deleted.");
+      }
+      channel.deleteAt = 0;
+      return json(200, toJson(channel));
+    } else if ("members".equals(segments.get(2))) {
+      Set<String> members = community.channelMembers.get(channel.id);
+      if (segments.size() == 3 && "GET".equals(method)) {
+        return list(url, new ArrayList<>(members), userId -> toJson(channel, userId));
+      }
+      if (segments.size() == 3 && "POST".equals(method)) {
+        String userId = MAPPER.readTree(body).path("user_id").asText();
+        if (!community.usersByMattermostId.containsKey(userId)) {
+          return error(404, "We couldn't find the existing account.");
+        }
+        members.add(userId);
+        return json(201, toJson(channel, userId));
+      }
+      if (segments.size() == 4 && "DELETE".equals(method)) {
+        members.remove(segments.get(3));
+        return statusOk();
+      }
+    }
+    return null;
+  }
+
+  private MockResponse createChannel(String body) throws IOException {
+    JsonNode json = MAPPER.readTree(body);
+    String name = json.path("name").asText();
+    if (!community.teamId.equals(json.path("team_id").asText()) || name.isEmpty()) {
+      return error(400, "Invalid channel.");
+    }
+    if (community.getChannel(name) != null) {
+      return error(400, "A channel with that name already exists on the same team.");
+    }
+    Channel channel = community.createChannel(name, json.path("display_name").asText(name),
+        json.path("purpose").asText(), json.path("header").asText(), json.path("type").asText("O"));
+    return json(201, toJson(channel));
+  }
+
+  private MockResponse updateChannel(Channel channel, String body) throws IOException {
+    JsonNode json = MAPPER.readTree(body);
+    if (!channel.id.equals(json.path("id").asText())) {
+      return error(400, "The channel ID doesn't match the URL.");
+    }
+    String name = json.path("name").asText(channel.name);
+    Channel existing = community.getChannel(name);
+    if (existing != null && existing != channel) {
+      return error(400, "A channel with that name already exists on the same team.");
+    }
+    channel.name = name;
+    channel.displayName = json.path("display_name").asText(channel.displayName);
+    channel.purpose = json.path("purpose").asText(channel.purpose);
+    channel.header = json.path("header").asText(channel.header);
+    return json(200, toJson(channel));
+  }
+
+  /**
+   * Returns the requested page of the given entities.
+   */
+  private <T> MockResponse list(HttpUrl url, List<T> entities, Function<T, JsonNode> mapper) {
+    int perPage = Math.min(Math.max(intParameter(url, "per_page", DEFAULT_PER_PAGE), 1), MAX_PER_PAGE);
+    return json(200, toArray(page(entities, intParameter(url, "page", 0), perPage), mapper));
+  }
+
+  private ObjectNode toJson(User user) {
+    int separator = user.name.indexOf(' ');
+    return MAPPER.createObjectNode().put("id", user.mattermostId).put("create_at", 0).put("update_at", 0)
+        .put("delete_at", 0).put("username", user.username).put("auth_service", "gitlab")
+        .put("email", user.username + "@example.com").put("nickname", "")
+        .put("first_name", user.name.substring(0, separator)).put("last_name", user.name.substring(separator + 1))
+        .put("position", "").put("roles", "system_user").put("locale", "en");
+  }
+
+  private ObjectNode toJson(Channel channel) {
+    return MAPPER.createObjectNode().put("id", channel.id).put("create_at", channel.createAt)
+        .put("update_at", channel.createAt).put("delete_at", channel.deleteAt).put("team_id", community.teamId)
+        .put("type", channel.type).put("display_name", channel.displayName).put("name", channel.name)
+        .put("header", channel.header).put("purpose", channel.purpose).put("last_post_at", channel.lastPostAt)
+        .put("total_msg_count", channel.messageCount).put("creator_id", "");
+  }
+
+  private ObjectNode toJson(Channel channel, String userId) {
+    return MAPPER.createObjectNode().put("channel_id", channel.id).put("user_id", userId)
+        .put("roles", "channel_user").put("last_viewed_at", 0).put("msg_count", 0).put("mention_count", 0);
+  }
+
+  private MockResponse statusOk() {
+    return json(200, MAPPER.createObjectNode().put("status", "OK"));
+  }
+
+  @Override
+  protected MockResponse addRateLimitHeaders(MockResponse response, int limit, int remaining, long resetAtMillis) {
+    long reset = TimeUnit.MILLISECONDS.toSeconds(Math.max(resetAtMillis - System.currentTimeMillis(), 0) + 999);
+    return response.setHeader("X-Ratelimit-Limit", limit).setHeader("X-Ratelimit-Remaining", remaining)
+        .setHeader("X-Ratelimit-Reset", reset);
+  }
+
+  @Override
+  protected MockResponse error(int status, String message) {
+    return json(status, MAPPER.createObjectNode().put("id", "api.simulator.app_error").put("message", message)
+        .put("detailed_error", "").put("request_id", "").put("status_code", status));
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.simulator;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Synthetic state of a community which is shared by the {@link GitLabSimulator}
+ * and the {@link MattermostSimulator}: the GitLab users (every user exists in
+ * Mattermost as well), the community group with its subgroups (topics) and
+ * members, and the Mattermost team with one private channel per topic.
+ * <p>
+ * The data is generated from a seed, so the same parameters always produce
+ * the same community. Every topic member is a member of the community group
+ * with access level "Developer" in GitLab and a member of the topic's channel
+ * in Mattermost.
+ */
+public class SimulatedCommunity {
+
+  public static final String GROUP_PATH = "community";
+  public static final String TOPIC_PATH_PREFIX = "topic-";
+  public static final String CUSTOM_ATTRIBUTE_JOINED = "community_joined";
+
+  public static final int ACCESS_LEVEL_DEVELOPER = 30;
+
+  private static final String[] FIRST_NAMES = { "Alex", "Andrea", "Chris", "Dana", "Eli", "Francis", "Jamie",
+      "Jordan", "Kai", "Lee", "Morgan", "Noa", "Quinn", "Robin", "Sam", "Taylor" };
+  private static final String[] LAST_NAMES = { "Bauer", "Garcia", "Ito", "Jansen", "Kowalski", "Larsen", "Meyer",
+      "Nguyen", "Okafor", "Petrov", "Rossi", "Schmidt", "Silva", "Smith", "Tanaka", "Weber" };
+  private static final LocalDate FIRST_JOINED = LocalDate.of(2018, 1, 1);
+  private static final long CREATED_AT = TimeUnit.DAYS.toMillis(LocalDate.of(2018, 1, 1).toEpochDay());
+
+  final Map<Integer, User> users = new TreeMap<>();
+  final Map<String, User> usersByUsername = new HashMap<>();
+  final Map<String, User> usersByMattermostId = new HashMap<>();
+  final Map<Integer, Group> groups = new TreeMap<>();
+  final Map<Integer, Map<Integer, Integer>> groupMembers = new HashMap<>();
+  final String teamId = mattermostId("tm", 1);
+  final Set<String> teamMembers = new TreeSet<>();
+  final Map<String, Channel> channels = new LinkedHashMap<>();
+  final Map<String, Set<String>> channelMembers = new HashMap<>();
+  private int nextGroupId = 1;
+  private int nextChannelId = 1;
+  private long lastUpdate;
+
+  /**
+   * Creates a community with the given number of users (2% of them blocked),
+   * 80% of the active users as members of the community group, and the given
+   * number of topics with (up to) the given number of members each.
+   */
+  public SimulatedCommunity(int userCount, int topicCount, int topicMemberCount) {
+    this(userCount, topicCount, topicMemberCount, 42);
+  }
+
+  public SimulatedCommunity(int userCount, int topicCount, int topicMemberCount, long seed) {
+    Random random = new Random(seed);
+    Group community = createGroup(GROUP_PATH, "Community", "Synthetic community", 0);
+    List<Integer> memberIds = new ArrayList<>();
+    for (int id = 1; id <= userCount; id++) {
+      User user = new User(id, "user" + id,
+          FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)],
+          random.nextInt(50) != 0);
+      users.put(id, user);
+      usersByUsername.put(user.username, user);
+      usersByMattermostId.put(user.mattermostId, user);
+      if (user.active && random.nextInt(5) != 0) {
+        memberIds.add(id);
+        groupMembers.get(community.id).put(id, ACCESS_LEVEL_DEVELOPER);
+        teamMembers.add(user.mattermostId);
+        if (random.nextInt(10) != 0) {
+          user.attributes.put(CUSTOM_ATTRIBUTE_JOINED, FIRST_JOINED.plusDays(random.nextInt(800)).toString());
+        }
+      }
+    }
+    for (int i = 1; i <= topicCount; i++) {
+      String path = TOPIC_PATH_PREFIX + i;
+      String description = "Synthetic topic number " + i;
+      Group topic = createGroup(path, "Topic " + i, description, community.id);
+      Channel channel = createChannel(path, "Topic " + i, "Community topic '" + path + "'", description, "P");
+      channel.messageCount = random.nextInt(10000);
+      channel.lastPostAt = CREATED_AT + TimeUnit.MINUTES.toMillis(random.nextInt(1000000));
+      Collections.shuffle(memberIds, random);
+      for (int userId : memberIds.subList(0, Math.min(topicMemberCount, memberIds.size()))) {
+        groupMembers.get(topic.id).put(userId, ACCESS_LEVEL_DEVELOPER);
+        channelMembers.get(channel.id).add(users.get(userId).mattermostId);
+      }
+    }
+  }
+
+  /** Changes the name of the given user (which updates the user) */
+  public synchronized void renameUser(String username, String name) {
+    User user = usersByUsername.get(username);
+    user.name = name;
+    user.updatedAt = nextUpdate();
+  }
+
+  /** Blocks the given user (which updates the user) */
+  public synchronized void blockUser(String username) {
+    User user = usersByUsername.get(username);
+    user.active = false;
+    user.updatedAt = nextUpdate();
+  }
+
+  /** Unblocks the given user (which updates the user) */
+  public synchronized void unblockUser(String username) {
+    User user = usersByUsername.get(username);
+    user.active = true;
+    user.updatedAt = nextUpdate();
+  }
+
+  /** Adds the given user to the given GitLab group */
+  public synchronized void addGroupMember(String groupPath, String username, int accessLevel) {
+    groupMembers.get(getGroup(groupPath).id).put(usersByUsername.get(username).id, accessLevel);
+  }
+
+  /** Creates a GitLab subgroup of the community group (without Mattermost channel) and returns its ID */
+  public synchronized int createSubGroup(String path, String name) {
+    return createGroup(path, name, "Synthetic subgroup", getGroup(GROUP_PATH).id).id;
+  }
+
+  /** Changes the path of the given GitLab subgroup of the community group */
+  public synchronized void renameSubGroup(String path, String newPath) {
+    getGroup(GROUP_PATH + "/" + path).path = newPath;
+  }
+
+  /** Deletes the given GitLab subgroup of the community group */
+  public synchronized void deleteSubGroup(String path) {
+    deleteGroup(getGroup(GROUP_PATH + "/" + path));
+  }
+
+  public synchronized int getUserCount() {
+    return users.size();
+  }
+
+  public synchronized int getActiveUserCount() {
+    return (int) users.values().stream().filter(user -> user.active).count();
+  }
+
+  public synchronized int getMemberCount() {
+    return groupMembers.get(getGroup(GROUP_PATH).id).size();
+  }
+
+  public synchronized int getTopicCount() {
+    return (int) groups.values().stream().filter(group -> group.parentId != 0).count();
+  }
+
+  /** Returns the usernames of the GitLab members of the given group or <code>null</code> if unknown */
+  public synchronized Set<String> getGroupMembers(String groupPath) {
+    Group group = getGroup(groupPath);
+    if (group == null) {
+      return null;
+    }
+    Set<String> usernames = new TreeSet<>();
+    groupMembers.get(group.id).keySet().forEach(userId -> usernames.add(users.get(userId).username));
+    return usernames;
+  }
+
+  /** Returns the value of the given GitLab custom attribute of the given user or <code>null</code> if not set */
+  public synchronized String getUserAttribute(String username, String key) {
+    return usersByUsername.get(username).attributes.get(key);
+  }
+
+  /** Returns the usernames of the Mattermost members of the given channel or <code>null</code> if unknown */
+  public synchronized Set<String> getChannelMembers(String channelName) {
+    Channel channel = getChannel(channelName);
+    if (channel == null) {
+      return null;
+    }
+    Set<String> usernames = new TreeSet<>();
+    channelMembers.get(channel.id).forEach(userId -> usernames.add(usersByMattermostId.get(userId).username));
+    return usernames;
+  }
+
+  Group getGroup(String fullPath) {
+    return groups.values().stream().filter(group -> fullPath.equals(getFullPath(group))).findFirst().orElse(null);
+  }
+
+  String getFullPath(Group group) {
+    Group parent = groups.get(group.parentId);
+    return parent != null ? getFullPath(parent) + "/" + group.path : group.path;
+  }
+
+  Group createGroup(String path, String name, String description, int parentId) {
+    Group group = new Group(nextGroupId++, path, name, description, parentId);
+    groups.put(group.id, group);
+    groupMembers.put(group.id, new TreeMap<>());
+    return group;
+  }
+
+  void deleteGroup(Group group) {
+    groups.values().stream().filter(subGroup -> subGroup.parentId == group.id).collect(Collectors.toList())
+        .forEach(this::deleteGroup);
+    groups.remove(group.id);
+    groupMembers.remove(group.id);
+  }
+
+  Channel getChannel(String name) {
+    return channels.values().stream().filter(channel -> name.equals(channel.name)).findFirst().orElse(null);
+  }
+
+  Channel createChannel(String name, String displayName, String purpose, String header, String type) {
+    Channel channel = new Channel(mattermostId("ch", nextChannelId++), name, displayName, purpose, header, type);
+    channels.put(channel.id, channel);
+    channelMembers.put(channel.id, new TreeSet<>());
+    return channel;
+  }
+
+  private long nextUpdate() {
+    // Unique update times (GitLab stores them with millisecond precision)
+    lastUpdate = Math.max(System.currentTimeMillis(), lastUpdate + 1);
+    return lastUpdate;
+  }
+
+  private static String mattermostId(String prefix, int id) {
+    // Mattermost IDs are 26 characters long
+    return String.format("%s%024d", prefix, id);
+  }
+
+  static final class User {
+    final int id;
+    final String mattermostId;
+    final String username;
+    String name;
+    boolean active;
+    long updatedAt;
+    final Map<String, String> attributes = new TreeMap<>();
+
+    User(int id, String username, String name, boolean active) {
+      this.id = id;
+      this.mattermostId = mattermostId("us", id);
+      this.username = username;
+      this.name = name;
+      this.active = active;
+      this.updatedAt = CREATED_AT + TimeUnit.MINUTES.toMillis(id);
+    }
+  }
+
+  static final class Group {
+    final int id;
+    final int parentId;
+    String path;
+    String name;
+    String description;
+    final Map<String, String> attributes = new TreeMap<>();
+
+    Group(int id, String path, String name, String description, int parentId) {
+      this.id = id;
+      this.path = path;
+      this.name = name;
+      this.description = description;
+      this.parentId = parentId;
+    }
+  }
+
+  static final class Channel {
+    final String id;
+    final long createAt = CREATED_AT;
+    String name;
+    String displayName;
+    String purpose;
+    String header;
+    String type;
+    int messageCount;
+    long lastPostAt;
+    long deleteAt;
+
+    Channel(String id, String name, String displayName, String purpose, String header, String type) {
+      this.id = id;
+      this.name = name;
+      this.displayName = displayName;
+      this.purpose = purpose;
+      this.header = header;
+      this.type = type;
+      this.lastPostAt = createAt;
+    }
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ServerSocketFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * In-process stand-in for an upstream server which answers the API calls with
+ * the state of a {@link SimulatedCommunity}. The API calls are handled one at a
+ * time (the simulators of a community synchronize on it), but the configured
+ * latency is applied concurrently.
+ * <p>
+ * Besides the latency, a rate limit (requests per window, answered with "429
+ * Too Many Requests" when exceeded) and an error rate (fraction of requests
+ * answered with "503 Service Unavailable") can be configured.
+ */
+public abstract class UpstreamSimulator extends Dispatcher implements Closeable {
+
+  protected static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final String API_PATH = "/api/v4";
+  // MockWebServer logs every request with level INFO
+  private static final Logger MOCK_WEB_SERVER_LOGGER = Logger.getLogger(MockWebServer.class.getName());
+
+  static {
+    MOCK_WEB_SERVER_LOGGER.setLevel(Level.WARNING);
+  }
+
+  protected final SimulatedCommunity community;
+  private final MockWebServer server = new MockWebServer();
+  private final Random random = new Random(0);
+  private final AtomicInteger requestCount = new AtomicInteger();
+  private volatile long latencyMillis;
+  private volatile double errorRate;
+  private int rateLimit;
+  private long rateLimitWindowMillis = TimeUnit.MINUTES.toMillis(1);
+  private long rateLimitWindowStart;
+  private int rateLimitRequests;
+
+  protected UpstreamSimulator(SimulatedCommunity community) {
+    this.community = community;
+    server.setServerSocketFactory(new NoDelayServerSocketFactory());
+    server.setDispatcher(this);
+  }
+
+  /** Starts the server and returns its URL (without trailing slash) */
+  public String start() throws IOException {
+    server.start();
+    return getServerUrl();
+  }
+
+  public String getServerUrl() {
+    String url = server.url("/").toString();
+    return url.substring(0, url.length() - 1);
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.shutdown();
+  }
+
+  public SimulatedCommunity getCommunity() {
+    return community;
+  }
+
+  /** Returns the number of requests received so far */
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  /** Delays every response by the given time */
+  public void setLatency(long latency, TimeUnit unit) {
+    this.latencyMillis = unit.toMillis(latency);
+  }
+
+  /** Answers the given fraction (0.0 to 1.0) of the requests with "503 Service Unavailable" */
+  public void setErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+  }
+
+  /** Allows the given number of requests per window (0 disables the rate limit) */
+  public synchronized void setRateLimit(int limit, long window, TimeUnit unit) {
+    this.rateLimit = limit;
+    this.rateLimitWindowMillis = unit.toMillis(window);
+    this.rateLimitWindowStart = System.currentTimeMillis();
+    this.rateLimitRequests = 0;
+  }
+
+  @Override
+  public MockResponse dispatch(RecordedRequest request) {
+    requestCount.incrementAndGet();
+    int limit;
+    int remaining;
+    long resetAt;
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      if (now >= rateLimitWindowStart + rateLimitWindowMillis) {
+        rateLimitWindowStart = now;
+        rateLimitRequests = 0;
+      }
+      limit = rateLimit;
+      remaining = limit - ++rateLimitRequests;
+      resetAt = rateLimitWindowStart + rateLimitWindowMillis;
+    }
+    MockResponse response;
+    if (limit > 0 && remaining < 0) {
+      response = error(429, "Too Many Requests").setHeader("Retry-After",
+          TimeUnit.MILLISECONDS.toSeconds(resetAt - now + 999));
+    } else if (errorRate > 0 && random.nextDouble() < errorRate) {
+      response = error(503, "Service Unavailable");
+    } else if (!isAuthenticated(request)) {
+      response = error(401, "Unauthorized");
+    } else {
+      response = process(request);
+    }
+    if (limit > 0) {
+      addRateLimitHeaders(response, limit, Math.max(remaining, 0), resetAt);
+    }
+    return response.setHeadersDelay(latencyMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private MockResponse process(RecordedRequest request) {
+    HttpUrl url = request.getRequestUrl();
+    MockResponse response = null;
+    try {
+      String body = request.getBodySize() > 0 ? request.getBody().readUtf8() : null;
+      synchronized (community) {
+        if (url.encodedPath().startsWith(API_PATH + "/")) {
+          List<String> segments = url.pathSegments().subList(2, url.pathSize());
+          response = handle(request.getMethod(), segments, url, body);
+        } else {
+          response = handleOther(request.getMethod(), url, body);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      response = error(500, e.toString());
+    }
+    return response != null ? response : error(404, "Not found");
+  }
+
+  protected abstract boolean isAuthenticated(RecordedRequest request);
+
+  /**
+   * Handles the given API call.
+   *
+   * @param segments
+   *          decoded path segments following the API path
+   * @return <code>null</code> if the API call is unknown
+   */
+  protected abstract MockResponse handle(String method, List<String> segments, HttpUrl url, String body)
+      throws IOException;
+
+  /**
+   * Handles a request outside of the API path.
+   *
+   * @return <code>null</code> if the request is unknown
+   */
+  protected MockResponse handleOther(String method, HttpUrl url, String body) throws IOException {
+    return null;
+  }
+
+  protected abstract MockResponse addRateLimitHeaders(MockResponse response, int limit, int remaining,
+      long resetAtMillis);
+
+  protected abstract MockResponse error(int status, String message);
+
+  protected MockResponse json(int status, JsonNode json) {
+    try {
+      return new MockResponse().setResponseCode(status).setHeader("Content-Type", "application/json")
+          .setBody(MAPPER.writeValueAsString(json));
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  protected static <T> ArrayNode toArray(List<T> entities, Function<T, JsonNode> mapper) {
+    ArrayNode array = MAPPER.createArrayNode();
+    entities.forEach(entity -> array.add(mapper.apply(entity)));
+    return array;
+  }
+
+  /** Returns the entities of the given page (starting with 0) */
+  protected static <T> List<T> page(List<T> entities, int page, int perPage) {
+    long start = (long) page * perPage;
+    if (page < 0 || start >= entities.size()) {
+      return Collections.emptyList();
+    }
+    return entities.subList((int) start, (int) Math.min(start + perPage, entities.size()));
+  }
+
+  protected static int intParameter(HttpUrl url, String name, int defaultValue) {
+    String value = url.queryParameter(name);
+    try {
+      return value != null ? Integer.parseInt(value) : defaultValue;
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * MockWebServer writes the response headers and body separately. With Nagle's
+   * algorithm enabled the body waits for the (delayed) ACK of the headers,
+   * which adds 40ms to every response.
+   */
+  private static final class NoDelayServerSocketFactory extends ServerSocketFactory {
+
+    @Override
+    public ServerSocket createServerSocket() throws IOException {
+      return new ServerSocket() {
+
+        @Override
+        public Socket accept() throws IOException {
+          Socket socket = super.accept();
+          socket.setTcpNoDelay(true);
+          return socket;
+        }
+      };
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port, int backlog, InetAddress address) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
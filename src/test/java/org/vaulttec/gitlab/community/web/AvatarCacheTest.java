@@ -0,0 +1,205 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.unit.DataSize;
+import org.vaulttec.gitlab.community.CommunityConfig;
+import org.vaulttec.gitlab.community.gitlab.GitLabClient;
+import org.vaulttec.gitlab.community.simulator.GitLabSimulator;
+import org.vaulttec.gitlab.community.simulator.SimulatedCommunity;
+
+public class AvatarCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private GitLabSimulator simulator;
+  private String serverUrl;
+  private CommunityConfig config;
+  private Queue<Runnable> fetches;
+
+  @Before
+  public void setUp() throws IOException {
+    simulator = new GitLabSimulator(new SimulatedCommunity(10, 1, 5));
+    serverUrl = simulator.start();
+    fetches = new ArrayDeque<>();
+    config = new CommunityConfig();
+    config.setAvatarCacheDir(folder.getRoot().getPath());
+    config.setAvatarSize(100);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    simulator.close();
+  }
+
+  @Test
+  public void testFetchOnce() throws IOException {
+    AvatarCache cache = newCache();
+    URL source = getAvatar(1);
+    String url = cache.getUrl(source);
+    String key = getKey(url);
+    assertTrue(url.endsWith("/0"));
+    assertEquals(source, cache.getSource(key));
+    assertNull(cache.getSource("unknown"));
+
+    // The thumbnail is fetched in the background
+    int requests = simulator.getRequestCount();
+    assertNull(cache.getThumbnail(key));
+    assertEquals(0, simulator.getRequestCount() - requests);
+    runFetches();
+    Path thumbnail = cache.getThumbnail(key);
+    assertNotNull(thumbnail);
+    assertEquals(thumbnail, cache.getThumbnail(key));
+    runFetches();
+    assertEquals(1, simulator.getRequestCount() - requests);
+    BufferedImage image = ImageIO.read(thumbnail.toFile());
+    assertEquals(100, image.getWidth());
+    assertEquals(100, image.getHeight());
+
+    // The URL is versioned with the thumbnail's hash
+    String versionedUrl = cache.getUrl(source);
+    assertNotEquals(url, versionedUrl);
+    assertEquals(AvatarCache.PATH + "/" + key + "/" + cache.getVersion(key), versionedUrl);
+
+    // Cached thumbnails are found after a restart
+    AvatarCache restartedCache = newCache();
+    assertEquals(versionedUrl, restartedCache.getUrl(source));
+    assertEquals(thumbnail, restartedCache.getThumbnail(key));
+    runFetches();
+    assertEquals(1, simulator.getRequestCount() - requests);
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    config.setAvatarCacheSize(DataSize.ofBytes(1));
+    AvatarCache cache = newCache();
+    String key1 = getKey(cache.getUrl(getAvatar(1)));
+    runFetches();
+    Path thumbnail1 = cache.getThumbnail(key1);
+    String key2 = getKey(cache.getUrl(getAvatar(2)));
+    runFetches();
+    Path thumbnail2 = cache.getThumbnail(key2);
+    assertFalse(Files.exists(thumbnail1));
+    assertTrue(Files.exists(thumbnail2));
+    assertNull(cache.getVersion(key1));
+
+    int requests = simulator.getRequestCount();
+    assertNull(cache.getThumbnail(key1));
+    runFetches();
+    assertTrue(Files.exists(cache.getThumbnail(key1)));
+    assertEquals(1, simulator.getRequestCount() - requests);
+    assertFalse(Files.exists(thumbnail2));
+  }
+
+  @Test
+  public void testMaxCount() throws IOException {
+    config.setAvatarMaxCount(1);
+    AvatarCache cache = newCache();
+    String key1 = getKey(cache.getUrl(getAvatar(1)));
+    runFetches();
+    Path thumbnail1 = cache.getThumbnail(key1);
+    assertTrue(Files.exists(thumbnail1));
+
+    String key2 = getKey(cache.getUrl(getAvatar(2)));
+    assertNull(cache.getSource(key1));
+    assertNull(cache.getThumbnail(key1));
+    assertFalse(Files.exists(thumbnail1));
+    assertEquals(getAvatar(2), cache.getSource(key2));
+  }
+
+  @Test
+  public void testMaxImageSize() throws IOException {
+    config.setAvatarMaxImageSize(DataSize.ofBytes(10));
+    AvatarCache cache = newCache();
+    String key = getKey(cache.getUrl(getAvatar(1)));
+    runFetches();
+    assertNull(cache.getThumbnail(key));
+    assertNull(cache.getVersion(key));
+  }
+
+  @Test
+  public void testInvalidImage() throws IOException {
+    AvatarCache cache = newCache();
+    String key = getKey(cache.getUrl(new URL(serverUrl + "/api/v4/version")));
+    int requests = simulator.getRequestCount();
+    runFetches();
+    assertNull(cache.getThumbnail(key));
+    assertNull(cache.getVersion(key));
+
+    // Failed fetches aren't repeated before the max age
+    runFetches();
+    assertNull(cache.getThumbnail(key));
+    runFetches();
+    assertEquals(1, simulator.getRequestCount() - requests);
+  }
+
+  private AvatarCache newCache() throws IOException {
+    return new AvatarCache(config, AvatarCacheTest::fetch, fetches::add);
+  }
+
+  /** Runs the scheduled background fetches on the test thread */
+  private void runFetches() {
+    Runnable fetch;
+    while ((fetch = fetches.poll()) != null) {
+      fetch.run();
+    }
+  }
+
+  /** Reads the given image like {@link GitLabClient#getAvatar(URL, int)} */
+  private static byte[] fetch(URL url, int maxSize) {
+    try (InputStream in = url.openStream()) {
+      byte[] image = StreamUtils.copyToByteArray(in);
+      return image.length <= maxSize ? image : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private URL getAvatar(int userId) throws IOException {
+    return new URL(serverUrl + GitLabSimulator.AVATAR_PATH + userId + "/avatar.png");
+  }
+
+  private static String getKey(String url) {
+    return url.split("/")[2];
+  }
+}
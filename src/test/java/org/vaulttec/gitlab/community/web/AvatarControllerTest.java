@@ -0,0 +1,113 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+public class AvatarControllerTest {
+
+  private static final Pattern AVATAR_SRC = Pattern.compile("src=\"(" + AvatarCache.PATH + "/[^\"]+)\"");
+
+  @ClassRule
+  public static TemporaryFolder folder = new TemporaryFolder();
+
+  private static WebLoadGenerator generator;
+  private static OkHttpClient httpClient;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    generator = new WebLoadGenerator(20, 2, 5);
+    generator.setProperty("community.avatar-cache-dir", folder.getRoot().getPath());
+    generator.start();
+    httpClient = new OkHttpClient.Builder().followRedirects(false).build();
+  }
+
+  @AfterClass
+  public static void tearDown() throws IOException {
+    httpClient.dispatcher().executorService().shutdown();
+    generator.close();
+  }
+
+  @Test
+  public void testAvatar() throws IOException, InterruptedException {
+    String url = getAvatarUrl();
+    assertTrue(url.endsWith("/0"));
+
+    // The unversioned URL is redirected to the source until the thumbnail is fetched
+    String versionedUrl = null;
+    long deadline = System.currentTimeMillis() + 10000;
+    while (versionedUrl == null && System.currentTimeMillis() < deadline) {
+      try (Response response = get(url)) {
+        assertEquals(302, response.code());
+        String location = response.header("Location");
+        if (location.startsWith(generator.getBaseUrl() + AvatarCache.PATH)) {
+          versionedUrl = location.substring(generator.getBaseUrl().length());
+        }
+      }
+      if (versionedUrl == null) {
+        Thread.sleep(50);
+      }
+    }
+    assertNotNull(versionedUrl);
+    try (Response response = get(versionedUrl)) {
+      assertEquals(200, response.code());
+      assertEquals("image/png", response.header("Content-Type"));
+      assertEquals("max-age=31536000, private, immutable", response.header("Cache-Control"));
+      assertNull(response.header("Pragma"));
+      assertTrue(response.body().bytes().length > 0);
+    }
+    assertEquals(versionedUrl, getAvatarUrl());
+  }
+
+  @Test
+  public void testUnknownAvatar() throws IOException {
+    try (Response response = get(AvatarCache.PATH + "/unknown/0")) {
+      assertEquals(404, response.code());
+    }
+  }
+
+  private static String getAvatarUrl() throws IOException {
+    try (Response response = get("/members/user1")) {
+      Matcher matcher = AVATAR_SRC.matcher(response.body().string());
+      assertTrue(matcher.find());
+      return matcher.group(1);
+    }
+  }
+
+  private static Response get(String path) throws IOException {
+    return httpClient.newCall(new Request.Builder().url(generator.getBaseUrl() + path)
+        .header(WebLoadGenerator.USER_HEADER, "user1").build()).execute();
+  }
+}
@@ -0,0 +1,369 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.web;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.core.oidc.IdTokenClaimNames;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.OidcUserInfo;
+import org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.security.web.authentication.preauth.RequestHeaderAuthenticationFilter;
+import org.vaulttec.gitlab.community.CommunityApplication;
+import org.vaulttec.gitlab.community.CommunityPermission;
+import org.vaulttec.gitlab.community.CommunityService;
+import org.vaulttec.gitlab.community.model.Member;
+import org.vaulttec.gitlab.community.simulator.GitLabSimulator;
+import org.vaulttec.gitlab.community.simulator.MattermostSimulator;
+import org.vaulttec.gitlab.community.simulator.SimulatedCommunity;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Load generator for the web UI. Boots the application against the upstream
+ * simulators with the OAuth2 login replaced by {@link LoadTestSecurityConfig}
+ * and requests a weighted mix of the pages (see {@link Route}) as randomly
+ * chosen community members. The latency percentiles and the throughput are
+ * reported per route; requests during the warm-up aren't recorded.
+ * <p>
+ * The generator is configured via system properties (defaults in brackets):
+ * <ul>
+ * <li>"loadtest.users" (10000), "loadtest.topics" (200) and
+ * "loadtest.topic-members" (50) - size of the simulated community</li>
+ * <li>"loadtest.latency-millis" (0) - latency of the upstream simulators</li>
+ * <li>"loadtest.concurrency" (8) - number of concurrent clients</li>
+ * <li>"loadtest.warmup" (10) and "loadtest.duration" (30) - in seconds</li>
+ * <li>"loadtest.mix" - weights of the routes, e.g.
+ * "TOPIC=50,JOIN=0,LEAVE=0"</li>
+ * </ul>
+ */
+public class WebLoadGenerator implements Closeable {
+
+  static final String USER_HEADER = "X-Load-Test-User";
+
+  private static final int PAGE_SIZE = 20;
+
+  private final GitLabSimulator gitLabSimulator;
+  private final MattermostSimulator mattermostSimulator;
+  private final Map<String, Object> properties = new HashMap<>();
+  private ConfigurableApplicationContext context;
+  private OkHttpClient httpClient;
+  private String baseUrl;
+  private List<String> usernames;
+  private List<String> topicPaths;
+
+  public WebLoadGenerator(int users, int topics, int topicMembers) {
+    SimulatedCommunity community = new SimulatedCommunity(users, topics, topicMembers);
+    gitLabSimulator = new GitLabSimulator(community);
+    mattermostSimulator = new MattermostSimulator(community);
+  }
+
+  public void setLatency(long latency, TimeUnit unit) {
+    gitLabSimulator.setLatency(latency, unit);
+    mattermostSimulator.setLatency(latency, unit);
+  }
+
+  /** Sets an additional application property (before starting the application) */
+  public void setProperty(String key, Object value) {
+    properties.put(key, value);
+  }
+
+  public SimulatedCommunity getCommunity() {
+    return gitLabSimulator.getCommunity();
+  }
+
+  public String getBaseUrl() {
+    return baseUrl;
+  }
+
+  public <T> T getBean(Class<T> type) {
+    return context.getBean(type);
+  }
+
+  /** Starts the simulators and the application and loads the caches */
+  public void start() throws IOException {
+    Map<String, Object> properties = new HashMap<>(this.properties);
+    properties.put("server.port", 0);
+    properties.put("spring.security.oauth2.client.registration.community.client-id", "load-test");
+    properties.put("spring.security.oauth2.client.registration.community.client-secret", "load-test");
+    properties.put("gitlab.server-url", gitLabSimulator.start());
+    properties.put("gitlab.personal-access-token", "token");
+    properties.put("mattermost.server-url", mattermostSimulator.start());
+    properties.put("mattermost.personal-access-token", "token");
+    properties.put("community.group-path", SimulatedCommunity.GROUP_PATH);
+    properties.put("community.admin-usernames", "user1");
+    properties.put("community.excluded-usernames", "root");
+    properties.put("community.refresh-rate", TimeUnit.HOURS.toMillis(1));
+    properties.put("logging.level.org.springframework", "warn");
+    properties.put("logging.level.org.vaulttec", "warn");
+    // Passed as command line arguments to override the application's configuration. The security config isn't a
+    // component, so it's ignored as source and registered explicitly.
+    context = new SpringApplicationBuilder(CommunityApplication.class)
+        .initializers((GenericApplicationContext applicationContext) -> applicationContext
+            .registerBean(LoadTestSecurityConfig.class))
+        .run(properties.entrySet().stream().map(entry -> "--" + entry.getKey() + "=" + entry.getValue())
+            .toArray(String[]::new));
+    baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+
+    CommunityService service = context.getBean(CommunityService.class);
+    usernames = new ArrayList<>();
+    service.getMembers().forEach(member -> usernames.add(member.getUsername()));
+    topicPaths = new ArrayList<>();
+    service.getTopics().forEach(topic -> topicPaths.add(topic.getPath()));
+    service.getTopicMembers();
+  }
+
+  /**
+   * Requests the routes with the given weights by the given number of
+   * concurrent clients and returns the statistics of the requests after the
+   * warm-up.
+   */
+  public Map<Route, RouteStatistics> run(int concurrency, Map<Route, Integer> mix, Duration warmup,
+      Duration duration) throws InterruptedException {
+    httpClient = new OkHttpClient.Builder().followRedirects(false)
+        .connectionPool(new ConnectionPool(concurrency, 1, TimeUnit.MINUTES)).readTimeout(1, TimeUnit.MINUTES)
+        .build();
+    Map<Route, RouteStatistics> statistics = new EnumMap<>(Route.class);
+    List<Route> routes = new ArrayList<>();
+    mix.forEach((route, weight) -> {
+      if (weight > 0) {
+        statistics.put(route, new RouteStatistics(route, duration));
+        routes.addAll(Collections.nCopies(weight, route));
+      }
+    });
+    long warmupEnd = System.nanoTime() + warmup.toNanos();
+    long end = warmupEnd + duration.toNanos();
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    for (int i = 0; i < concurrency; i++) {
+      executor.execute(() -> {
+        while (System.nanoTime() < end) {
+          Route route = routes.get(ThreadLocalRandom.current().nextInt(routes.size()));
+          Request request = newRequest(route);
+          long start = System.nanoTime();
+          boolean failed;
+          try (Response response = httpClient.newCall(request).execute()) {
+            response.body().bytes();
+            // Pages are never redirected, e.g. to the login
+            failed = response.code() >= 400 || "GET".equals(route.method) && response.isRedirect();
+          } catch (IOException e) {
+            failed = true;
+          }
+          if (start >= warmupEnd) {
+            statistics.get(route).record(System.nanoTime() - start, failed);
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(warmup.plus(duration).plusMinutes(1).toMillis(), TimeUnit.MILLISECONDS);
+    return statistics;
+  }
+
+  private Request newRequest(Route route) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    String username = usernames.get(random.nextInt(usernames.size()));
+    String path = route.template.replace("{username}", username).replace("{path}",
+        topicPaths.get(random.nextInt(topicPaths.size())));
+    if (route == Route.MEMBERS) {
+      path += "?page=" + random.nextInt((usernames.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+    } else if (route == Route.TOPICS) {
+      path += "?page=" + random.nextInt((topicPaths.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+    Request.Builder builder = new Request.Builder().url(baseUrl + path).header(USER_HEADER, username);
+    if ("POST".equals(route.method)) {
+      builder.post(RequestBody.create(null, new byte[0]));
+    }
+    return builder.build();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (httpClient != null) {
+      httpClient.dispatcher().executorService().shutdown();
+      httpClient.connectionPool().evictAll();
+    }
+    if (context != null) {
+      context.close();
+    }
+    gitLabSimulator.close();
+    mattermostSimulator.close();
+  }
+
+  public static void printReport(Map<Route, RouteStatistics> statistics, PrintStream out) {
+    out.printf("%-32s %10s %8s %12s %10s %10s %10s%n", "Route", "Requests", "Errors", "Throughput", "p50 [ms]",
+        "p99 [ms]", "max [ms]");
+    statistics.values().forEach(routeStatistics -> routeStatistics.print(out));
+  }
+
+  /** Parses the route weights from a list like "TOPIC=50,JOIN=0"; missing routes keep their default weight */
+  static Map<Route, Integer> parseMix(String mix) {
+    Map<Route, Integer> weights = new EnumMap<>(Route.class);
+    for (Route route : Route.values()) {
+      weights.put(route, route.defaultWeight);
+    }
+    if (mix != null && !mix.trim().isEmpty()) {
+      for (String entry : mix.split(",")) {
+        String[] parts = entry.split("=");
+        if (parts.length != 2) {
+          throw new IllegalArgumentException("Invalid route weight: " + entry);
+        }
+        weights.put(Route.valueOf(parts[0].trim().toUpperCase().replace('-', '_')), Integer.valueOf(parts[1].trim()));
+      }
+    }
+    return weights;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    // Otherwise the restart of the devtools would run this method again
+    System.setProperty("spring.devtools.restart.enabled", "false");
+    try (WebLoadGenerator generator = new WebLoadGenerator(Integer.getInteger("loadtest.users", 10000),
+        Integer.getInteger("loadtest.topics", 200), Integer.getInteger("loadtest.topic-members", 50))) {
+      generator.setLatency(Long.getLong("loadtest.latency-millis", 0), TimeUnit.MILLISECONDS);
+      generator.start();
+      Map<Route, RouteStatistics> statistics = generator.run(Integer.getInteger("loadtest.concurrency", 8),
+          parseMix(System.getProperty("loadtest.mix")), Duration.ofSeconds(Long.getLong("loadtest.warmup", 10)),
+          Duration.ofSeconds(Long.getLong("loadtest.duration", 30)));
+      printReport(statistics, System.out);
+    }
+  }
+
+  public enum Route {
+    HOME("GET", "/", 10), MEMBERS("GET", "/members", 20), TOPICS("GET", "/topics", 20),
+    TOPIC("GET", "/topics/{path}", 25), MEMBER_TOPICS("GET", "/members/{username}/topics", 15),
+    JOIN("POST", "/topics/{path}/join", 5), LEAVE("POST", "/topics/{path}/leave", 5);
+
+    private final String method;
+    private final String template;
+    private final int defaultWeight;
+
+    private Route(String method, String template, int defaultWeight) {
+      this.method = method;
+      this.template = template;
+      this.defaultWeight = defaultWeight;
+    }
+  }
+
+  public static final class RouteStatistics {
+    private final Route route;
+    private final Duration duration;
+    private final Histogram latencies = new ConcurrentHistogram(3);
+    private final AtomicLong errors = new AtomicLong();
+
+    RouteStatistics(Route route, Duration duration) {
+      this.route = route;
+      this.duration = duration;
+    }
+
+    void record(long latencyNanos, boolean failed) {
+      latencies.recordValue(latencyNanos);
+      if (failed) {
+        errors.incrementAndGet();
+      }
+    }
+
+    public long getRequests() {
+      return latencies.getTotalCount();
+    }
+
+    public long getErrors() {
+      return errors.get();
+    }
+
+    /** Returns the number of requests per second */
+    public double getThroughput() {
+      return latencies.getTotalCount() * 1000.0 / duration.toMillis();
+    }
+
+    /** Returns the latency at the given percentile in milliseconds */
+    public double getLatency(double percentile) {
+      return latencies.getValueAtPercentile(percentile) / 1e6;
+    }
+
+    void print(PrintStream out) {
+      out.printf("%-32s %10d %8d %10.1f/s %10.2f %10.2f %10.2f%n", route.method + " " + route.template,
+          getRequests(), getErrors(), getThroughput(), getLatency(50), getLatency(99), latencies.getMaxValue() / 1e6);
+    }
+  }
+
+  /**
+   * Replaces the OAuth2 login with the username given in the request header
+   * {@link WebLoadGenerator#USER_HEADER}. The roles are derived like in
+   * {@link WebSecurityConfig}. Not annotated as configuration, otherwise the
+   * component scan of the application would pick it up in other tests.
+   */
+  @Order(1)
+  static class LoadTestSecurityConfig extends WebSecurityConfigurerAdapter {
+
+    @Autowired
+    private CommunityService communityService;
+
+    @Override
+    protected void configure(HttpSecurity http) throws Exception {
+      RequestHeaderAuthenticationFilter filter = new RequestHeaderAuthenticationFilter();
+      filter.setPrincipalRequestHeader(USER_HEADER);
+      filter.setExceptionIfHeaderMissing(false);
+      filter.setAuthenticationManager(this::authenticate);
+      http.csrf().disable().sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS).and()
+          .addFilter(filter).authorizeRequests().anyRequest().authenticated();
+    }
+
+    private Authentication authenticate(Authentication authentication) {
+      String username = (String) authentication.getPrincipal();
+      Member member = communityService.getMember(username);
+      CommunityPermission permission = member == null ? CommunityPermission.GUEST
+          : member.isAdmin() ? CommunityPermission.ADMIN : CommunityPermission.USER;
+      // The templates expect the OIDC user authority created by the OAuth2 login
+      Map<String, Object> claims = Collections.singletonMap("nickname", username);
+      OidcIdToken idToken = new OidcIdToken("load-test", Instant.now(), Instant.now().plusSeconds(60),
+          Collections.singletonMap(IdTokenClaimNames.SUB, username));
+      return new PreAuthenticatedAuthenticationToken(username, authentication.getCredentials(), Collections
+          .singleton(new OidcUserAuthority(permission.getRole(), idToken, new OidcUserInfo(claims))));
+    }
+  }
+}
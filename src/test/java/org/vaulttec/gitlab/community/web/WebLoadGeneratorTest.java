@@ -0,0 +1,45 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.Test;
+import org.vaulttec.gitlab.community.web.WebLoadGenerator.Route;
+import org.vaulttec.gitlab.community.web.WebLoadGenerator.RouteStatistics;
+
+public class WebLoadGeneratorTest {
+
+  @Test
+  public void testAllRoutes() throws Exception {
+    try (WebLoadGenerator generator = new WebLoadGenerator(200, 10, 20)) {
+      generator.start();
+      Map<Route, RouteStatistics> statistics = generator.run(4, WebLoadGenerator.parseMix(null),
+          Duration.ofSeconds(3), Duration.ofSeconds(5));
+      assertEquals(Route.values().length, statistics.size());
+      statistics.forEach((route, routeStatistics) -> {
+        assertTrue(route.name(), routeStatistics.getRequests() > 0);
+        assertEquals(route.name(), 0, routeStatistics.getErrors());
+      });
+    }
+  }
+}
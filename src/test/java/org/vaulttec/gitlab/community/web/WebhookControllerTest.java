@@ -0,0 +1,195 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.community.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vaulttec.gitlab.community.CommunityService;
+import org.vaulttec.gitlab.community.model.Member;
+import org.vaulttec.gitlab.community.model.Topic;
+import org.vaulttec.gitlab.community.simulator.SimulatedCommunity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+public class WebhookControllerTest {
+
+  private static final String TOKEN = "secret";
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static WebLoadGenerator generator;
+  private static SimulatedCommunity community;
+  private static CommunityService service;
+  private static OkHttpClient httpClient;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    generator = new WebLoadGenerator(200, 5, 20);
+    generator.setProperty("community.webhook-token", TOKEN);
+    generator.start();
+    community = generator.getCommunity();
+    service = generator.getBean(CommunityService.class);
+    httpClient = new OkHttpClient();
+  }
+
+  @AfterClass
+  public static void tearDown() throws IOException {
+    httpClient.dispatcher().executorService().shutdown();
+    generator.close();
+  }
+
+  @Test
+  public void testInvalidToken() throws IOException {
+    ObjectNode event = MAPPER.createObjectNode().put("event_name", "user_block").put("username", "user1");
+    assertEquals(401, post(event, "invalid"));
+    assertEquals(401, post(event, null));
+  }
+
+  @Test
+  public void testTopicMemberAdded() throws Exception {
+    String topicPath = SimulatedCommunity.TOPIC_PATH_PREFIX + 1;
+    Topic topic = service.getTopic(topicPath);
+    Set<String> topicMembers = community.getGroupMembers(SimulatedCommunity.GROUP_PATH + "/" + topicPath);
+    String username = community.getGroupMembers(SimulatedCommunity.GROUP_PATH).stream()
+        .filter(member -> !topicMembers.contains(member) && service.getMember(member) != null).findFirst().get();
+    Member member = service.getMember(username);
+    assertNotNull(member);
+    assertFalse(service.isTopicMember(topic, username));
+
+    community.addGroupMember(SimulatedCommunity.GROUP_PATH + "/" + topicPath, username,
+        SimulatedCommunity.ACCESS_LEVEL_DEVELOPER);
+    ObjectNode event = MAPPER.createObjectNode().put("event_name", "user_add_to_group")
+        .put("group_id", Integer.parseInt(topic.getGroupId())).put("user_id", Integer.parseInt(member.getUserId()))
+        .put("user_username", username).put("group_access", "Developer");
+    assertEquals(202, post(event, TOKEN));
+    await(() -> service.isTopicMember(topic, username));
+    await(() -> community.getChannelMembers(topicPath).contains(username));
+  }
+
+  @Test
+  public void testUserBlocked() throws Exception {
+    String username = community.getGroupMembers(SimulatedCommunity.GROUP_PATH).stream()
+        .filter(member -> service.getMember(member) != null).reduce((first, second) -> second).get();
+    community.blockUser(username);
+    ObjectNode event = MAPPER.createObjectNode().put("event_name", "user_block").put("username", username);
+    assertEquals(202, post(event, TOKEN));
+    await(() -> service.getMember(username) == null);
+  }
+
+  @Test
+  public void testUserBlockedAndUnblocked() throws Exception {
+    String topicPath = SimulatedCommunity.TOPIC_PATH_PREFIX + 2;
+    Topic topic = service.getTopic(topicPath);
+    String username = community.getGroupMembers(SimulatedCommunity.GROUP_PATH + "/" + topicPath).stream()
+        .filter(member -> service.isTopicMember(topic, member)).findFirst().get();
+    String userId = service.getMember(username).getUserId();
+    community.blockUser(username);
+    assertEquals(202, post(MAPPER.createObjectNode().put("event_name", "user_block").put("username", username),
+        TOKEN));
+    await(() -> service.getMember(username) == null && !service.isTopicMember(topic, username));
+
+    // The unblocked user is restored as member of the community and its topics
+    community.unblockUser(username);
+    assertEquals(202, post(MAPPER.createObjectNode().put("event_name", "user_unblock")
+        .put("user_id", Integer.parseInt(userId)).put("username", username), TOKEN));
+    await(() -> service.getMember(username) != null && service.isTopicMember(topic, username));
+  }
+
+  @Test
+  public void testUserRenamed() throws Exception {
+    String username = community.getGroupMembers(SimulatedCommunity.GROUP_PATH).stream()
+        .filter(member -> service.getMember(member) != null).findFirst().get();
+    community.renameUser(username, "Renamed User");
+    ObjectNode event = MAPPER.createObjectNode().put("event_name", "user_rename")
+        .put("user_id", Integer.parseInt(service.getMember(username).getUserId())).put("username", username);
+    assertEquals(202, post(event, TOKEN));
+    await(() -> "Renamed User".equals(service.getMember(username).getName()));
+  }
+
+  @Test
+  public void testTopicRenamed() throws Exception {
+    String topicPath = SimulatedCommunity.TOPIC_PATH_PREFIX + 4;
+    Topic topic = service.getTopic(topicPath);
+    Set<Member> topicMembers = new HashSet<>(service.getMembersForTopic(topic));
+    community.renameSubGroup(topicPath, "renamed-topic");
+    ObjectNode event = MAPPER.createObjectNode().put("event_name", "group_rename")
+        .put("group_id", Integer.parseInt(topic.getGroupId())).put("path", "renamed-topic");
+    assertEquals(202, post(event, TOKEN));
+    await(() -> service.getTopic("renamed-topic") != null && service.getTopic(topicPath) == null);
+    assertFalse(topicMembers.isEmpty());
+    assertEquals(topicMembers, new HashSet<>(service.getMembersForTopic(service.getTopic("renamed-topic"))));
+  }
+
+  @Test
+  public void testTopicDestroyed() throws Exception {
+    String topicPath = SimulatedCommunity.TOPIC_PATH_PREFIX + 5;
+    Topic topic = service.getTopic(topicPath);
+    community.deleteSubGroup(topicPath);
+    ObjectNode event = MAPPER.createObjectNode().put("event_name", "group_destroy")
+        .put("group_id", Integer.parseInt(topic.getGroupId())).put("path", topicPath);
+    assertEquals(202, post(event, TOKEN));
+    await(() -> service.getTopic(topicPath) == null);
+  }
+
+  @Test
+  public void testSubGroupCreatedBySystemHook() throws Exception {
+    String topicPath = "system-hook-topic";
+    int groupId = community.createSubGroup(topicPath, "System hook topic");
+    ObjectNode event = MAPPER.createObjectNode().put("event_name", "group_create").put("group_id", groupId)
+        .put("path", topicPath).put("full_path", SimulatedCommunity.GROUP_PATH + "/" + topicPath);
+    assertEquals(202, post(event, TOKEN));
+    await(() -> service.getTopic(topicPath) != null);
+    assertTrue(service.getMembersForTopic(service.getTopic(topicPath)).isEmpty());
+  }
+
+  private static int post(ObjectNode event, String token) throws IOException {
+    Request.Builder request = new Request.Builder().url(generator.getBaseUrl() + WebhookController.PATH)
+        .post(RequestBody.create(MediaType.get("application/json"), event.toString()));
+    if (token != null) {
+      request.header(WebhookController.TOKEN_HEADER, token);
+    }
+    try (Response response = httpClient.newCall(request.build()).execute()) {
+      return response.code();
+    }
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+}
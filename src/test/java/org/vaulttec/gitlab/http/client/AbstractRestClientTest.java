@@ -0,0 +1,279 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.vaulttec.http.client.AbstractRestClient;
+import org.vaulttec.http.client.DeadlineExceededException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpServer;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+public class AbstractRestClientTest {
+
+  private HttpServer server;
+  private AtomicInteger requests;
+  private volatile int status;
+  private volatile CountDownLatch requestReceived;
+  private volatile CountDownLatch responseReleased;
+  private volatile int resourceSize;
+  private volatile boolean resourceChunked;
+  private SimpleMeterRegistry meterRegistry;
+  private JsonRestClient.Config config;
+
+  @Before
+  public void setUp() throws IOException {
+    requests = new AtomicInteger();
+    status = 200;
+    requestReceived = new CountDownLatch(1);
+    responseReleased = new CountDownLatch(0);
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/api/entity", exchange -> {
+      requests.incrementAndGet();
+      requestReceived.countDown();
+      try {
+        responseReleased.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      byte[] body = ("{\"request\":" + requests.get() + "}").getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, "application/json");
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+      exchange.close();
+    });
+    server.createContext("/resource", exchange -> {
+      exchange.sendResponseHeaders(200, resourceChunked ? 0 : resourceSize);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(new byte[resourceSize]);
+      }
+      exchange.close();
+    });
+    server.start();
+    meterRegistry = new SimpleMeterRegistry();
+    config = new JsonRestClient.Config("http://localhost:" + server.getAddress().getPort());
+  }
+
+  @After
+  public void tearDown() {
+    responseReleased.countDown();
+    server.stop(0);
+  }
+
+  @Test
+  public void testCoalescedReads() throws Exception {
+    JsonRestClient client = new JsonRestClient(config, meterRegistry);
+    try {
+      CompletableFuture<JsonNode> first = startBlockedRead(client);
+      CompletableFuture<JsonNode> second = startCoalescedRead(client, 1);
+      responseReleased.countDown();
+      assertNotNull(first.get(10, TimeUnit.SECONDS));
+      assertSame(first.get(), second.get(10, TimeUnit.SECONDS));
+      assertEquals(1, requests.get());
+
+      // Completed reads aren't shared
+      assertEquals(2, client.get("/entity").path("request").asInt());
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void testCoalescedReadFailure() throws Exception {
+    status = 503;
+    JsonRestClient client = new JsonRestClient(config, meterRegistry);
+    try {
+      CompletableFuture<JsonNode> first = startBlockedRead(client);
+      CompletableFuture<JsonNode> second = startCoalescedRead(client, 1);
+      responseReleased.countDown();
+      assertNull(first.get(10, TimeUnit.SECONDS));
+      assertNull(second.get(10, TimeUnit.SECONDS));
+      assertEquals(1, requests.get());
+
+      // The failed read is removed from the in-flight reads
+      status = 200;
+      assertEquals(2, client.get("/entity").path("request").asInt());
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void testReadTimeout() throws Exception {
+    config.setReadTimeout(Duration.ofMillis(200));
+    JsonRestClient client = new JsonRestClient(config, meterRegistry);
+    try {
+      responseReleased = new CountDownLatch(1);
+      long start = System.nanoTime();
+      assertNull(client.get("/entity"));
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void testAsyncReadFailure() throws Exception {
+    JsonRestClient client = new JsonRestClient(config, meterRegistry);
+    Logger logger = (Logger) LoggerFactory.getLogger(AbstractRestClient.class);
+    ListAppender<ILoggingEvent> appender = new ListAppender<>();
+    appender.start();
+    logger.addAppender(appender);
+    try {
+      assertEquals(1, client.getAsync("/entity").get(10, TimeUnit.SECONDS).path("request").asInt());
+
+      // An ignored status completes with null without logging
+      status = 404;
+      assertNull(client.getAsync("/entity", HttpStatus.NOT_FOUND).get(10, TimeUnit.SECONDS));
+      assertTrue(appender.list.isEmpty());
+
+      // Any other error status is logged
+      status = 500;
+      assertNull(client.getAsync("/entity", HttpStatus.NOT_FOUND).get(10, TimeUnit.SECONDS));
+      assertEquals(1, appender.list.size());
+      assertEquals(Level.ERROR, appender.list.get(0).getLevel());
+      assertTrue(appender.list.get(0).getFormattedMessage().contains("500"));
+    } finally {
+      logger.detachAppender(appender);
+      client.close();
+    }
+  }
+
+  @Test
+  public void testListDeadline() throws Exception {
+    config.setListDeadline(Duration.ofMillis(100));
+    JsonRestClient client = new JsonRestClient(config, meterRegistry);
+    try {
+      client.checkListDeadline(0);
+      try {
+        client.checkListDeadline(150);
+        fail("Deadline not exceeded");
+      } catch (DeadlineExceededException e) {
+        assertEquals(0, e.getPages());
+      }
+
+      assertEquals("done", client.withListDeadline(Mono.just("done")).block());
+      try {
+        client.withListDeadline(Mono.never()).block();
+        fail("Deadline not exceeded");
+      } catch (DeadlineExceededException e) {
+        assertEquals(0, e.getPages());
+      }
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void testResourceMaxSize() throws Exception {
+    JsonRestClient client = new JsonRestClient(config, meterRegistry);
+    try {
+      resourceSize = 1000;
+      assertArrayEquals(new byte[1000], client.getResource("/resource", 1000));
+
+      // Oversized by content length
+      resourceSize = 1001;
+      assertNull(client.getResource("/resource", 1000));
+
+      // Oversized by streamed content
+      resourceChunked = true;
+      resourceSize = 100000;
+      assertNull(client.getResource("/resource", 1000));
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void testWarmUpConnections() throws Exception {
+    config.setWarmUpConnections(2);
+    JsonRestClient client = new JsonRestClient(config, meterRegistry);
+    try {
+      // No connections are opened while the client is created
+      assertEquals(0, getAvailableConnections(), 0);
+
+      client.warmUpConnections();
+      long deadline = System.currentTimeMillis() + 10000;
+      while (getAvailableConnections() < 2 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(2, getAvailableConnections(), 0);
+    } finally {
+      client.close();
+    }
+  }
+
+  private double getAvailableConnections() {
+    return meterRegistry.get("httpcomponents.httpclient.pool.total.connections").tag("state", "available").gauge()
+        .value();
+  }
+
+  /** Starts a read whose response is held back by the server */
+  private CompletableFuture<JsonNode> startBlockedRead(JsonRestClient client) throws InterruptedException {
+    responseReleased = new CountDownLatch(1);
+    CompletableFuture<JsonNode> read = CompletableFuture.supplyAsync(() -> client.get("/entity"));
+    requestReceived.await(10, TimeUnit.SECONDS);
+    return read;
+  }
+
+  /** Starts a read and waits until it awaits the in-flight read */
+  private CompletableFuture<JsonNode> startCoalescedRead(JsonRestClient client, int coalescedReads)
+      throws InterruptedException {
+    CompletableFuture<JsonNode> read = CompletableFuture.supplyAsync(() -> client.get("/entity"));
+    long deadline = System.currentTimeMillis() + 10000;
+    while (meterRegistry.get("http.client.requests.coalesced").counter().count() < coalescedReads
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    return read;
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.vaulttec.http.client.CircuitBreaker;
+import org.vaulttec.http.client.CircuitBreakerHealthIndicator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class CircuitBreakerHealthIndicatorTest {
+
+  @Test
+  public void testOpenCircuitIsUp() throws IOException {
+    JsonRestClient client = new JsonRestClient(new JsonRestClient.Config("http://localhost"),
+        new SimpleMeterRegistry());
+    try {
+      CircuitBreakerHealthIndicator indicator = new CircuitBreakerHealthIndicator(client);
+      assertEquals(Status.UP, indicator.health().getStatus());
+
+      while (client.getCircuitBreaker().getState() == CircuitBreaker.State.CLOSED) {
+        client.getCircuitBreaker().intercept(new MockClientHttpRequest(), new byte[0],
+            (request, body) -> new MockClientHttpResponse(new byte[0], HttpStatus.SERVICE_UNAVAILABLE)).close();
+      }
+      Health health = indicator.health();
+      assertEquals(Status.UP, health.getStatus());
+      assertEquals(CircuitBreaker.State.OPEN, health.getDetails().get("state"));
+    } finally {
+      client.close();
+    }
+  }
+}
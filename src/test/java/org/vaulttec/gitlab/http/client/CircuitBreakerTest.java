@@ -0,0 +1,233 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.vaulttec.http.client.CircuitBreaker;
+import org.vaulttec.http.client.CircuitBreaker.State;
+import org.vaulttec.http.client.CircuitBreakerOpenException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+public class CircuitBreakerTest {
+
+  private static final ClientHttpRequestExecution OK = respond(HttpStatus.OK);
+  private static final ClientHttpRequestExecution NOT_FOUND = respond(HttpStatus.NOT_FOUND);
+  private static final ClientHttpRequestExecution ERROR = respond(HttpStatus.SERVICE_UNAVAILABLE);
+  private static final ClientHttpRequestExecution IO_ERROR = (request, body) -> {
+    throw new IOException("Connection refused");
+  };
+
+  @Test
+  public void testOpenedByFailureRate() throws IOException {
+    CircuitBreaker breaker = newBreaker(50, 4, Duration.ofMinutes(1));
+    call(breaker, OK);
+    call(breaker, NOT_FOUND);
+    assertEquals(State.CLOSED, breaker.getState());
+    call(breaker, ERROR);
+    assertEquals(State.CLOSED, breaker.getState());
+    call(breaker, IO_ERROR);
+    assertEquals(State.OPEN, breaker.getState());
+    assertEquals(50, breaker.getFailureRate());
+
+    assertRejected(breaker);
+    assertEquals(1, breaker.getRejectedCalls());
+  }
+
+  @Test
+  public void testSlidingWindow() throws IOException {
+    CircuitBreaker breaker = newBreaker(75, 4, Duration.ofMinutes(1));
+    for (int i = 0; i < 4; i++) {
+      call(breaker, OK);
+    }
+    call(breaker, ERROR);
+    call(breaker, ERROR);
+    // The oldest outcomes are dropped from the window
+    assertEquals(4, breaker.getCalls());
+    assertEquals(2, breaker.getFailedCalls());
+    assertEquals(State.CLOSED, breaker.getState());
+    call(breaker, ERROR);
+    assertEquals(State.OPEN, breaker.getState());
+  }
+
+  @Test
+  public void testHalfOpenSingleProbe() throws Exception {
+    CircuitBreaker breaker = newBreaker(50, 2, Duration.ofMillis(50));
+    call(breaker, ERROR);
+    assertEquals(State.OPEN, breaker.getState());
+    Thread.sleep(100);
+
+    CountDownLatch probeStarted = new CountDownLatch(1);
+    CountDownLatch probeReleased = new CountDownLatch(1);
+    CompletableFuture<Void> probe = startBlockedCall(breaker, probeStarted, probeReleased, HttpStatus.OK);
+    probeStarted.await(10, TimeUnit.SECONDS);
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    assertRejected(breaker);
+
+    probeReleased.countDown();
+    probe.get(10, TimeUnit.SECONDS);
+    assertEquals(State.CLOSED, breaker.getState());
+    assertEquals(0, breaker.getCalls());
+    call(breaker, OK);
+  }
+
+  @Test
+  public void testReopenedByFailedProbe() throws Exception {
+    CircuitBreaker breaker = newBreaker(50, 2, Duration.ofMillis(50));
+    call(breaker, ERROR);
+    Thread.sleep(100);
+    call(breaker, IO_ERROR);
+    assertEquals(State.OPEN, breaker.getState());
+    assertRejected(breaker);
+  }
+
+  @Test
+  public void testLateResultWhileHalfOpen() throws Exception {
+    CircuitBreaker breaker = newBreaker(50, 2, Duration.ofMillis(50));
+    CountDownLatch lateStarted = new CountDownLatch(1);
+    CountDownLatch lateReleased = new CountDownLatch(1);
+    CompletableFuture<Void> late = startBlockedCall(breaker, lateStarted, lateReleased, HttpStatus.OK);
+    lateStarted.await(10, TimeUnit.SECONDS);
+    call(breaker, ERROR);
+    assertEquals(State.OPEN, breaker.getState());
+    Thread.sleep(100);
+
+    CountDownLatch probeStarted = new CountDownLatch(1);
+    CountDownLatch probeReleased = new CountDownLatch(1);
+    CompletableFuture<Void> probe = startBlockedCall(breaker, probeStarted, probeReleased,
+        HttpStatus.SERVICE_UNAVAILABLE);
+    probeStarted.await(10, TimeUnit.SECONDS);
+
+    // The success of the request permitted while closed doesn't close the circuit
+    lateReleased.countDown();
+    late.get(10, TimeUnit.SECONDS);
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    assertRejected(breaker);
+
+    probeReleased.countDown();
+    probe.get(10, TimeUnit.SECONDS);
+    assertEquals(State.OPEN, breaker.getState());
+  }
+
+  @Test
+  public void testProbeThrowingError() throws Exception {
+    CircuitBreaker breaker = newBreaker(50, 2, Duration.ofMillis(50));
+    call(breaker, ERROR);
+    Thread.sleep(100);
+    try {
+      breaker.intercept(new MockClientHttpRequest(), new byte[0], (request, body) -> {
+        throw new OutOfMemoryError("Probe failed");
+      });
+      fail("Error not thrown");
+    } catch (OutOfMemoryError e) {
+      // expected
+    }
+    assertEquals(State.OPEN, breaker.getState());
+
+    // The next probe is permitted after the wait duration
+    Thread.sleep(100);
+    call(breaker, OK);
+    assertEquals(State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void testCancelledRequestWhileHalfOpen() throws Exception {
+    CircuitBreaker breaker = newBreaker(50, 2, Duration.ofMillis(50));
+    call(breaker, ERROR);
+    Thread.sleep(100);
+    ExchangeFunction neverCompleting = request -> Mono.never();
+    ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("http://localhost")).build();
+    Disposable probe = breaker.filter(request, neverCompleting).subscribe();
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    assertRejected(breaker);
+
+    // Cancelling the probe permits the next probe
+    probe.dispose();
+    call(breaker, OK);
+    assertEquals(State.CLOSED, breaker.getState());
+  }
+
+  private static CircuitBreaker newBreaker(int failureRateThreshold, int slidingWindowSize, Duration waitDuration) {
+    return new CircuitBreaker("test", failureRateThreshold, slidingWindowSize, waitDuration,
+        new SimpleMeterRegistry());
+  }
+
+  private static void call(CircuitBreaker breaker, ClientHttpRequestExecution execution) throws IOException {
+    try {
+      breaker.intercept(new MockClientHttpRequest(), new byte[0], execution).close();
+    } catch (IOException e) {
+      if (execution != IO_ERROR) {
+        throw e;
+      }
+    }
+  }
+
+  /** Starts a request which responds with the given status when released */
+  private static CompletableFuture<Void> startBlockedCall(CircuitBreaker breaker, CountDownLatch started,
+      CountDownLatch released, HttpStatus status) {
+    return CompletableFuture.runAsync(() -> {
+      try {
+        call(breaker, (request, body) -> {
+          started.countDown();
+          try {
+            released.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return new MockClientHttpResponse(new byte[0], status);
+        });
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  private static void assertRejected(CircuitBreaker breaker) throws IOException {
+    try {
+      breaker.intercept(new MockClientHttpRequest(), new byte[0], (request, body) -> {
+        throw new AssertionError("Request not rejected");
+      });
+      fail("Request not rejected");
+    } catch (CircuitBreakerOpenException e) {
+      // expected
+    }
+  }
+
+  private static ClientHttpRequestExecution respond(HttpStatus status) {
+    return (request, body) -> new MockClientHttpResponse(new byte[0], status);
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.vaulttec.http.client.ConditionalRequestCache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ConditionalRequestCacheTest {
+
+  private static final String ETAG = "\"v1\"";
+
+  private HttpServer server;
+  private List<String> ifNoneMatchHeaders;
+
+  @Before
+  public void setUp() throws IOException {
+    ifNoneMatchHeaders = Collections.synchronizedList(new ArrayList<>());
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/api/entity", exchange -> {
+      String ifNoneMatch = exchange.getRequestHeaders().getFirst(HttpHeaders.IF_NONE_MATCH);
+      ifNoneMatchHeaders.add(ifNoneMatch);
+      exchange.getResponseHeaders().set(HttpHeaders.ETAG, ETAG);
+      if (ETAG.equals(ifNoneMatch)) {
+        exchange.sendResponseHeaders(304, -1);
+      } else {
+        byte[] body = "{\"value\":1}".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() {
+    ConditionalRequestCache cache = new ConditionalRequestCache(2, new SimpleMeterRegistry(), "test");
+    HttpHeaders headers = new HttpHeaders();
+    headers.setETag(ETAG);
+    cache.put(URI.create("/a"), headers, new byte[] { 'a' });
+    cache.put(URI.create("/b"), headers, new byte[] { 'b' });
+    assertArrayEquals(new byte[] { 'a' }, cache.get(URI.create("/a")).getContent());
+    cache.put(URI.create("/c"), headers, new byte[] { 'c' });
+
+    assertEquals(2, cache.size());
+    assertNotNull(cache.get(URI.create("/a")));
+    assertNull(cache.get(URI.create("/b")));
+    assertNotNull(cache.get(URI.create("/c")));
+  }
+
+  @Test
+  public void testValidators() {
+    HttpHeaders headers = new HttpHeaders();
+    assertFalse(ConditionalRequestCache.isCacheable(headers));
+    headers.set(HttpHeaders.LAST_MODIFIED, "Wed, 21 Oct 2015 07:28:00 GMT");
+    assertTrue(ConditionalRequestCache.isCacheable(headers));
+    headers.setETag(ETAG);
+
+    ConditionalRequestCache cache = new ConditionalRequestCache(10, new SimpleMeterRegistry(), "test");
+    cache.put(URI.create("/a"), headers, new byte[] { 'a' });
+    HttpHeaders requestHeaders = new HttpHeaders();
+    cache.get(URI.create("/a")).addValidators(requestHeaders);
+    assertEquals(ETAG, requestHeaders.getIfNoneMatch().get(0));
+    assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", requestHeaders.getFirst(HttpHeaders.IF_MODIFIED_SINCE));
+  }
+
+  @Test
+  public void testNotModified() {
+    JsonRestClient.Config config = new JsonRestClient.Config("http://localhost:" + server.getAddress().getPort());
+    config.setCacheEnabled(true);
+    JsonRestClient client = new JsonRestClient(config, new SimpleMeterRegistry());
+    try {
+      JsonNode entity = client.get("/entity");
+      assertEquals(1, entity.path("value").asInt());
+      assertEquals(entity, client.get("/entity"));
+      assertEquals(Arrays.asList(null, ETAG), ifNoneMatchHeaders);
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void testNotModifiedAfterModification() {
+    JsonRestClient.Config config = new JsonRestClient.Config("http://localhost:" + server.getAddress().getPort());
+    config.setCacheEnabled(true);
+    JsonRestClient client = new JsonRestClient(config, new SimpleMeterRegistry());
+    try {
+      ((ObjectNode) client.get("/entity")).put("value", 2);
+      JsonNode entity = client.get("/entity");
+      ((ObjectNode) entity).put("value", 3);
+
+      // Each response decoded from the cache is a new entity
+      JsonNode reused = client.get("/entity");
+      assertNotSame(entity, reused);
+      assertEquals(1, reused.path("value").asInt());
+      assertEquals(Arrays.asList(null, ETAG, ETAG), ifNoneMatchHeaders);
+    } finally {
+      client.close();
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import java.net.Proxy;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.vaulttec.http.client.AbstractRestClient;
+import org.vaulttec.http.client.AbstractRestClientConfig;
+import org.vaulttec.http.client.ApiCallMetrics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Minimal REST client for testing the features of {@link AbstractRestClient}
+ * against a local server.
+ */
+class JsonRestClient extends AbstractRestClient {
+
+  JsonRestClient(Config config, MeterRegistry meterRegistry) {
+    super(config, new RestTemplateBuilder(), WebClient.builder(), meterRegistry);
+    prepareAuthenticationEntity("Authorization", "Bearer token");
+  }
+
+  /** Returns the JSON object read via the given API call or <code>null</code> if failed */
+  JsonNode get(String apiCall) {
+    return makeReadApiCall(apiCall, HttpMethod.GET, new ParameterizedTypeReference<JsonNode>() {
+    }, createUriVariables());
+  }
+
+  /** Returns the future JSON object read via the given API call or <code>null</code> if failed */
+  CompletableFuture<JsonNode> getAsync(String apiCall, HttpStatus... ignoreStatus) {
+    return makeReadApiCallAsync(apiCall, HttpMethod.GET, new ParameterizedTypeReference<JsonNode>() {
+    }, createUriVariables(), ignoreStatus);
+  }
+
+  /** Returns the resource read from the given server path or <code>null</code> if failed */
+  byte[] getResource(String path, int maxSize) {
+    return readResource("/resource", URI.create(getServerUrl() + path), maxSize);
+  }
+
+  /**
+   * Checks the deadline of a list API call before and after the given delay.
+   */
+  void checkListDeadline(long delayMillis) throws InterruptedException {
+    ApiCallMetrics.Sample sample = apiCallMetrics.startList("/entities", HttpMethod.GET);
+    long deadline = getListDeadline();
+    checkListDeadline(deadline, "/entities", sample);
+    Thread.sleep(delayMillis);
+    checkListDeadline(deadline, "/entities", sample);
+  }
+
+  /** Applies the deadline of a list API call to the given non-blocking call */
+  <T> Mono<T> withListDeadline(Mono<T> listCall) {
+    return withListDeadline(listCall, "/entities", apiCallMetrics.startList("/entities", HttpMethod.GET));
+  }
+
+  static class Config extends AbstractRestClientConfig {
+    private final String serverUrl;
+
+    Config(String serverUrl) {
+      this.serverUrl = serverUrl;
+    }
+
+    @Override
+    public String getName() {
+      return "test";
+    }
+
+    @Override
+    public String getServerUrl() {
+      return serverUrl;
+    }
+
+    @Override
+    public String getApiPath() {
+      return "/api";
+    }
+
+    @Override
+    public int getPerPage() {
+      return 100;
+    }
+
+    @Override
+    public Proxy getProxy() {
+      return null;
+    }
+  }
+}
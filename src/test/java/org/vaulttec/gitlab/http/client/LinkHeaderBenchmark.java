@@ -0,0 +1,181 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.StringUtils;
+import org.vaulttec.http.client.LinkHeader;
+
+/**
+ * Compares the {@link LinkHeader} parser with the previous implementation
+ * (based on <code>String.split()</code>, regular expressions and eagerly
+ * created URIs) on a GitLab "Link" header with four links.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkHeaderBenchmark {
+
+  private static final String URL = "https://gitlab.example.com/api/v4/users?active=true&with_custom_attributes=true"
+      + "&order_by=id&sort=asc";
+
+  private final HttpHeaders headers = new HttpHeaders();
+
+  public LinkHeaderBenchmark() {
+    headers.add(HttpHeaders.LINK, "<" + URL + "&page=3&per_page=100>; rel=\"prev\", <" + URL
+        + "&page=5&per_page=100>; rel=\"next\", <" + URL + "&page=1&per_page=100>; rel=\"first\", <" + URL
+        + "&page=50&per_page=100>; rel=\"last\"");
+  }
+
+  @Benchmark
+  public Object legacyParse() {
+    return LegacyLinkHeader.parse(headers);
+  }
+
+  @Benchmark
+  public Object parse() {
+    return LinkHeader.parse(headers);
+  }
+
+  @Benchmark
+  public Object legacyParseAndFollowNext() {
+    return LegacyLinkHeader.parse(headers).get(LinkHeader.Rel.NEXT).resourceUri;
+  }
+
+  @Benchmark
+  public Object parseAndFollowNext() {
+    return LinkHeader.parse(headers).getLink(LinkHeader.Rel.NEXT).getResourceUri();
+  }
+
+  /**
+   * Copy of the previous implementation of {@link LinkHeader#parse(HttpHeaders)}.
+   */
+  static final class LegacyLinkHeader {
+    private static final Pattern QUERY_PATTERN = Pattern.compile("([^&=]+)=?([^&]+)?");
+
+    private final URI resourceUri;
+    private final int page;
+    private final int perPage;
+    private final LinkHeader.Rel rel;
+
+    private LegacyLinkHeader(URI resourceUri, int page, int perPage, LinkHeader.Rel rel) {
+      this.resourceUri = resourceUri;
+      this.page = page;
+      this.perPage = perPage;
+      this.rel = rel;
+    }
+
+    static Map<LinkHeader.Rel, LegacyLinkHeader> parse(HttpHeaders headers) {
+      String linkValue = headers.getFirst(HttpHeaders.LINK);
+      if (StringUtils.hasText(linkValue)) {
+        String[] linkValues = linkValue.split(",");
+        if (linkValues.length > 0) {
+          Map<LinkHeader.Rel, LegacyLinkHeader> links = new HashMap<>();
+          for (int i = 0; i < linkValues.length; i++) {
+            LegacyLinkHeader link = fromSource(linkValues[i]);
+            if (link != null && link.rel != null) {
+              links.put(link.rel, link);
+            }
+          }
+          return links;
+        }
+      }
+      return null;
+    }
+
+    private static LinkHeader.Rel relFromSource(String source) {
+      if (source != null) {
+        for (LinkHeader.Rel rel : LinkHeader.Rel.values()) {
+          String pattern = "rel=\"" + rel.name().toLowerCase() + "\"";
+          if (source.indexOf(pattern) != -1) {
+            return rel;
+          }
+        }
+      }
+      return null;
+    }
+
+    private static LegacyLinkHeader fromSource(String source) {
+      if (StringUtils.isEmpty(source)) {
+        return null;
+      }
+      URI resourceUri = getResourceUri(source);
+      int page = getQueryParameterValue(resourceUri, "page");
+      int perPage = getQueryParameterValue(resourceUri, "per_page");
+      LinkHeader.Rel rel = relFromSource(source);
+      return new LegacyLinkHeader(resourceUri, page, perPage, rel);
+    }
+
+    private static URI getResourceUri(String source) {
+      int startIndex = source.indexOf("<");
+      int endIndex = source.indexOf(">");
+      if (startIndex < 0 || endIndex < 0) {
+        return null;
+      } else {
+        String resourceString = source.substring(startIndex, endIndex + 1);
+        try {
+          return new URI(resourceString.substring(1, resourceString.length() - 1));
+        } catch (URISyntaxException e) {
+          throw new IllegalStateException("", e);
+        }
+      }
+    }
+
+    private static int getQueryParameterValue(URI resourceUri, String paramName) {
+      if (resourceUri == null) {
+        return -1;
+      }
+      String query = resourceUri.getQuery();
+      if (query == null)
+        return -1;
+      Matcher matcher = QUERY_PATTERN.matcher(query);
+      while (matcher.find()) {
+        String name = matcher.group(1);
+        String value = matcher.group(2);
+        if (name.equals(paramName)) {
+          if (StringUtils.isEmpty(value)) {
+            return -1;
+          } else {
+            return Integer.valueOf(value);
+          }
+        }
+      }
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * GitLab Community
+ * Copyright (c) 2020 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.vaulttec.http.client.RateLimitThrottler;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class RateLimitThrottlerTest {
+
+  private SimpleMeterRegistry meterRegistry;
+  private AtomicInteger requests;
+
+  @Before
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    requests = new AtomicInteger();
+  }
+
+  @After
+  public void tearDown() {
+    RequestContextHolder.resetRequestAttributes();
+  }
+
+  @Test
+  public void testGitLabEpochReset() throws IOException {
+    RateLimitThrottler throttler = newThrottler(Duration.ofSeconds(10));
+    long reset = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 2;
+    call(throttler, rateLimit(HttpStatus.OK, "RateLimit-", 10, 0, reset));
+    call(throttler, respond(HttpStatus.OK, new HttpHeaders()));
+
+    // Waited until the reset given in epoch seconds
+    long delay = getMaxDelay();
+    assertTrue("Delay " + delay, delay > 0 && delay <= 2000);
+  }
+
+  @Test
+  public void testMattermostRelativeReset() throws IOException {
+    RateLimitThrottler throttler = newThrottler(Duration.ofSeconds(10));
+    call(throttler, rateLimit(HttpStatus.OK, "X-Ratelimit-", 10, 0, 2));
+    call(throttler, respond(HttpStatus.OK, new HttpHeaders()));
+
+    // Waited until the reset given in seconds from now
+    long delay = getMaxDelay();
+    assertTrue("Delay " + delay, delay > 1500 && delay <= 2000);
+  }
+
+  @Test
+  public void testResetInPast() throws IOException {
+    RateLimitThrottler throttler = newThrottler(Duration.ofSeconds(10));
+    long reset = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - 60;
+    call(throttler, rateLimit(HttpStatus.OK, "RateLimit-", 10, 0, reset));
+    call(throttler, respond(HttpStatus.OK, new HttpHeaders()));
+
+    // A reset which already passed (clock skew) waits for one second only
+    long delay = getMaxDelay();
+    assertTrue("Delay " + delay, delay > 0 && delay <= 1000);
+  }
+
+  @Test
+  public void testPacingThreshold() throws IOException {
+    RateLimitThrottler throttler = newThrottler(Duration.ofMillis(100));
+    long reset = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 60;
+    call(throttler, rateLimit(HttpStatus.OK, "RateLimit-", 100, 60, reset));
+    call(throttler, respond(HttpStatus.OK, new HttpHeaders()));
+    call(throttler, respond(HttpStatus.OK, new HttpHeaders()));
+    assertEquals(0, getDelays().count());
+    assertEquals(58, throttler.getRemaining());
+
+    // Below half of the budget the requests are spread until the reset
+    call(throttler, rateLimit(HttpStatus.OK, "RateLimit-", 100, 40, reset));
+    call(throttler, respond(HttpStatus.OK, new HttpHeaders()));
+    call(throttler, respond(HttpStatus.OK, new HttpHeaders()));
+    assertEquals(1, getDelays().count());
+    assertEquals(100, getMaxDelay());
+  }
+
+  @Test
+  public void testRetryAfterSeconds() throws IOException {
+    RateLimitThrottler throttler = newThrottler(Duration.ofSeconds(10));
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.RETRY_AFTER, "1");
+    ClientHttpRequestExecution execution = tooManyRequestsOnce(headers);
+    assertEquals(HttpStatus.OK, call(throttler, execution));
+    assertEquals(2, requests.get());
+    assertEquals(1000, getMaxDelay());
+  }
+
+  @Test
+  public void testRetryAfterDate() throws IOException {
+    RateLimitThrottler throttler = newThrottler(Duration.ofSeconds(10));
+    HttpHeaders headers = new HttpHeaders();
+    headers.setDate(HttpHeaders.RETRY_AFTER, System.currentTimeMillis() + 2000);
+    ClientHttpRequestExecution execution = tooManyRequestsOnce(headers);
+    assertEquals(HttpStatus.OK, call(throttler, execution));
+    assertEquals(2, requests.get());
+    long delay = getMaxDelay();
+    assertTrue("Delay " + delay, delay > 0 && delay <= 2000);
+  }
+
+  @Test
+  public void testMaxRetries() throws IOException {
+    RateLimitThrottler throttler = new RateLimitThrottler("test", 2, Duration.ofMillis(10), Duration.ofSeconds(5),
+        meterRegistry);
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS, call(throttler, respond(HttpStatus.TOO_MANY_REQUESTS,
+        new HttpHeaders())));
+    assertEquals(3, requests.get());
+  }
+
+  @Test
+  public void testInteractiveWait() throws IOException {
+    RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+    RateLimitThrottler throttler = newThrottler(Duration.ofSeconds(10));
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.RETRY_AFTER, "60");
+    long start = System.nanoTime();
+
+    // A retry exceeding the wait budget of an interactive request isn't waited for
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS, call(throttler, respond(HttpStatus.TOO_MANY_REQUESTS, headers)));
+    assertEquals(1, requests.get());
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+    // The exhausted budget delays the next interactive request by the budget at most
+    call(throttler, respond(HttpStatus.OK, new HttpHeaders()));
+    assertEquals(500, getMaxDelay());
+  }
+
+  private RateLimitThrottler newThrottler(Duration maxDelay) {
+    return new RateLimitThrottler("test", 3, maxDelay, Duration.ofMillis(500), meterRegistry);
+  }
+
+  private Timer getDelays() {
+    return meterRegistry.get("http.client.rate.limit.delay").timer();
+  }
+
+  private long getMaxDelay() {
+    return (long) getDelays().max(TimeUnit.MILLISECONDS);
+  }
+
+  private static HttpStatus call(RateLimitThrottler throttler, ClientHttpRequestExecution execution)
+      throws IOException {
+    try (ClientHttpResponse response = throttler.intercept(new MockClientHttpRequest(), new byte[0], execution)) {
+      return response.getStatusCode();
+    }
+  }
+
+  private ClientHttpRequestExecution rateLimit(HttpStatus status, String prefix, int limit, int remaining,
+      long reset) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(prefix + "Limit", String.valueOf(limit));
+    headers.set(prefix + "Remaining", String.valueOf(remaining));
+    headers.set(prefix + "Reset", String.valueOf(reset));
+    return respond(status, headers);
+  }
+
+  /** Rejects the first request with the given headers and responds OK afterwards */
+  private ClientHttpRequestExecution tooManyRequestsOnce(HttpHeaders headers) {
+    ClientHttpRequestExecution tooManyRequests = respond(HttpStatus.TOO_MANY_REQUESTS, headers);
+    ClientHttpRequestExecution ok = respond(HttpStatus.OK, new HttpHeaders());
+    return (request, body) -> (requests.get() == 0 ? tooManyRequests : ok).execute(request, body);
+  }
+
+  private ClientHttpRequestExecution respond(HttpStatus status, HttpHeaders headers) {
+    return (request, body) -> {
+      requests.incrementAndGet();
+      MockClientHttpResponse response = new MockClientHttpResponse(new byte[0], status);
+      response.getHeaders().putAll(headers);
+      return response;
+    };
+  }
+}